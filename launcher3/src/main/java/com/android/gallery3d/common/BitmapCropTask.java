@@ -23,6 +23,7 @@ import android.graphics.Bitmap.CompressFormat;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Point;
@@ -33,21 +34,37 @@ import android.os.AsyncTask;
 import com.android.launcher3.util.Log;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
 
 public class BitmapCropTask extends AsyncTask<Void, Void, Boolean> {
 
     public interface OnBitmapCroppedHandler {
-        public void onBitmapCropped(byte[] imageBytes);
+        /**
+         * Called with the encoded JPEG, which is deleted once this returns. Move the file
+         * elsewhere to keep it.
+         */
+        public void onBitmapCropped(File imageFile);
     }
 
     private static final int DEFAULT_COMPRESS_QUALITY = 90;
     private static final String LOGTAG = "BitmapCropTask";
 
+    // Size of the bands decoded when the crop is too large to decode at once
+    private static final int BAND_BYTE_COUNT = 4 * 1024 * 1024;
+
+    // Output bitmap of the last crop which was not kept by its caller, reused by the next crop
+    // of the same size, as when setting several wallpapers in a row.
+    private static SoftReference<Bitmap> sOutputBitmap;
+
     Uri mInUri = null;
     Context mContext;
     String mInFilePath;
@@ -141,7 +158,7 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Boolean> {
                     return new BufferedInputStream(mResources.openRawResource(mInResId));
                 }
             } catch (FileNotFoundException e) {
-                Log.w(LOGTAG, "cannot read file: " + mInUri.toString() + ", exception: " + e);
+                Log.w(LOGTAG, "cannot read file: " + getInputName() + ", exception: " + e);
             }
         }
         return null;
@@ -168,17 +185,11 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Boolean> {
     public Bitmap getCroppedBitmap() {
         return mCroppedBitmap;
     }
-    public boolean cropBitmap() {
-        boolean failure = false;
-
-
-        WallpaperManager wallpaperManager = null;
-        if (mSetWallpaper) {
-            wallpaperManager = WallpaperManager.getInstance(mContext.getApplicationContext());
-        }
-
 
+    public boolean cropBitmap() {
         if (mSetWallpaper && mNoCrop) {
+            WallpaperManager wallpaperManager =
+                    WallpaperManager.getInstance(mContext.getApplicationContext());
             try {
                 InputStream is = regenerateInputStream();
                 if (is != null) {
@@ -187,208 +198,379 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Boolean> {
                 }
             } catch (IOException e) {
                 Log.w(LOGTAG, "cannot write stream to wallpaper" + ", exception: " + e);
-                failure = true;
+                return false;
             }
-            return !failure;
-        } else {
-            // Find crop bounds (scaled to original image size)
-            Rect roundedTrueCrop = new Rect();
-            Matrix rotateMatrix = new Matrix();
-            Matrix inverseRotateMatrix = new Matrix();
-
-            Point bounds = getImageBounds();
-            if (mRotation > 0) {
-                rotateMatrix.setRotate(mRotation);
-                inverseRotateMatrix.setRotate(-mRotation);
-
-                mCropBounds.roundOut(roundedTrueCrop);
-                mCropBounds = new RectF(roundedTrueCrop);
-
-                if (bounds == null) {
-                    Log.w(LOGTAG, "cannot get bounds for image");
-                    failure = true;
-                    return false;
-                }
-
-                float[] rotatedBounds = new float[] { bounds.x, bounds.y };
-                rotateMatrix.mapPoints(rotatedBounds);
-                rotatedBounds[0] = Math.abs(rotatedBounds[0]);
-                rotatedBounds[1] = Math.abs(rotatedBounds[1]);
-
-                mCropBounds.offset(-rotatedBounds[0]/2, -rotatedBounds[1]/2);
-                inverseRotateMatrix.mapRect(mCropBounds);
-                mCropBounds.offset(bounds.x/2, bounds.y/2);
+            return true;
+        }
 
+        // The region decoder also gives us the image bounds, so that the source is only read
+        // once more when it fails.
+        BitmapRegionDecoder decoder = openRegionDecoder();
+        Point bounds = decoder != null
+                ? new Point(decoder.getWidth(), decoder.getHeight()) : getImageBounds();
+        if (bounds == null) {
+            Log.w(LOGTAG, "cannot get bounds for image " + getInputName());
+            if (decoder != null) {
+                decoder.recycle();
             }
+            return false;
+        }
 
+        // Find crop bounds (scaled to original image size)
+        Rect roundedTrueCrop = new Rect();
+        if (mRotation > 0) {
             mCropBounds.roundOut(roundedTrueCrop);
+            mCropBounds = new RectF(roundedTrueCrop);
 
-            if (roundedTrueCrop.width() <= 0 || roundedTrueCrop.height() <= 0) {
-                Log.w(LOGTAG, "crop has bad values for full size image");
-                failure = true;
-                return false;
+            Matrix rotateMatrix = new Matrix();
+            rotateMatrix.setRotate(mRotation);
+            float[] rotatedBounds = new float[] { bounds.x, bounds.y };
+            rotateMatrix.mapPoints(rotatedBounds);
+
+            Matrix inverseRotateMatrix = new Matrix();
+            inverseRotateMatrix.setRotate(-mRotation);
+            mCropBounds.offset(-Math.abs(rotatedBounds[0]) / 2, -Math.abs(rotatedBounds[1]) / 2);
+            inverseRotateMatrix.mapRect(mCropBounds);
+            mCropBounds.offset(bounds.x / 2, bounds.y / 2);
+        }
+        mCropBounds.roundOut(roundedTrueCrop);
+
+        if (roundedTrueCrop.width() <= 0 || roundedTrueCrop.height() <= 0) {
+            Log.w(LOGTAG, "crop has bad values for full size image");
+            if (decoder != null) {
+                decoder.recycle();
             }
+            return false;
+        }
 
-            // See how much we're reducing the size of the image
-            int scaleDownSampleSize = Math.max(1, Math.min(roundedTrueCrop.width() / mOutWidth,
+        // Decode directly at the largest sample size which still covers the output
+        int scaleDownSampleSize = 1;
+        if (mOutWidth > 0 && mOutHeight > 0) {
+            scaleDownSampleSize = Math.max(1, Math.min(roundedTrueCrop.width() / mOutWidth,
                     roundedTrueCrop.height() / mOutHeight));
-            // Attempt to open a region decoder
-            BitmapRegionDecoder decoder = null;
-            InputStream is = null;
-            try {
-                is = regenerateInputStream();
-                if (is == null) {
-                    Log.w(LOGTAG, "cannot get input stream for uri=" + mInUri.toString());
-                    failure = true;
-                    return false;
-                }
-                decoder = BitmapRegionDecoder.newInstance(is, false);
-                Utils.closeSilently(is);
-            } catch (IOException e) {
-                Log.w(LOGTAG, "cannot open region decoder for file: " + mInUri.toString() + ", exception: " + e);
-            } finally {
-               Utils.closeSilently(is);
-               is = null;
-            }
+        }
 
-            Bitmap crop = null;
-            if (decoder != null) {
-                // Do region decoding to get crop bitmap
+        Bitmap crop = null;
+        Bitmap out = null;
+        if (decoder != null) {
+            if (getDecodedByteCount(roundedTrueCrop.width(), roundedTrueCrop.height(),
+                    scaleDownSampleSize) <= getMaxDecodeByteCount()) {
                 BitmapFactory.Options options = new BitmapFactory.Options();
-                if (scaleDownSampleSize > 1) {
-                    options.inSampleSize = scaleDownSampleSize;
+                options.inSampleSize = scaleDownSampleSize;
+                try {
+                    crop = decoder.decodeRegion(roundedTrueCrop, options);
+                } catch (OutOfMemoryError e) {
+                    Log.w(LOGTAG, "cannot decode crop at once: " + getInputName());
                 }
-                crop = decoder.decodeRegion(roundedTrueCrop, options);
-                decoder.recycle();
             }
-
             if (crop == null) {
-                // BitmapRegionDecoder has failed, try to crop in-memory
-                is = regenerateInputStream();
-                Bitmap fullSize = null;
-                if (is != null) {
-                    BitmapFactory.Options options = new BitmapFactory.Options();
-                    if (scaleDownSampleSize > 1) {
-                        options.inSampleSize = scaleDownSampleSize;
-                    }
-                    fullSize = BitmapFactory.decodeStream(is, null, options);
-                    Utils.closeSilently(is);
-                }
-                if (fullSize != null) {
-                    // Find out the true sample size that was used by the decoder
-                    scaleDownSampleSize = bounds.x / fullSize.getWidth();
-                    mCropBounds.left /= scaleDownSampleSize;
-                    mCropBounds.top /= scaleDownSampleSize;
-                    mCropBounds.bottom /= scaleDownSampleSize;
-                    mCropBounds.right /= scaleDownSampleSize;
-                    mCropBounds.roundOut(roundedTrueCrop);
-
-                    // Adjust values to account for issues related to rounding
-                    if (roundedTrueCrop.width() > fullSize.getWidth()) {
-                        // Adjust the width
-                        roundedTrueCrop.right = roundedTrueCrop.left + fullSize.getWidth();
-                    }
-                    if (roundedTrueCrop.right > fullSize.getWidth()) {
-                        // Adjust the left value
-                        int adjustment = roundedTrueCrop.left -
-                                Math.max(0, roundedTrueCrop.right - roundedTrueCrop.width());
-                        roundedTrueCrop.left -= adjustment;
-                        roundedTrueCrop.right -= adjustment;
-                    }
-                    if (roundedTrueCrop.height() > fullSize.getHeight()) {
-                        // Adjust the height
-                        roundedTrueCrop.bottom = roundedTrueCrop.top + fullSize.getHeight();
-                    }
-                    if (roundedTrueCrop.bottom > fullSize.getHeight()) {
-                        // Adjust the top value
-                        int adjustment = roundedTrueCrop.top -
-                                Math.max(0, roundedTrueCrop.bottom - roundedTrueCrop.height());
-                        roundedTrueCrop.top -= adjustment;
-                        roundedTrueCrop.bottom -= adjustment;
-                    }
-
-                    crop = Bitmap.createBitmap(fullSize, roundedTrueCrop.left,
-                            roundedTrueCrop.top, roundedTrueCrop.width(),
-                            roundedTrueCrop.height());
-                }
+                // The crop is too large to decode at once, decode it strip by strip
+                out = decodeCropInBands(decoder, roundedTrueCrop, scaleDownSampleSize);
             }
-
+            decoder.recycle();
+        }
+        if (crop == null && out == null) {
+            // BitmapRegionDecoder has failed, try to crop in-memory
+            crop = decodeCropFromFullImage(bounds, roundedTrueCrop, scaleDownSampleSize);
             if (crop == null) {
-                Log.w(LOGTAG, "cannot decode file: " + mInUri.toString());
-                failure = true;
+                Log.w(LOGTAG, "cannot decode file: " + getInputName());
                 return false;
             }
-            if (mOutWidth > 0 && mOutHeight > 0 || mRotation > 0) {
-                float[] dimsAfter = new float[] { crop.getWidth(), crop.getHeight() };
-                rotateMatrix.mapPoints(dimsAfter);
-                dimsAfter[0] = Math.abs(dimsAfter[0]);
-                dimsAfter[1] = Math.abs(dimsAfter[1]);
-
-                if (!(mOutWidth > 0 && mOutHeight > 0)) {
-                    mOutWidth = Math.round(dimsAfter[0]);
-                    mOutHeight = Math.round(dimsAfter[1]);
-                }
+        }
+        if (out == null) {
+            out = transformCrop(crop);
+        }
+        if (mSaveCroppedBitmap) {
+            mCroppedBitmap = out;
+        }
 
-                RectF cropRect = new RectF(0, 0, dimsAfter[0], dimsAfter[1]);
-                RectF returnRect = new RectF(0, 0, mOutWidth, mOutHeight);
+        // Only encode when the result is going somewhere
+        boolean success = true;
+        if (mSetWallpaper || mOnBitmapCroppedHandler != null) {
+            success = writeCroppedBitmap(out);
+        }
+        if (!mSaveCroppedBitmap) {
+            if (out == crop) {
+                out.recycle();
+            } else {
+                releaseOutputBitmap(out);
+            }
+        }
+        return success;
+    }
 
-                Matrix m = new Matrix();
-                if (mRotation == 0) {
-                    m.setRectToRect(cropRect, returnRect, Matrix.ScaleToFit.FILL);
-                } else {
-                    Matrix m1 = new Matrix();
-                    m1.setTranslate(-crop.getWidth() / 2f, -crop.getHeight() / 2f);
-                    Matrix m2 = new Matrix();
-                    m2.setRotate(mRotation);
-                    Matrix m3 = new Matrix();
-                    m3.setTranslate(dimsAfter[0] / 2f, dimsAfter[1] / 2f);
-                    Matrix m4 = new Matrix();
-                    m4.setRectToRect(cropRect, returnRect, Matrix.ScaleToFit.FILL);
-
-                    Matrix c1 = new Matrix();
-                    c1.setConcat(m2, m1);
-                    Matrix c2 = new Matrix();
-                    c2.setConcat(m4, m3);
-                    m.setConcat(c2, c1);
-                }
+    private BitmapRegionDecoder openRegionDecoder() {
+        InputStream is = regenerateInputStream();
+        if (is == null) {
+            return null;
+        }
+        try {
+            return BitmapRegionDecoder.newInstance(is, false);
+        } catch (IOException e) {
+            Log.w(LOGTAG, "cannot open region decoder for file: " + getInputName()
+                    + ", exception: " + e);
+            return null;
+        } finally {
+            Utils.closeSilently(is);
+        }
+    }
 
-                Bitmap tmp = Bitmap.createBitmap((int) returnRect.width(),
-                        (int) returnRect.height(), Bitmap.Config.ARGB_8888);
-                if (tmp != null) {
-                    Canvas c = new Canvas(tmp);
-                    Paint p = new Paint();
-                    p.setFilterBitmap(true);
-                    c.drawBitmap(crop, m, p);
-                    crop = tmp;
-                }
+    /**
+     * Decodes the crop in horizontal bands of at most {@link #BAND_BYTE_COUNT} bytes, drawing
+     * each band into the output as it is decoded, so that only one band is in memory at a time.
+     *
+     * @return the output bitmap, or null if a band could not be decoded.
+     */
+    private Bitmap decodeCropInBands(BitmapRegionDecoder decoder, Rect crop, int sampleSize) {
+        float sampledWidth = crop.width() / (float) sampleSize;
+        float sampledHeight = crop.height() / (float) sampleSize;
+        Matrix m = getOutputMatrix(sampledWidth, sampledHeight);
+        Bitmap out = createOutputBitmap();
+        Canvas c = new Canvas(out);
+        c.concat(m);
+        Paint p = new Paint();
+        p.setFilterBitmap(true);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        int bandHeight = sampleSize * Math.max(1,
+                (int) (BAND_BYTE_COUNT / (4 * Math.max(1f, sampledWidth))));
+        Rect band = new Rect();
+        RectF dst = new RectF();
+        boolean success = true;
+        for (int top = crop.top; top < crop.bottom; top += bandHeight) {
+            int bottom = Math.min(crop.bottom, top + bandHeight);
+
+            // Decode a sampled row more on each side, so that filtering leaves no seams
+            band.set(crop.left, Math.max(crop.top, top - sampleSize),
+                    crop.right, Math.min(crop.bottom, bottom + sampleSize));
+            Bitmap strip;
+            try {
+                strip = decoder.decodeRegion(band, options);
+            } catch (OutOfMemoryError e) {
+                strip = null;
+            }
+            if (strip == null) {
+                Log.w(LOGTAG, "cannot decode band " + band + " of " + getInputName());
+                success = false;
+                break;
             }
 
-            if (mSaveCroppedBitmap) {
-                mCroppedBitmap = crop;
+            c.save();
+            c.clipRect(0, (top - crop.top) / (float) sampleSize,
+                    sampledWidth, (bottom - crop.top) / (float) sampleSize);
+            dst.set(0, (band.top - crop.top) / (float) sampleSize,
+                    sampledWidth, (band.bottom - crop.top) / (float) sampleSize);
+            c.drawBitmap(strip, null, dst, p);
+            c.restore();
+            strip.recycle();
+        }
+        c.setBitmap(null);
+
+        if (!success) {
+            out.recycle();
+            return null;
+        }
+        return out;
+    }
+
+    /**
+     * Decodes the whole image, sub-sampled at least enough to fit in
+     * {@link #getMaxDecodeByteCount}, and cuts the crop out of it.
+     */
+    private Bitmap decodeCropFromFullImage(Point bounds, Rect roundedTrueCrop, int sampleSize) {
+        InputStream is = regenerateInputStream();
+        if (is == null) {
+            return null;
+        }
+        long maxByteCount = getMaxDecodeByteCount();
+        while (getDecodedByteCount(bounds.x, bounds.y, sampleSize) > maxByteCount) {
+            sampleSize *= 2;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        Bitmap fullSize = BitmapFactory.decodeStream(is, null, options);
+        Utils.closeSilently(is);
+        if (fullSize == null) {
+            return null;
+        }
+
+        // Find out the true sample size that was used by the decoder
+        int scaleDownSampleSize = bounds.x / fullSize.getWidth();
+        mCropBounds.left /= scaleDownSampleSize;
+        mCropBounds.top /= scaleDownSampleSize;
+        mCropBounds.bottom /= scaleDownSampleSize;
+        mCropBounds.right /= scaleDownSampleSize;
+        mCropBounds.roundOut(roundedTrueCrop);
+
+        // Adjust values to account for issues related to rounding
+        if (roundedTrueCrop.width() > fullSize.getWidth()) {
+            // Adjust the width
+            roundedTrueCrop.right = roundedTrueCrop.left + fullSize.getWidth();
+        }
+        if (roundedTrueCrop.right > fullSize.getWidth()) {
+            // Adjust the left value
+            int adjustment = roundedTrueCrop.left -
+                    Math.max(0, roundedTrueCrop.right - roundedTrueCrop.width());
+            roundedTrueCrop.left -= adjustment;
+            roundedTrueCrop.right -= adjustment;
+        }
+        if (roundedTrueCrop.height() > fullSize.getHeight()) {
+            // Adjust the height
+            roundedTrueCrop.bottom = roundedTrueCrop.top + fullSize.getHeight();
+        }
+        if (roundedTrueCrop.bottom > fullSize.getHeight()) {
+            // Adjust the top value
+            int adjustment = roundedTrueCrop.top -
+                    Math.max(0, roundedTrueCrop.bottom - roundedTrueCrop.height());
+            roundedTrueCrop.top -= adjustment;
+            roundedTrueCrop.bottom -= adjustment;
+        }
+
+        Bitmap crop = Bitmap.createBitmap(fullSize, roundedTrueCrop.left,
+                roundedTrueCrop.top, roundedTrueCrop.width(), roundedTrueCrop.height());
+        if (crop != fullSize) {
+            fullSize.recycle();
+        }
+        return crop;
+    }
+
+    /**
+     * Rotates and scales the decoded crop to the output size in a single draw. The decoded
+     * crop is recycled if a new bitmap is returned.
+     */
+    private Bitmap transformCrop(Bitmap crop) {
+        if (!(mOutWidth > 0 && mOutHeight > 0) && mRotation == 0) {
+            return crop;
+        }
+        Matrix m = getOutputMatrix(crop.getWidth(), crop.getHeight());
+        if (mRotation == 0 && crop.getWidth() == mOutWidth && crop.getHeight() == mOutHeight) {
+            return crop;
+        }
+
+        Bitmap out = createOutputBitmap();
+        Canvas c = new Canvas(out);
+        Paint p = new Paint();
+        p.setFilterBitmap(true);
+        c.drawBitmap(crop, m, p);
+        c.setBitmap(null);
+        crop.recycle();
+        return out;
+    }
+
+    /**
+     * Returns the matrix which rotates a decoded crop of the given size around its center and
+     * scales it to fill the output. Sets the output size to the rotated crop size if it was
+     * not given.
+     */
+    private Matrix getOutputMatrix(float width, float height) {
+        float[] dimsAfter = new float[] { width, height };
+        Matrix m = new Matrix();
+        m.setRotate(mRotation);
+        m.mapPoints(dimsAfter);
+        dimsAfter[0] = Math.abs(dimsAfter[0]);
+        dimsAfter[1] = Math.abs(dimsAfter[1]);
+
+        if (!(mOutWidth > 0 && mOutHeight > 0)) {
+            mOutWidth = Math.round(dimsAfter[0]);
+            mOutHeight = Math.round(dimsAfter[1]);
+        }
+
+        m.setTranslate(-width / 2f, -height / 2f);
+        m.postRotate(mRotation);
+        m.postTranslate(dimsAfter[0] / 2f, dimsAfter[1] / 2f);
+        m.postScale(mOutWidth / dimsAfter[0], mOutHeight / dimsAfter[1]);
+        return m;
+    }
+
+    private Bitmap createOutputBitmap() {
+        return mSaveCroppedBitmap
+                ? Bitmap.createBitmap(mOutWidth, mOutHeight, Bitmap.Config.ARGB_8888)
+                : obtainOutputBitmap(mOutWidth, mOutHeight);
+    }
+
+    private static long getDecodedByteCount(int width, int height, int sampleSize) {
+        return 4L * (width / sampleSize) * (height / sampleSize);
+    }
+
+    /**
+     * Returns the largest bitmap we try to decode at once, a quarter of the heap.
+     */
+    private static long getMaxDecodeByteCount() {
+        return Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    /**
+     * Encodes the bitmap as a JPEG into a temporary file, and streams that file to the
+     * wallpaper manager and the {@link OnBitmapCroppedHandler}.
+     */
+    private boolean writeCroppedBitmap(Bitmap bitmap) {
+        if (mContext == null) {
+            Log.w(LOGTAG, "cannot write cropped bitmap without a context");
+            return false;
+        }
+        File file = null;
+        try {
+            file = File.createTempFile("crop", ".jpg", mContext.getCacheDir());
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+            boolean compressed;
+            try {
+                compressed = bitmap.compress(CompressFormat.JPEG, DEFAULT_COMPRESS_QUALITY, os);
+            } finally {
+                Utils.closeSilently(os);
+            }
+            if (!compressed) {
+                Log.w(LOGTAG, "cannot compress bitmap");
+                return false;
             }
 
-            // Compress to byte array
-            ByteArrayOutputStream tmpOut = new ByteArrayOutputStream(2048);
-            if (crop.compress(CompressFormat.JPEG, DEFAULT_COMPRESS_QUALITY, tmpOut)) {
-                // If we need to set to the wallpaper, set it
-                if (mSetWallpaper && wallpaperManager != null) {
-                    try {
-                        byte[] outByteArray = tmpOut.toByteArray();
-                        wallpaperManager.setStream(new ByteArrayInputStream(outByteArray));
-                        if (mOnBitmapCroppedHandler != null) {
-                            mOnBitmapCroppedHandler.onBitmapCropped(outByteArray);
-                        }
-                    } catch (IOException e) {
-                        Log.w(LOGTAG, "cannot write stream to wallpaper" + ", exception: " + e);
-                        failure = true;
-                    }
+            // If we need to set to the wallpaper, set it
+            if (mSetWallpaper) {
+                InputStream is = new BufferedInputStream(new FileInputStream(file));
+                try {
+                    WallpaperManager.getInstance(mContext.getApplicationContext()).setStream(is);
+                } finally {
+                    Utils.closeSilently(is);
                 }
-            } else {
-                Log.w(LOGTAG, "cannot compress bitmap");
-                failure = true;
             }
+            if (mOnBitmapCroppedHandler != null) {
+                mOnBitmapCroppedHandler.onBitmapCropped(file);
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(LOGTAG, "cannot write stream to wallpaper" + ", exception: " + e);
+            return false;
+        } finally {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    private static synchronized Bitmap obtainOutputBitmap(int width, int height) {
+        Bitmap b = sOutputBitmap != null ? sOutputBitmap.get() : null;
+        sOutputBitmap = null;
+        if (b != null && !b.isRecycled() && b.getWidth() == width && b.getHeight() == height) {
+            b.eraseColor(Color.TRANSPARENT);
+            return b;
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    private static synchronized void releaseOutputBitmap(Bitmap b) {
+        sOutputBitmap = new SoftReference<>(b);
+    }
+
+    private String getInputName() {
+        if (mInUri != null) {
+            return mInUri.toString();
+        } else if (mInFilePath != null) {
+            return mInFilePath;
+        } else if (mInImageBytes != null) {
+            return "image bytes";
+        } else {
+            return "resource " + mInResId;
         }
-        return !failure; // True if any of the operations failed
     }
 
     @Override
@@ -30,6 +30,7 @@ import java.io.InputStream;
 public class BitmapUtils {
 
     private static final String TAG = "BitmapUtils";
+    private static final int[] ORIENTATION_TAGS = { ExifInterface.TAG_ORIENTATION };
 
     // Find the min x that 1 / x >= scale
     public static int computeSampleSizeLarger(float scale) {
@@ -57,11 +58,11 @@ public class BitmapUtils {
             if (uri != null) {
                 is = context.getContentResolver().openInputStream(uri);
                 bis = new BufferedInputStream(is);
-                ei.readExif(bis);
+                ei.readExif(bis, ORIENTATION_TAGS);
             } else {
                 is = res.openRawResource(resId);
                 bis = new BufferedInputStream(is);
-                ei.readExif(bis);
+                ei.readExif(bis, ORIENTATION_TAGS);
             }
             Integer ori = ei.getTagIntValue(ExifInterface.TAG_ORIENTATION);
             if (ori != null) {
@@ -45,4 +45,22 @@ class ByteBufferInputStream extends InputStream {
         mBuf.get(bytes, off, len);
         return len;
     }
+
+    /**
+     * Moves the position of the buffer instead of reading through the skipped bytes.
+     */
+    @Override
+    public long skip(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        int skipped = (int) Math.min(n, mBuf.remaining());
+        mBuf.position(mBuf.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return mBuf.remaining();
+    }
 }
@@ -34,6 +34,7 @@ import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -757,15 +758,97 @@ public class ExifInterface {
         if (inFileName == null) {
             throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
         }
-        InputStream is = null;
+        readExif(mapFile(inFileName));
+    }
+
+    /**
+     * Reads the exif tags from a ByteBuffer, clearing this ExifInterface
+     * object's existing exif tags. The buffer is read from its current position
+     * and is not modified. Skipping to the IFDs and tag values only moves the
+     * buffer position, so parsing a memory mapped file does not copy or read
+     * through the data in between.
+     *
+     * @param buffer a ByteBuffer containing a jpeg compressed image.
+     * @throws IOException
+     */
+    public void readExif(ByteBuffer buffer) throws IOException {
+        if (buffer == null) {
+            throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
+        }
+        readExif(new ByteBufferInputStream(buffer.duplicate()));
+    }
+
+    /**
+     * Reads only the given exif tags from a ByteBuffer, clearing this
+     * ExifInterface object's existing exif tags.
+     *
+     * @param buffer a ByteBuffer containing a jpeg compressed image.
+     * @param tagIds the defined tag constants to read.
+     * @throws IOException
+     * @see #readExif(ByteBuffer)
+     * @see #readExif(InputStream, int[])
+     */
+    public void readExif(ByteBuffer buffer, int[] tagIds) throws IOException {
+        if (buffer == null) {
+            throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
+        }
+        readExif(new ByteBufferInputStream(buffer.duplicate()), tagIds);
+    }
+
+    /**
+     * Reads only the given exif tags from an InputStream, clearing this
+     * ExifInterface object's existing exif tags. Parsing stops as soon as all
+     * the tags are found and the thumbnail is never read, which makes this much
+     * cheaper than {@link #readExif(InputStream)} when only a few tags, like
+     * {@link #TAG_ORIENTATION}, are needed.
+     *
+     * @param inStream an InputStream containing a jpeg compressed image.
+     * @param tagIds the defined tag constants to read.
+     * @throws IOException
+     */
+    public void readExif(InputStream inStream, int[] tagIds) throws IOException {
+        if (inStream == null || tagIds == null) {
+            throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
+        }
+        ExifData d = null;
         try {
-            is = (InputStream) new BufferedInputStream(new FileInputStream(inFileName));
-            readExif(is);
-        } catch (IOException e) {
-            closeSilently(is);
-            throw e;
+            d = new ExifReader(this).read(inStream, tagIds);
+        } catch (ExifInvalidFormatException e) {
+            throw new IOException("Invalid exif format : " + e);
+        }
+        mData = d;
+    }
+
+    /**
+     * Reads only the given exif tags from a file, clearing this ExifInterface
+     * object's existing exif tags.
+     *
+     * @param inFileName a string representing the filepath to jpeg file.
+     * @param tagIds the defined tag constants to read.
+     * @throws FileNotFoundException
+     * @throws IOException
+     * @see #readExif(InputStream, int[])
+     */
+    public void readExif(String inFileName, int[] tagIds)
+            throws FileNotFoundException, IOException {
+        if (inFileName == null) {
+            throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
+        }
+        readExif(mapFile(inFileName), tagIds);
+    }
+
+    /**
+     * Maps a file read-only into memory. The mapping stays valid after the
+     * file is closed, and pages are only loaded as they are read.
+     */
+    private static ByteBuffer mapFile(String fileName) throws FileNotFoundException, IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            return channel.map(MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            closeSilently(file);
         }
-        is.close();
     }
 
     /**
@@ -936,15 +1019,19 @@ public class ExifInterface {
         if (jpegFileName == null || exifOutFileName == null) {
             throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
         }
-        InputStream is = null;
+        FileInputStream is = null;
+        FileOutputStream os = null;
         try {
             is = new FileInputStream(jpegFileName);
-            writeExif(is, exifOutFileName);
+            os = new FileOutputStream(exifOutFileName);
+            doExifFileIO(is, os);
         } catch (IOException e) {
             closeSilently(is);
+            closeSilently(os);
             throw e;
         }
         is.close();
+        os.close();
     }
 
     /**
@@ -1095,24 +1182,20 @@ public class ExifInterface {
             IOException {
         // Attempt in-place write
         if (!rewriteExif(filename, tags)) {
-            // Fall back to doing a copy
+            // Fall back to writing a new file next to the original and
+            // replacing it, without buffering the image in memory.
             ExifData tempData = mData;
-            mData = new ExifData(DEFAULT_BYTE_ORDER);
-            FileInputStream is = null;
-            ByteArrayOutputStream bytes = null;
+            File file = new File(filename);
+            File temp = new File(filename + ".tmp");
             try {
-                is = new FileInputStream(filename);
-                bytes = new ByteArrayOutputStream();
-                doExifStreamIO(is, bytes);
-                byte[] imageBytes = bytes.toByteArray();
-                readExif(imageBytes);
+                readExif(filename);
                 setTags(tags);
-                writeExif(imageBytes, filename);
-            } catch (IOException e) {
-                closeSilently(is);
-                throw e;
+                writeExif(filename, temp.getPath());
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Failed to replace " + filename);
+                }
             } finally {
-                is.close();
+                temp.delete();
                 // Prevent clobbering of mData
                 mData = tempData;
             }
@@ -2049,6 +2132,37 @@ public class ExifInterface {
         }
     }
 
+    /**
+     * Copies a jpeg file with the tags of this object. Only the segments up to
+     * the end of the Exif header go through {@link ExifOutputStream}, the rest
+     * of the image is transferred between the file channels directly.
+     */
+    private void doExifFileIO(FileInputStream is, FileOutputStream os) throws IOException {
+        ExifOutputStream s = (ExifOutputStream) getExifWriterStream(os);
+        byte[] buf = new byte[1024];
+        while (!s.isPassingThrough()) {
+            int ret = is.read(buf, 0, buf.length);
+            if (ret == -1) {
+                break;
+            }
+            s.write(buf, 0, ret);
+        }
+        s.flush();
+
+        // The stream and channel positions are shared
+        FileChannel in = is.getChannel();
+        FileChannel out = os.getChannel();
+        long position = in.position();
+        long size = in.size();
+        while (position < size) {
+            long count = in.transferTo(position, size - position, out);
+            if (count <= 0) {
+                throw new IOException("Failed to copy image data");
+            }
+            position += count;
+        }
+    }
+
     protected static void closeSilently(Closeable c) {
         if (c != null) {
             try {
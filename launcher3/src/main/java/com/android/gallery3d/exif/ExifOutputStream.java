@@ -102,6 +102,14 @@ class ExifOutputStream extends FilterOutputStream {
         return mExifData;
     }
 
+    /**
+     * Returns true once the Exif header has been replaced and all the remaining
+     * image data is copied to the output unchanged.
+     */
+    protected boolean isPassingThrough() {
+        return mState == STATE_JPEG_DATA && mByteToSkip == 0 && mByteToCopy == 0;
+    }
+
     private int requestByteToBuffer(int requestByteCount, byte[] buffer
             , int offset, int length) {
         int byteNeeded = requestByteCount - mBuffer.position();
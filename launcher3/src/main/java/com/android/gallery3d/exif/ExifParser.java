@@ -256,6 +256,36 @@ class ExifParser {
                 | OPTION_THUMBNAIL, iRef);
     }
 
+    /**
+     * Returns the options needed to parse the given tags, without the thumbnail and without any
+     * IFD which cannot contain them.
+     *
+     * @param tagIds defined tag constants, e.g. {@link ExifInterface#TAG_ORIENTATION}.
+     */
+    protected static int getOptionsForTags(int[] tagIds) {
+        int options = 0;
+        for (int tagId : tagIds) {
+            switch (ExifInterface.getTrueIfd(tagId)) {
+                case IfdId.TYPE_IFD_0:
+                    options |= OPTION_IFD_0;
+                    break;
+                case IfdId.TYPE_IFD_1:
+                    options |= OPTION_IFD_1;
+                    break;
+                case IfdId.TYPE_IFD_EXIF:
+                    options |= OPTION_IFD_EXIF;
+                    break;
+                case IfdId.TYPE_IFD_GPS:
+                    options |= OPTION_IFD_GPS;
+                    break;
+                case IfdId.TYPE_IFD_INTEROPERABILITY:
+                    options |= OPTION_IFD_INTEROPERABILITY;
+                    break;
+            }
+        }
+        return options;
+    }
+
     /**
      * Moves the parser forward and returns the next parsing event
      *
@@ -89,4 +89,74 @@ class ExifReader {
         }
         return exifData;
     }
+
+    /**
+     * Parses the inputStream for the given tags only and returns them in an
+     * {@link ExifData}. Only the IFDs which can contain the tags are parsed,
+     * the thumbnail and strips are never read, and parsing stops as soon as
+     * all the tags have been found.
+     *
+     * @param tagIds defined tag constants, e.g. {@link ExifInterface#TAG_ORIENTATION}.
+     * @throws ExifInvalidFormatException
+     * @throws IOException
+     */
+    protected ExifData read(InputStream inputStream, int[] tagIds)
+            throws ExifInvalidFormatException, IOException {
+        ExifParser parser = ExifParser.parse(inputStream, ExifParser.getOptionsForTags(tagIds),
+                mInterface);
+        ExifData exifData = new ExifData(parser.getByteOrder());
+        boolean[] found = new boolean[tagIds.length];
+        int remaining = tagIds.length;
+        ExifTag tag = null;
+        int index;
+
+        int event = parser.next();
+        while (event != ExifParser.EVENT_END && remaining > 0) {
+            switch (event) {
+                case ExifParser.EVENT_START_OF_IFD:
+                    exifData.addIfdData(new IfdData(parser.getCurrentIfd()));
+                    break;
+                case ExifParser.EVENT_NEW_TAG:
+                    tag = parser.getTag();
+                    index = indexOfTag(tagIds, tag);
+                    if (index < 0 || found[index]) {
+                        break;
+                    }
+                    if (!tag.hasValue()) {
+                        parser.registerForTagValue(tag);
+                    } else {
+                        exifData.getIfdData(tag.getIfd()).setTag(tag);
+                        found[index] = true;
+                        remaining--;
+                    }
+                    break;
+                case ExifParser.EVENT_VALUE_OF_REGISTERED_TAG:
+                    tag = parser.getTag();
+                    if (tag.getDataType() == ExifTag.TYPE_UNDEFINED) {
+                        parser.readFullTagValue(tag);
+                    }
+                    exifData.getIfdData(tag.getIfd()).setTag(tag);
+                    index = indexOfTag(tagIds, tag);
+                    if (index >= 0 && !found[index]) {
+                        found[index] = true;
+                        remaining--;
+                    }
+                    break;
+            }
+            if (remaining > 0) {
+                event = parser.next();
+            }
+        }
+        return exifData;
+    }
+
+    private static int indexOfTag(int[] tagIds, ExifTag tag) {
+        for (int i = 0; i < tagIds.length; i++) {
+            if (ExifInterface.getTrueTagKey(tagIds[i]) == tag.getTagId()
+                    && ExifInterface.getTrueIfd(tagIds[i]) == tag.getIfd()) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
@@ -23,18 +23,18 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.content.res.XmlResourceParser;
-import android.database.sqlite.SQLiteDatabase;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.text.TextUtils;
 import android.util.Pair;
 import android.util.Patterns;
 
-import com.android.launcher3.LauncherProvider.SqlArguments;
 import com.android.launcher3.LauncherSettings.Favorites;
 import com.android.launcher3.util.Log;
 import com.android.launcher3.util.Thunk;
@@ -46,6 +46,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * Layout parsing code for auto installs layout
@@ -159,7 +160,8 @@ public class AutoInstallsLayout {
     @Thunk final ContentValues mValues;
     protected final String mRootTag;
 
-    protected SQLiteDatabase mDb;
+    // Rows parsed so far, only set while parsing
+    protected LayoutPlan mPlan;
 
     public AutoInstallsLayout(Context context, AppWidgetHost appWidgetHost,
             LayoutParserCallback callback, Resources res,
@@ -185,16 +187,152 @@ public class AutoInstallsLayout {
     }
 
     /**
-     * Loads the layout in the db and returns the number of entries added on the desktop.
+     * Parses the layout and loads the icons of its items, without writing anything to the db.
+     * The result is cached, and replayed the next time the same layout is loaded.
+     * @return the rows to add, or null if the layout could not be parsed.
      */
-    public int loadLayout(SQLiteDatabase db, ArrayList<Long> screenIds) {
-        mDb = db;
+    public LayoutPlan loadLayout() {
+        LayoutCache cache = new LayoutCache(mContext);
+        String cacheKey = getCacheKey();
+        if (cacheKey != null) {
+            LayoutPlan cached = cache.read(cacheKey);
+            if (cached != null && isCachedLayoutCurrent(cached) && restoreCachedLayout(cached)) {
+                if (LOGD) Log.d(TAG, "Using cached layout " + cacheKey);
+                return cached;
+            }
+        }
+
+        LayoutPlan plan = new LayoutPlan();
+        mPlan = plan;
         try {
-            return parseLayout(mLayoutId, screenIds);
+            plan.setDesktopItemCount(parseLayout(mLayoutId, plan.getScreenIds()));
         } catch (Exception e) {
             Log.w(TAG, "Got exception parsing layout." + ", exception: " + e);
-            return -1;
+            // Release the widgets bound before the failure, the plan is dropped
+            for (int appWidgetId : plan.getAppWidgetIds()) {
+                mAppWidgetHost.deleteAppWidgetId(appWidgetId);
+            }
+            return null;
+        } finally {
+            mPlan = null;
+        }
+        plan.loadIcons(mContext);
+
+        if (cacheKey != null && plan.isCacheable()) {
+            cache.write(cacheKey, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Returns the key under which the parsed layout is cached, or null if it cannot be cached.
+     * It covers the layout and the code parsing it, the grid, the system apps through the build
+     * and the locale of the titles. The other packages and the uris the layout resolved against
+     * are checked when the cached layout is read, see {@link #addPackageDependency}.
+     */
+    protected String getCacheKey() {
+        String layoutName;
+        String sourceVersion;
+        try {
+            layoutName = mSourceRes.getResourceName(mLayoutId);
+            sourceVersion = getPackageVersion(mSourceRes.getResourcePackageName(mLayoutId));
+        } catch (Resources.NotFoundException e) {
+            return null;
+        }
+        String launcherVersion = getPackageVersion(mContext.getPackageName());
+        if (sourceVersion == null || launcherVersion == null) {
+            return null;
         }
+        InvariantDeviceProfile profile =
+                LauncherAppState.getInstance().getInvariantDeviceProfile();
+        return getClass().getName() + "/" + layoutName
+                + "/" + mLayoutId + "/" + mRootTag
+                + "/" + sourceVersion + "/" + launcherVersion
+                + "/" + profile.numColumns + "x" + profile.numRows
+                + "/" + profile.numHotseatIcons + "/" + mHotseatAllAppsRank
+                + "/" + profile.iconBitmapSize
+                + "/" + Locale.getDefault() + "/" + Build.FINGERPRINT;
+    }
+
+    /**
+     * Records that the parsed rows depend on whether the package is installed and on its
+     * version, so that the cached layout is parsed again when the package changes.
+     */
+    protected void addPackageDependency(String packageName) {
+        mPlan.addPackageVersion(packageName, getPackageVersion(packageName));
+    }
+
+    /**
+     * Returns the component the uri of a favorite resolves to, or null if it resolves to none.
+     * Only needed by parsers which add uri favorites, see {@link LayoutPlan#addResolvedUri}.
+     */
+    protected String resolveUri(String uri) {
+        return null;
+    }
+
+    private boolean isCachedLayoutCurrent(LayoutPlan plan) {
+        for (Map.Entry<String, String> entry : plan.getPackageVersions().entrySet()) {
+            if (!TextUtils.equals(entry.getValue(), getPackageVersion(entry.getKey()))) {
+                if (LOGD) Log.d(TAG, "Cached layout is stale, " + entry.getKey() + " changed");
+                return false;
+            }
+        }
+        // Much cheaper than parsing the layout and loading its icons again
+        for (Map.Entry<String, String> entry : plan.getResolvedUris().entrySet()) {
+            if (!TextUtils.equals(entry.getValue(), resolveUri(entry.getKey()))) {
+                if (LOGD) Log.d(TAG, "Cached layout is stale, " + entry.getKey() + " changed");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String getPackageVersion(String packageName) {
+        try {
+            PackageInfo info = mPackageManager.getPackageInfo(packageName, 0);
+            return info.versionCode + "." + info.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Prepares a cached layout to be added again, with new item ids and newly bound widgets.
+     * @return false if the layout must be parsed again.
+     */
+    private boolean restoreCachedLayout(LayoutPlan plan) {
+        plan.reassignIds(mCallback);
+
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(mContext);
+        ArrayList<Integer> boundIds = new ArrayList<Integer>();
+        for (ContentValues row : plan.getItems()) {
+            if (!row.containsKey(Favorites.APPWIDGET_PROVIDER)) {
+                continue;
+            }
+            ComponentName cn = ComponentName.unflattenFromString(
+                    row.getAsString(Favorites.APPWIDGET_PROVIDER));
+            int appWidgetId = -1;
+            try {
+                appWidgetId = mAppWidgetHost.allocateAppWidgetId();
+                if (cn != null && appWidgetManager.bindAppWidgetIdIfAllowed(appWidgetId, cn)) {
+                    row.put(Favorites.APPWIDGET_ID, appWidgetId);
+                    boundIds.add(appWidgetId);
+                    continue;
+                }
+            } catch (RuntimeException ex) {
+                if (LOGD) Log.e(TAG, "Problem allocating appWidgetId", ex);
+            }
+
+            // Let the layout be parsed again, which skips the widgets that cannot be bound
+            if (appWidgetId != -1) {
+                mAppWidgetHost.deleteAppWidgetId(appWidgetId);
+            }
+            for (int id : boundIds) {
+                mAppWidgetHost.deleteAppWidgetId(id);
+            }
+            return false;
+        }
+        return true;
     }
 
     /**
@@ -289,11 +427,7 @@ public class AutoInstallsLayout {
         mValues.put(Favorites.SPANX, 1);
         mValues.put(Favorites.SPANY, 1);
         mValues.put(Favorites._ID, id);
-        if (mCallback.insertAndCheck(mDb, mValues) < 0) {
-            return -1;
-        } else {
-            return id;
-        }
+        return mPlan.add(mValues);
     }
 
     protected HashMap<String, TagParser> getFolderElementsMap() {
@@ -316,7 +450,7 @@ public class AutoInstallsLayout {
 
     protected interface TagParser {
         /**
-         * Parses the tag and adds to the db
+         * Parses the tag and adds its rows to {@link #mPlan}
          * @return the id of the row added or -1;
          */
         long parseAndAdd(XmlResourceParser parser)
@@ -338,11 +472,13 @@ public class AutoInstallsLayout {
                 try {
                     ComponentName cn;
                     try {
+                        addPackageDependency(packageName);
                         cn = new ComponentName(packageName, className);
                         info = mPackageManager.getActivityInfo(cn, 0);
                     } catch (PackageManager.NameNotFoundException nnfe) {
                         String[] packages = mPackageManager.currentToCanonicalPackageNames(
                                 new String[] { packageName });
+                        addPackageDependency(packages[0]);
                         cn = new ComponentName(packages[0], className);
                         info = mPackageManager.getActivityInfo(cn, 0);
                     }
@@ -429,15 +565,19 @@ public class AutoInstallsLayout {
                 return -1;
             }
 
-            ItemInfo.writeBitmap(mValues, Utilities.createIconBitmap(icon, mContext));
             mValues.put(Favorites.ICON_TYPE, Favorites.ICON_TYPE_RESOURCE);
             mValues.put(Favorites.ICON_PACKAGE, mIconRes.getResourcePackageName(iconId));
             mValues.put(Favorites.ICON_RESOURCE, mIconRes.getResourceName(iconId));
 
             intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK |
                         Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED);
-            return addShortcut(mSourceRes.getString(titleResId),
+            long id = addShortcut(mSourceRes.getString(titleResId),
                     intent, Favorites.ITEM_TYPE_SHORTCUT);
+            if (id >= 0) {
+                // The icon bitmap is rendered once the whole layout is parsed
+                mPlan.loadIconLater(id, icon);
+            }
+            return id;
         }
 
         protected Intent parseIntent(XmlResourceParser parser) {
@@ -466,12 +606,14 @@ public class AutoInstallsLayout {
                 return -1;
             }
 
+            addPackageDependency(packageName);
             ComponentName cn = new ComponentName(packageName, className);
             try {
                 mPackageManager.getReceiverInfo(cn, 0);
             } catch (Exception e) {
                 String[] packages = mPackageManager.currentToCanonicalPackageNames(
                         new String[] { packageName });
+                addPackageDependency(packages[0]);
                 cn = new ComponentName(packages[0], className);
                 try {
                     mPackageManager.getReceiverInfo(cn, 0);
@@ -521,14 +663,12 @@ public class AutoInstallsLayout {
                 mValues.put(Favorites.APPWIDGET_ID, appWidgetId);
                 mValues.put(Favorites.APPWIDGET_PROVIDER, cn.flattenToString());
                 mValues.put(Favorites._ID, mCallback.generateNewItemId());
-                insertedId = mCallback.insertAndCheck(mDb, mValues);
-                if (insertedId < 0) {
-                    mAppWidgetHost.deleteAppWidgetId(appWidgetId);
-                    return insertedId;
-                }
+                insertedId = mPlan.add(mValues);
 
                 // Send a broadcast to configure the widget
                 if (!extras.isEmpty()) {
+                    // The configuration cannot be replayed
+                    mPlan.setNotCacheable();
                     Intent intent = new Intent(ACTION_APPWIDGET_DEFAULT_WORKSPACE_CONFIGURE);
                     intent.setComponent(cn);
                     intent.putExtras(extras);
@@ -569,11 +709,7 @@ public class AutoInstallsLayout {
             mValues.put(Favorites.SPANX, 1);
             mValues.put(Favorites.SPANY, 1);
             mValues.put(Favorites._ID, mCallback.generateNewItemId());
-            long folderId = mCallback.insertAndCheck(mDb, mValues);
-            if (folderId < 0) {
-                if (LOGD) Log.e(TAG, "Unable to add folder");
-                return -1;
-            }
+            long folderId = mPlan.add(mValues);
 
             final ContentValues myValues = new ContentValues(mValues);
             ArrayList<Long> folderItems = new ArrayList<Long>();
@@ -609,9 +745,7 @@ public class AutoInstallsLayout {
             // failed to add, and less than 2 were actually added
             if (folderItems.size() < 2) {
                 // Delete the folder
-                Uri uri = Favorites.getContentUri(folderId);
-                SqlArguments args = new SqlArguments(uri, null, null);
-                mDb.delete(args.table, args.where, args.args);
+                mPlan.remove(folderId);
                 addedId = -1;
 
                 // If we have a single item, promote it to where the folder
@@ -624,8 +758,7 @@ public class AutoInstallsLayout {
                     copyInteger(myValues, childValues, Favorites.CELLY);
 
                     addedId = folderItems.get(0);
-                    mDb.update(LauncherProvider.TABLE_FAVORITES, childValues,
-                            Favorites._ID + "=" + addedId, null);
+                    mPlan.update(addedId, childValues);
                 }
             }
             return addedId;
@@ -678,8 +811,6 @@ public class AutoInstallsLayout {
 
     public static interface LayoutParserCallback {
         long generateNewItemId();
-
-        long insertAndCheck(SQLiteDatabase db, ContentValues values);
     }
 
     @Thunk static void copyInteger(ContentValues from, ContentValues to, String key) {
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Bind calls received while the launcher is paused, to run in order in onResume.
+ *
+ * Binds are coalesced as they are added, so that a long pause with many package events replays
+ * as a few binds:
+ * - a {@link MergeableBind} is merged into the pending bind with the same merge key, if no bind
+ *   added after that one touches the same domains and the pending bind accepts it. This keeps
+ *   the order of the binds which could observe each other's changes.
+ * - a bind added with {@link #replace} drops the previous occurrence of the same runnable.
+ *
+ * Only accessed on the main thread.
+ */
+public class BindOnResumeQueue {
+
+    /** Domains of the launcher UI a bind updates, used to tell which binds commute. */
+    public static final int DOMAIN_NONE = 0;
+    public static final int DOMAIN_WORKSPACE = 1 << 0;
+    public static final int DOMAIN_ALL_APPS = 1 << 1;
+    public static final int DOMAIN_WIDGETS = 1 << 2;
+    public static final int DOMAIN_ALL = DOMAIN_WORKSPACE | DOMAIN_ALL_APPS | DOMAIN_WIDGETS;
+    private static final int DOMAIN_COUNT = 3;
+
+    /**
+     * A bind which can absorb a later bind of the same kind.
+     */
+    public interface MergeableBind extends Runnable {
+        /**
+         * @return a key which is equal for binds which can be merged, eg. the same kind of bind
+         *      for the same user.
+         */
+        Object getMergeKey();
+
+        /**
+         * Adds the changes of a later bind with the same merge key to this one, so that running
+         * this bind alone has the same effect as running both in order.
+         * @return false if that is not possible, in which case this bind must be left unchanged.
+         */
+        boolean merge(MergeableBind later);
+    }
+
+    private static class Entry {
+        final Runnable mRunnable;
+        final int mIndex;
+        boolean mRemoved;
+
+        Entry(Runnable runnable, int index) {
+            mRunnable = runnable;
+            mIndex = index;
+        }
+    }
+
+    private ArrayList<Entry> mEntries = new ArrayList<>();
+    // Last entry by merge key, or by runnable for binds added with replace()
+    private HashMap<Object, Entry> mLastEntries = new HashMap<>();
+    // Index of the last entry which touched each domain
+    private final int[] mLastIndexByDomain = new int[DOMAIN_COUNT];
+    private int mSize;
+
+    public BindOnResumeQueue() {
+        clearDomains();
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Adds a bind which is never merged.
+     */
+    public void add(Runnable r, int domains) {
+        append(r, domains);
+    }
+
+    /**
+     * Adds a bind, dropping its previous occurrence if it is still pending.
+     */
+    public void replace(Runnable r, int domains) {
+        Entry previous = mLastEntries.get(r);
+        if (previous != null && !previous.mRemoved) {
+            previous.mRemoved = true;
+            mSize--;
+        }
+        mLastEntries.put(r, append(r, domains));
+    }
+
+    /**
+     * Adds a bind, or merges it into the pending bind with the same merge key if nothing added
+     * since then touches its domains and the pending bind accepts it.
+     */
+    public void addMergeable(MergeableBind bind, int domains) {
+        Object key = bind.getMergeKey();
+        Entry last = mLastEntries.get(key);
+        if (last != null && !last.mRemoved && isLastInDomains(last, domains)
+                && ((MergeableBind) last.mRunnable).merge(bind)) {
+            return;
+        }
+        mLastEntries.put(key, append(bind, domains));
+    }
+
+    /**
+     * Runs the pending binds in order and empties the queue. Binds added while running are kept
+     * for the next call.
+     */
+    public void runAll() {
+        ArrayList<Entry> entries = mEntries;
+        clear();
+        for (Entry entry : entries) {
+            if (!entry.mRemoved) {
+                entry.mRunnable.run();
+            }
+        }
+    }
+
+    public void clear() {
+        mEntries = new ArrayList<>();
+        mLastEntries = new HashMap<>();
+        mSize = 0;
+        clearDomains();
+    }
+
+    private Entry append(Runnable r, int domains) {
+        Entry entry = new Entry(r, mEntries.size());
+        mEntries.add(entry);
+        mSize++;
+        for (int i = 0; i < DOMAIN_COUNT; i++) {
+            if ((domains & (1 << i)) != 0) {
+                mLastIndexByDomain[i] = entry.mIndex;
+            }
+        }
+        return entry;
+    }
+
+    private boolean isLastInDomains(Entry entry, int domains) {
+        for (int i = 0; i < DOMAIN_COUNT; i++) {
+            if ((domains & (1 << i)) != 0 && mLastIndexByDomain[i] != entry.mIndex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void clearDomains() {
+        for (int i = 0; i < DOMAIN_COUNT; i++) {
+            mLastIndexByDomain[i] = -1;
+        }
+    }
+}
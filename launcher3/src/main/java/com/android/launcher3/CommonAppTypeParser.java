@@ -20,7 +20,6 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.XmlResourceParser;
-import android.database.sqlite.SQLiteDatabase;
 import com.android.launcher3.util.Log;
 
 import com.android.launcher3.AutoInstallsLayout.LayoutParserCallback;
@@ -62,18 +61,6 @@ public class CommonAppTypeParser implements LayoutParserCallback {
         return mItemId;
     }
 
-    @Override
-    public long insertAndCheck(SQLiteDatabase db, ContentValues values) {
-        parsedValues = values;
-
-        // Remove unwanted values
-        values.put(Favorites.ICON_TYPE, (Integer) null);
-        values.put(Favorites.ICON_PACKAGE, (String) null);
-        values.put(Favorites.ICON_RESOURCE, (String) null);
-        values.put(Favorites.ICON, (byte[]) null);
-        return 1;
-    }
-
     /**
      * Tries to find a suitable app to the provided app type.
      */
@@ -106,6 +93,7 @@ public class CommonAppTypeParser implements LayoutParserCallback {
 
         public void parseValues() {
             XmlResourceParser parser = mSourceRes.getXml(mLayoutId);
+            mPlan = new LayoutPlan();
             try {
                 beginDocument(parser, mRootTag);
                 new ResolveParser().parseAndAdd(parser);
@@ -113,6 +101,17 @@ public class CommonAppTypeParser implements LayoutParserCallback {
                 Log.e(TAG, "Unable to parse default app info", e);
             }
             parser.close();
+
+            ContentValues values = mPlan.get(mItemId);
+            mPlan = null;
+            if (values != null) {
+                // Remove unwanted values
+                values.put(Favorites.ICON_TYPE, (Integer) null);
+                values.put(Favorites.ICON_PACKAGE, (String) null);
+                values.put(Favorites.ICON_RESOURCE, (String) null);
+                values.put(Favorites.ICON, (byte[]) null);
+                parsedValues = values;
+            }
         }
     }
 
@@ -24,6 +24,7 @@ import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.ScaleGestureDetector.OnScaleGestureListener;
+import android.view.VelocityTracker;
 import android.view.ViewConfiguration;
 import android.view.ViewTreeObserver;
 import android.view.ViewTreeObserver.OnGlobalLayoutListener;
@@ -34,6 +35,7 @@ import com.android.photos.views.TiledImageView;
 public class CropView extends TiledImageView implements OnScaleGestureListener {
 
     private ScaleGestureDetector mScaleGestureDetector;
+    private VelocityTracker mVelocityTracker;
     private long mTouchDownTime;
     private float mFirstX, mFirstY;
     private float mLastX, mLastY;
@@ -179,14 +181,17 @@ public class CropView extends TiledImageView implements OnScaleGestureListener {
     public boolean onScale(ScaleGestureDetector detector) {
         // Don't need the lock because this will only fire inside of
         // onTouchEvent
-        mRenderer.scale *= detector.getScaleFactor();
+        float factor = detector.getScaleFactor();
+        mRenderer.scale *= factor;
         mRenderer.scale = Math.max(mMinScale, mRenderer.scale);
+        mRenderer.scaleTrend = factor > 1 ? 1 : (factor < 1 ? -1 : 0);
         invalidate();
         return true;
     }
 
     @Override
     public void onScaleEnd(ScaleGestureDetector detector) {
+        mRenderer.scaleTrend = 0;
     }
 
     public void moveToLeft() {
@@ -206,6 +211,20 @@ public class CropView extends TiledImageView implements OnScaleGestureListener {
         updateCenter();
     }
 
+    /**
+     * Updates the velocity of the center of the image, which the renderer uses to prefetch the
+     * tiles which are about to become visible.
+     */
+    private void updateVelocity() {
+        mVelocityTracker.computeCurrentVelocity(1000);
+        float[] velocity = mTempPoint;
+        velocity[0] = -mVelocityTracker.getXVelocity() / mRenderer.scale;
+        velocity[1] = -mVelocityTracker.getYVelocity() / mRenderer.scale;
+        mInverseRotateMatrix.mapVectors(velocity);
+        mRenderer.velocityX = velocity[0];
+        mRenderer.velocityY = velocity[1];
+    }
+
     private void updateCenter() {
         mRenderer.centerX = Math.round(mCenterX);
         mRenderer.centerY = Math.round(mCenterY);
@@ -267,6 +286,10 @@ public class CropView extends TiledImageView implements OnScaleGestureListener {
 
         synchronized (mLock) {
             mScaleGestureDetector.onTouchEvent(event);
+            if (mVelocityTracker == null) {
+                mVelocityTracker = VelocityTracker.obtain();
+            }
+            mVelocityTracker.addMovement(event);
             switch (action) {
                 case MotionEvent.ACTION_MOVE:
                     float[] point = mTempPoint;
@@ -276,8 +299,17 @@ public class CropView extends TiledImageView implements OnScaleGestureListener {
                     mCenterX += point[0];
                     mCenterY += point[1];
                     updateCenter();
+                    updateVelocity();
                     invalidate();
                     break;
+                case MotionEvent.ACTION_UP:
+                case MotionEvent.ACTION_CANCEL:
+                    mVelocityTracker.recycle();
+                    mVelocityTracker = null;
+                    mRenderer.velocityX = 0;
+                    mRenderer.velocityY = 0;
+                    mRenderer.scaleTrend = 0;
+                    break;
             }
             if (mRenderer.source != null) {
                 // Adjust position so that the wallpaper covers the entire area
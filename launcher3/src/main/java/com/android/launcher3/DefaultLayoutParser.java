@@ -58,6 +58,21 @@ public class DefaultLayoutParser extends AutoInstallsLayout {
         return getFolderElementsMap(mSourceRes);
     }
 
+    @Override
+    protected String resolveUri(String uri) {
+        try {
+            return getComponentString(
+                    new AppShortcutWithUriParser().resolveMetaIntent(Intent.parseUri(uri, 0)));
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    @Thunk static String getComponentString(ResolveInfo resolved) {
+        return resolved == null ? null
+                : resolved.activityInfo.packageName + "/" + resolved.activityInfo.name;
+    }
+
     @Thunk HashMap<String, TagParser> getFolderElementsMap(Resources res) {
         HashMap<String, TagParser> parsers = new HashMap<String, TagParser>();
         parsers.put(TAG_FAVORITE, new AppShortcutWithUriParser());
@@ -108,6 +123,30 @@ public class DefaultLayoutParser extends AutoInstallsLayout {
                 return -1;
             }
 
+            final ResolveInfo resolved = resolveMetaIntent(metaIntent);
+            // The default handler can change without any package being updated, the cached
+            // layout is checked against it again
+            mPlan.addResolvedUri(uri, getComponentString(resolved));
+            if (resolved == null) {
+                return -1;
+            }
+            final ActivityInfo info = resolved.activityInfo;
+            addPackageDependency(info.packageName);
+            final Intent intent = mPackageManager.getLaunchIntentForPackage(info.packageName);
+            if (intent == null) {
+                return -1;
+            }
+            intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK |
+                    Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED);
+
+            return addShortcut(info.loadLabel(mPackageManager).toString(), intent,
+                    Favorites.ITEM_TYPE_APPLICATION);
+        }
+
+        /**
+         * @return the activity to add for the meta intent, or null if there is no logical choice.
+         */
+        ResolveInfo resolveMetaIntent(Intent metaIntent) {
             ResolveInfo resolved = mPackageManager.resolveActivity(metaIntent,
                     PackageManager.MATCH_DEFAULT_ONLY);
             final List<ResolveInfo> appList = mPackageManager.queryIntentActivities(
@@ -123,20 +162,11 @@ public class DefaultLayoutParser extends AutoInstallsLayout {
                     // a bad choice just add nothing.
                     Log.w(TAG, "No preference or single system activity found for "
                             + metaIntent.toString());
-                    return -1;
+                    return null;
                 }
                 resolved = systemApp;
             }
-            final ActivityInfo info = resolved.activityInfo;
-            final Intent intent = mPackageManager.getLaunchIntentForPackage(info.packageName);
-            if (intent == null) {
-                return -1;
-            }
-            intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK |
-                    Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED);
-
-            return addShortcut(info.loadLabel(mPackageManager).toString(), intent,
-                    Favorites.ITEM_TYPE_APPLICATION);
+            return resolved;
         }
 
         private ResolveInfo getSingleSystemActivity(List<ResolveInfo> appList) {
@@ -240,6 +270,7 @@ public class DefaultLayoutParser extends AutoInstallsLayout {
             // Folder contents come from an external XML resource
             final Partner partner = Partner.get(mPackageManager);
             if (partner != null) {
+                addPackageDependency(partner.getPackageName());
                 final Resources partnerRes = partner.getResources();
                 final int resId = partnerRes.getIdentifier(Partner.RES_FOLDER,
                         "xml", partner.getPackageName());
@@ -20,7 +20,9 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.os.MessageQueue;
+import android.view.Choreographer;
 
+import com.android.launcher3.util.QueueStats;
 import com.android.launcher3.util.Thunk;
 
 import java.util.LinkedList;
@@ -31,22 +33,48 @@ import java.util.LinkedList;
  * starving the thread.
  *
  * This class is fifo.
+ *
+ * Every queued runnable is measured by the handler's {@link QueueStats}.
  */
 public class DeferredHandler {
     @Thunk LinkedList<Runnable> mQueue = new LinkedList<>();
     private MessageQueue mMessageQueue = Looper.myQueue();
     private Impl mHandler = new Impl();
+    private final QueueStats mStats = new QueueStats("launcher-main");
+
+    // Set while a runnable is being dispatched from the looper (as opposed to from flush()).
+    @Thunk boolean mDispatching;
+    // Type of the runnable being dispatched, see deferToNextFrame().
+    @Thunk int mDispatchingType;
+    // Set when the head of the queue is waiting for the next frame to be drawn.
+    @Thunk boolean mWaitingForFrame;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            synchronized (mQueue) {
+                mWaitingForFrame = false;
+                scheduleNextLocked();
+            }
+        }
+    };
 
     @Thunk class Impl extends Handler implements MessageQueue.IdleHandler {
         public void handleMessage(Message msg) {
             Runnable r;
             synchronized (mQueue) {
-                if (mQueue.size() == 0) {
+                if (mQueue.size() == 0 || mWaitingForFrame) {
                     return;
                 }
                 r = mQueue.removeFirst();
             }
-            r.run();
+            mDispatching = true;
+            mDispatchingType = getTask(r).getType();
+            try {
+                r.run();
+            } finally {
+                mDispatching = false;
+            }
             synchronized (mQueue) {
                 scheduleNextLocked();
             }
@@ -59,9 +87,9 @@ public class DeferredHandler {
     }
 
     private class IdleRunnable implements Runnable {
-        Runnable mRunnable;
+        QueueStats.Task mRunnable;
 
-        IdleRunnable(Runnable r) {
+        IdleRunnable(QueueStats.Task r) {
             mRunnable = r;
         }
 
@@ -73,8 +101,29 @@ public class DeferredHandler {
     public DeferredHandler() {
     }
 
+    public QueueStats getStats() {
+        return mStats;
+    }
+
     /** Schedule runnable to run after everything that's on the queue right now. */
     public void post(Runnable runnable) {
+        post(runnable, QueueStats.TYPE_OTHER);
+    }
+
+    /**
+     * @param type the type of the runnable in the queue stats, one of the QueueStats.TYPE_*
+     *      values.
+     */
+    public void post(Runnable runnable, int type) {
+        enqueue(mStats.wrap(runnable, type));
+    }
+
+    /** Schedule runnable to run when the queue goes idle. */
+    public void postIdle(final Runnable runnable) {
+        enqueue(new IdleRunnable(mStats.wrap(runnable, QueueStats.TYPE_OTHER)));
+    }
+
+    private void enqueue(Runnable runnable) {
         synchronized (mQueue) {
             mQueue.add(runnable);
             if (mQueue.size() == 1) {
@@ -83,13 +132,34 @@ public class DeferredHandler {
         }
     }
 
-    /** Schedule runnable to run when the queue goes idle. */
-    public void postIdle(final Runnable runnable) {
-        post(new IdleRunnable(runnable));
+    /**
+     * Re-queues the runnable at the head of the queue so that it runs once the next frame has
+     * been drawn, before anything else that is already queued. Can only be called from a runnable
+     * that is currently being dispatched by this handler, and is measured as a new runnable of
+     * the same type.
+     *
+     * @return false if the caller is not being dispatched by the looper (e.g. from {@link #flush}),
+     *      in which case nothing is queued and the caller should finish its work inline.
+     */
+    public boolean deferToNextFrame(Runnable runnable) {
+        if (!mDispatching) {
+            return false;
+        }
+        synchronized (mQueue) {
+            mQueue.addFirst(mStats.wrap(runnable, mDispatchingType));
+            if (!mWaitingForFrame) {
+                mWaitingForFrame = true;
+                Choreographer.getInstance().postFrameCallback(mFrameCallback);
+            }
+        }
+        return true;
     }
 
     public void cancelAll() {
         synchronized (mQueue) {
+            for (Runnable r : mQueue) {
+                getTask(r).cancel();
+            }
             mQueue.clear();
         }
     }
@@ -106,8 +176,13 @@ public class DeferredHandler {
         }
     }
 
+    @Thunk QueueStats.Task getTask(Runnable queued) {
+        return queued instanceof IdleRunnable
+                ? ((IdleRunnable) queued).mRunnable : (QueueStats.Task) queued;
+    }
+
     void scheduleNextLocked() {
-        if (mQueue.size() > 0) {
+        if (mQueue.size() > 0 && !mWaitingForFrame) {
             Runnable peek = mQueue.getFirst();
             if (peek instanceof IdleRunnable) {
                 mMessageQueue.addIdleHandler(mHandler);
@@ -36,6 +36,9 @@ import android.view.animation.DecelerateInterpolator;
 import com.android.launcher3.util.Thunk;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 /**
  * 在拖动图标的时候跟随手指移动的View就是他。
@@ -45,8 +48,34 @@ public class DragView extends View {
 
     @Thunk static float sDragAlpha = 1f;
 
-    private Bitmap mBitmap;
-    private Bitmap mCrossFadeBitmap;
+    // Drag views which have not been garbage collected yet, only accessed on the main thread
+    @Thunk static final Set<DragView> sDragViews =
+            Collections.newSetFromMap(new WeakHashMap<DragView, Boolean>());
+
+    private static final MemoryTracker.MemoryReporter sMemoryReporter =
+            new MemoryTracker.MemoryReporter() {
+                @Override
+                public long getMemoryBytes() {
+                    long bytes = 0;
+                    for (DragView view : sDragViews) {
+                        bytes += Utilities.getBitmapByteCount(view.mBitmap)
+                                + Utilities.getBitmapByteCount(view.mCrossFadeBitmap);
+                    }
+                    return bytes;
+                }
+
+                @Override
+                public int getMemoryObjectCount() {
+                    return sDragViews.size();
+                }
+            };
+
+    static {
+        MemoryTracker.registerReporter("DragViews", sMemoryReporter);
+    }
+
+    @Thunk Bitmap mBitmap;
+    @Thunk Bitmap mCrossFadeBitmap;
     @Thunk Paint mPaint;
     private int mRegistrationX;
     private int mRegistrationY;
@@ -123,6 +152,7 @@ public class DragView extends View {
         });
 
         mBitmap = Bitmap.createBitmap(bitmap, left, top, width, height);
+        sDragViews.add(this);
         setDragRegion(new Rect(0, 0, width, height));
 
         // The point in our scaled bitmap that the touch events are located
@@ -85,8 +85,9 @@ public class DrawableTileSource implements TiledImageRenderer.TileSource {
         return mPreview;
     }
 
+    // The drawable bounds are shared, so tiles are drawn one at a time
     @Override
-    public Bitmap getTile(int level, int x, int y, Bitmap bitmap) {
+    public synchronized Bitmap getTile(int level, int x, int y, Bitmap bitmap) {
         int tileSize = getTileSize();
         if (bitmap == null) {
             bitmap = Bitmap.createBitmap(tileSize, tileSize, Bitmap.Config.ARGB_8888);
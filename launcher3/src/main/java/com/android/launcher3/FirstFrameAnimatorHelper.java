@@ -73,7 +73,12 @@ public class FirstFrameAnimatorHelper extends AnimatorListenerAdapter
         }
         sGlobalDrawListener = new ViewTreeObserver.OnDrawListener() {
                 private long mTime = System.currentTimeMillis();
+                private boolean mFirstFrame = true;
                 public void onDraw() {
+                    if (mFirstFrame) {
+                        mFirstFrame = false;
+                        StartupTrace.mark(StartupTrace.FIRST_FRAME);
+                    }
                     sGlobalFrameCounter++;
                     if (DEBUG) {
                         long newTime = System.currentTimeMillis();
@@ -411,6 +411,19 @@ public class Folder extends LinearLayout implements DragSource, View.OnClickList
         });
     }
 
+    /**
+     * Detaches the folder from its {@link FolderInfo} and returns its item views to the
+     * launcher's view pool.
+     */
+    void unbind() {
+        mInfo.removeListener(this);
+        for (View v : new ArrayList<>(getItemsInReadingOrder())) {
+            mContent.removeItem(v);
+            mLauncher.getViewPool().recycle(R.layout.folder_application, v);
+        }
+        mItemsInvalidated = true;
+    }
+
     /**
      * Creates a new UserFolder, inflated from R.layout.user_folder.
      *
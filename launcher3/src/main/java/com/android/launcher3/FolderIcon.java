@@ -30,7 +30,6 @@ import android.graphics.drawable.Drawable;
 import android.os.Looper;
 import android.os.Parcelable;
 import android.util.AttributeSet;
-import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewConfiguration;
@@ -152,32 +151,38 @@ public class FolderIcon extends FrameLayout implements FolderListener {
 
         DeviceProfile grid = launcher.getDeviceProfile();
 
-        FolderIcon icon = (FolderIcon) LayoutInflater.from(launcher).inflate(resId, group, false);
-        icon.setClipToPadding(false);
-        icon.mFolderName = (BubbleTextView) icon.findViewById(R.id.folder_icon_name);
+        // The icon may have been recycled from a previous bind, in which case it already has
+        // its folder and only needs to be bound to the new info.
+        FolderIcon icon = (FolderIcon) launcher.getViewPool().obtain(resId, group);
+        if (icon.mFolder == null) {
+            icon.setClipToPadding(false);
+            icon.mFolderName = (BubbleTextView) icon.findViewById(R.id.folder_icon_name);
+            icon.mFolderName.setCompoundDrawablePadding(0);
+            FrameLayout.LayoutParams lp =
+                    (FrameLayout.LayoutParams) icon.mFolderName.getLayoutParams();
+            lp.topMargin = grid.iconSizePx + grid.iconDrawablePaddingPx;
+
+            // Offset the preview background to center this view accordingly
+            icon.mPreviewBackground = (ImageView) icon.findViewById(R.id.preview_background);
+            lp = (FrameLayout.LayoutParams) icon.mPreviewBackground.getLayoutParams();
+            lp.topMargin = grid.folderBackgroundOffset;
+            lp.width = grid.folderIconSizePx;
+            lp.height = grid.folderIconSizePx;
+
+            icon.mLauncher = launcher;
+            Folder folder = Folder.fromXml(launcher);
+            folder.setDragController(launcher.getDragController());
+            folder.setFolderIcon(icon);
+            icon.mFolder = folder;
+        }
         icon.mFolderName.setText(folderInfo.title);
-        icon.mFolderName.setCompoundDrawablePadding(0);
-        FrameLayout.LayoutParams lp = (FrameLayout.LayoutParams) icon.mFolderName.getLayoutParams();
-        lp.topMargin = grid.iconSizePx + grid.iconDrawablePaddingPx;
-
-        // Offset the preview background to center this view accordingly
-        icon.mPreviewBackground = (ImageView) icon.findViewById(R.id.preview_background);
-        lp = (FrameLayout.LayoutParams) icon.mPreviewBackground.getLayoutParams();
-        lp.topMargin = grid.folderBackgroundOffset;
-        lp.width = grid.folderIconSizePx;
-        lp.height = grid.folderIconSizePx;
 
         icon.setTag(folderInfo);
         icon.setOnClickListener(launcher);
         icon.mInfo = folderInfo;
-        icon.mLauncher = launcher;
         icon.setContentDescription(String.format(launcher.getString(R.string.folder_name_format),
                 folderInfo.title));
-        Folder folder = Folder.fromXml(launcher);
-        folder.setDragController(launcher.getDragController());
-        folder.setFolderIcon(icon);
-        folder.bind(folderInfo);
-        icon.mFolder = folder;
+        icon.mFolder.bind(folderInfo);
 
         icon.mFolderRingAnimator = new FolderRingAnimator(launcher, icon);
         folderInfo.addListener(icon);
@@ -186,6 +191,17 @@ public class FolderIcon extends FrameLayout implements FolderListener {
         return icon;
     }
 
+    /**
+     * Detaches this icon and its folder from the bound {@link FolderInfo} so that they can be
+     * rebound to another folder by {@link #fromXml}.
+     */
+    void unbind() {
+        mInfo.removeListener(this);
+        mFolder.unbind();
+        mHiddenItems.clear();
+        mAnimating = false;
+    }
+
     @Override
     protected Parcelable onSaveInstanceState() {
         sStaticValuesDirty = true;
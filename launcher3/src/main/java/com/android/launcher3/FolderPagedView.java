@@ -21,7 +21,6 @@ import android.content.Context;
 import android.util.AttributeSet;
 import com.android.launcher3.util.Log;
 import android.view.Gravity;
-import android.view.LayoutInflater;
 import android.view.View;
 import android.view.animation.DecelerateInterpolator;
 import android.view.animation.Interpolator;
@@ -63,7 +62,6 @@ public class FolderPagedView extends PagedView {
 
     public final boolean mIsRtl;
 
-    private final LayoutInflater mInflater;
     private final IconCache mIconCache;
 
     @Thunk final HashMap<View, Runnable> mPendingAnimations = new HashMap<>();
@@ -92,7 +90,6 @@ public class FolderPagedView extends PagedView {
 
         mMaxItemsPerPage = mMaxCountX * mMaxCountY;
 
-        mInflater = LayoutInflater.from(context);
         mIconCache = app.getIconCache();
 
         mIsRtl = Utilities.isRtl(getResources());
@@ -208,8 +205,8 @@ public class FolderPagedView extends PagedView {
 
     @SuppressLint("InflateParams")
     public View createNewView(ShortcutInfo item) {
-        final BubbleTextView textView = (BubbleTextView) mInflater.inflate(
-                R.layout.folder_application, null, false);
+        final BubbleTextView textView = (BubbleTextView) mFolder.mLauncher.getViewPool()
+                .obtain(R.layout.folder_application, null);
         textView.applyFromShortcutInfo(item, mIconCache);
         textView.setOnClickListener(mFolder);
         textView.setOnLongClickListener(mFolder);
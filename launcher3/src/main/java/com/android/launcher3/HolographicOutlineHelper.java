@@ -33,7 +33,7 @@ import android.util.SparseArray;
  * Utility class to generate shadow and outline effect, which are used for click feedback
  * and drag-n-drop respectively.
  */
-public class HolographicOutlineHelper {
+public class HolographicOutlineHelper implements MemoryTracker.MemoryReporter {
 
     private static HolographicOutlineHelper sInstance;
 
@@ -71,6 +71,7 @@ public class HolographicOutlineHelper {
         mErasePaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OUT));
         mErasePaint.setFilterBitmap(true);
         mErasePaint.setAntiAlias(true);
+        MemoryTracker.registerReporter("OutlineHelper", this);
     }
 
     public static HolographicOutlineHelper obtain(Context context) {
@@ -80,6 +81,20 @@ public class HolographicOutlineHelper {
         return sInstance;
     }
 
+    @Override
+    public long getMemoryBytes() {
+        long bytes = 0;
+        for (int i = 0; i < mBitmapCache.size(); i++) {
+            bytes += Utilities.getBitmapByteCount(mBitmapCache.valueAt(i));
+        }
+        return bytes;
+    }
+
+    @Override
+    public int getMemoryObjectCount() {
+        return mBitmapCache.size();
+    }
+
     /**
      * Applies a more expensive and accurate outline to whatever is currently drawn in a specified
      * bitmap.
@@ -52,6 +52,7 @@ import com.android.launcher3.util.Thunk;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
@@ -60,7 +61,7 @@ import java.util.Stack;
 /**
  * Cache of application icons.  Icons can be made from any thread.
  */
-public class IconCache {
+public class IconCache implements MemoryTracker.MemoryReporter {
 
     private static final String TAG = "Launcher.IconCache";
 
@@ -110,6 +111,16 @@ public class IconCache {
     private Canvas mLowResCanvas;
     private Paint mLowResPaint;
 
+    // Last memory sample, see getMemoryBytes()
+    private volatile long mMemoryBytes;
+    private volatile int mMemoryObjectCount;
+    private final Runnable mSampleMemoryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sampleMemory();
+        }
+    };
+
     public IconCache(Context context, InvariantDeviceProfile inv) {
         mContext = context;
         mPackageManager = context.getPackageManager();
@@ -119,7 +130,7 @@ public class IconCache {
         /** 数据库类 */
         mIconDb = new IconDB(context);
 
-        mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+        mWorkerHandler = new Handler(LauncherModel.getIconsLooper());
 
         mActivityBgColor = context.getResources().getColor(R.color.quantum_panel_bg_color);
         mPackageBgColor = context.getResources().getColor(R.color.quantum_panel_bg_color_dark);
@@ -128,6 +139,7 @@ public class IconCache {
         // automatically be loaded as ALPHA_8888.
         mLowResOptions.inPreferredConfig = Bitmap.Config.RGB_565;
         updateSystemStateString();
+        MemoryTracker.registerReporter("IconCache", this);
     }
 
     private Drawable getFullResDefaultActivityIcon() {
@@ -528,6 +540,39 @@ public class IconCache {
         return mDefaultIcons.get(user) == icon;
     }
 
+    /**
+     * Returns the bytes of the last memory sample. Sampling needs the cache lock, which can be
+     * held for long by icon loads, so it is done on the worker thread and lags one call behind.
+     */
+    @Override
+    public long getMemoryBytes() {
+        mWorkerHandler.removeCallbacks(mSampleMemoryRunnable);
+        mWorkerHandler.post(mSampleMemoryRunnable);
+        return mMemoryBytes;
+    }
+
+    @Override
+    public int getMemoryObjectCount() {
+        return mMemoryObjectCount;
+    }
+
+    @Thunk synchronized void sampleMemory() {
+        // Entries without their own icon share the default one
+        Set<Bitmap> icons = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+        for (CacheEntry entry : mCache.values()) {
+            if (entry.icon != null) {
+                icons.add(entry.icon);
+            }
+        }
+        icons.addAll(mDefaultIcons.values());
+        long bytes = Utilities.getBitmapByteCount(mLowResBitmap);
+        for (Bitmap icon : icons) {
+            bytes += Utilities.getBitmapByteCount(icon);
+        }
+        mMemoryBytes = bytes;
+        mMemoryObjectCount = mCache.size();
+    }
+
     /**
      * Retrieves the entry from the cache. If the entry is not present, it creates a new entry.
      * This method is not thread safe, it must be called from a synchronized method.
@@ -106,6 +106,7 @@ import com.android.launcher3.compat.UserHandleCompat;
 import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.model.WidgetsModel;
 import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.DumpLog;
 import com.android.launcher3.util.Log;
 import com.android.launcher3.util.LongArrayMap;
 import com.android.launcher3.util.Thunk;
@@ -118,12 +119,14 @@ import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.text.DateFormat;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -243,6 +246,7 @@ public class Launcher extends Activity
             = new CloseSystemDialogsIntentReceiver();
 
     private LayoutInflater mInflater;
+    private WorkspaceViewPool mViewPool;
 
     @Thunk Workspace mWorkspace;
     private View mLauncherView;
@@ -296,7 +300,7 @@ public class Launcher extends Activity
     private boolean mWaitingForResult;
     private boolean mOnResumeNeedsLoad;
 
-    private ArrayList<Runnable> mBindOnResumeCallbacks = new ArrayList<Runnable>();
+    private final BindOnResumeQueue mBindOnResumeCallbacks = new BindOnResumeQueue();
     private ArrayList<Runnable> mOnResumeCallbacks = new ArrayList<Runnable>();
 
     private Bundle mSavedInstanceState;
@@ -332,10 +336,8 @@ public class Launcher extends Activity
     private final ArrayList<Integer> mSynchronouslyBoundPages = new ArrayList<Integer>();
     private static final boolean DISABLE_SYNCHRONOUS_BINDING_CURRENT_PAGE = false;
 
-    static final ArrayList<String> sDumpLogs = new ArrayList<String>();
-    static Date sDateStamp = new Date();
-    static DateFormat sDateFormat =
-            DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
+    private static final int DUMP_LOG_CAPACITY = 500;
+    static final DumpLog sDumpLog = new DumpLog(DUMP_LOG_CAPACITY);
     static long sRunStart = System.currentTimeMillis();
     static final String CORRUPTION_EMAIL_SENT_KEY = "corruptionEmailSent";
 
@@ -346,8 +348,20 @@ public class Launcher extends Activity
     // Holds the page that we need to animate to, and the icon views that we need to animate up
     // when we scroll to that page on resume.
     @Thunk ImageView mFolderIconImageView;
-    private Bitmap mFolderIconBitmap;
+    @Thunk Bitmap mFolderIconBitmap;
     private Canvas mFolderIconCanvas;
+    private final MemoryTracker.MemoryReporter mFolderIconMemoryReporter =
+            new MemoryTracker.MemoryReporter() {
+                @Override
+                public long getMemoryBytes() {
+                    return Utilities.getBitmapByteCount(mFolderIconBitmap);
+                }
+
+                @Override
+                public int getMemoryObjectCount() {
+                    return mFolderIconBitmap == null ? 0 : 1;
+                }
+            };
     private Rect mRectForFolderAnimation = new Rect();
 
     private DeviceProfile mDeviceProfile;
@@ -408,6 +422,9 @@ public class Launcher extends Activity
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace.startTrace();
+        final int traceToken = StartupTrace.begin(StartupTrace.ON_CREATE);
+
         //严苛测试, 可以先不看
         if (DEBUG_STRICT_MODE) {
             StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
@@ -463,6 +480,7 @@ public class Launcher extends Activity
         // 而这些都是通过mInflater.inflate(..)方法从xml生成出来的，
         // 使用次数还是挺多的，详情参加Launcher.creatShortcut方法。
         mInflater = getLayoutInflater();
+        mViewPool = new WorkspaceViewPool(mInflater);
         mStateTransitionAnimation = new LauncherStateTransitionAnimation(this);
 
         mStats = new Stats(this);
@@ -524,6 +542,8 @@ public class Launcher extends Activity
         IntentFilter filter = new IntentFilter(Intent.ACTION_CLOSE_SYSTEM_DIALOGS);
         registerReceiver(mCloseSystemDialogsReceiver, filter);
 
+        MemoryTracker.registerReporter("FolderIconPreview", mFolderIconMemoryReporter);
+
         mRotationEnabled = Utilities.isRotationAllowedForDevice(getApplicationContext());
         // In case we are on a device with locked rotation, we should look at preferences to check
         // if the user has specifically allowed rotation.
@@ -552,13 +572,15 @@ public class Launcher extends Activity
             showFirstRunActivity();
             showFirstRunClings();
         }
+        StartupTrace.end(traceToken);
     }
 
     @Override
     public void onSettingsChanged(String settings, boolean value) {
         if (Utilities.ALLOW_ROTATION_PREFERENCE_KEY.equals(settings)) {
             mRotationEnabled = value;
-            if (!waitUntilResume(mUpdateOrientationRunnable, true)) {
+            if (!waitUntilResume(mUpdateOrientationRunnable, true,
+                    BindOnResumeQueue.DOMAIN_NONE)) {
                 mUpdateOrientationRunnable.run();
             }
         }
@@ -676,6 +698,10 @@ public class Launcher extends Activity
         return mStats;
     }
 
+    public WorkspaceViewPool getViewPool() {
+        return mViewPool;
+    }
+
     public LayoutInflater getInflater() {
         return mInflater;
     }
@@ -1013,11 +1039,7 @@ public class Launcher extends Activity
 
     @Override
     protected void onResume() {
-        long startTime = 0;
-        if (DEBUG_RESUME_TIME) {
-            startTime = System.currentTimeMillis();
-            Log.v(TAG, "Launcher.onResume()");
-        }
+        final int traceToken = StartupTrace.begin(StartupTrace.ON_RESUME);
 
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.preOnResume();
@@ -1057,22 +1079,12 @@ public class Launcher extends Activity
             mRestoring = false;
             mOnResumeNeedsLoad = false;
         }
-        if (mBindOnResumeCallbacks.size() > 0) {
+        if (!mBindOnResumeCallbacks.isEmpty()) {
             // We might have postponed some bind calls until onResume (see waitUntilResume) --
             // execute them here
-            long startTimeCallbacks = 0;
-            if (DEBUG_RESUME_TIME) {
-                startTimeCallbacks = System.currentTimeMillis();
-            }
-
-            for (int i = 0; i < mBindOnResumeCallbacks.size(); i++) {
-                mBindOnResumeCallbacks.get(i).run();
-            }
-            mBindOnResumeCallbacks.clear();
-            if (DEBUG_RESUME_TIME) {
-                Log.d(TAG, "Time spent processing callbacks in onResume: " +
-                    (System.currentTimeMillis() - startTimeCallbacks));
-            }
+            final int callbacksToken = StartupTrace.begin(StartupTrace.BIND_ON_RESUME);
+            mBindOnResumeCallbacks.runAll();
+            StartupTrace.end(callbacksToken);
         }
         if (mOnResumeCallbacks.size() > 0) {
             for (int i = 0; i < mOnResumeCallbacks.size(); i++) {
@@ -1095,10 +1107,6 @@ public class Launcher extends Activity
         getWorkspace().reinflateWidgetsIfNecessary();
         reinflateQSBIfNecessary();
 
-        if (DEBUG_RESUME_TIME) {
-            Log.d(TAG, "Time spent in onResume: " + (System.currentTimeMillis() - startTime));
-        }
-
         if (mWorkspace.getCustomContentCallbacks() != null) {
             // If we are resuming and the custom content is the current page, we call onShow().
             // It is also poassible that onShow will instead be called slightly after first layout
@@ -1118,6 +1126,7 @@ public class Launcher extends Activity
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.onResume();
         }
+        StartupTrace.end(traceToken);
     }
 
     @Override
@@ -1544,8 +1553,7 @@ public class Launcher extends Activity
      * @return A View inflated from layoutResId.
      */
     public View createShortcut(ViewGroup parent, ShortcutInfo info) {
-        BubbleTextView favorite = (BubbleTextView) mInflater.inflate(R.layout.app_icon,
-                parent, false);
+        BubbleTextView favorite = (BubbleTextView) mViewPool.obtain(R.layout.app_icon, parent);
         favorite.applyFromShortcutInfo(info, mIconCache);
         favorite.setCompoundDrawablePadding(mDeviceProfile.iconDrawablePaddingPx);
         favorite.setOnClickListener(this);
@@ -2044,6 +2052,7 @@ public class Launcher extends Activity
         mHandler.removeMessages(ADVANCE_MSG);
         mHandler.removeMessages(0);
         mWorkspace.removeCallbacks(mBuildLayersRunnable);
+        mViewPool.clear();
 
         // Stop callbacks from LauncherModel
         LauncherAppState app = (LauncherAppState.getInstance());
@@ -2067,6 +2076,7 @@ public class Launcher extends Activity
         TextKeyListener.getInstance().release();
 
         unregisterReceiver(mCloseSystemDialogsReceiver);
+        MemoryTracker.unregisterReporter("FolderIconPreview", mFolderIconMemoryReporter);
 
         mDragLayer.clearAllResizeFrames();
         ((ViewGroup) mWorkspace.getParent()).removeAllViews();
@@ -3334,6 +3344,9 @@ public class Launcher extends Activity
             // 3MB of memory for caching which isn't necessary.
             SQLiteDatabase.releaseMemory();
 
+            // The pooled icons are only needed for the next rebind
+            mViewPool.clear();
+
             // This clears all widget bitmaps from the widget tray
             // TODO(hyunyoungs)
         }
@@ -3649,16 +3662,17 @@ public class Launcher extends Activity
      *
      * Implementation of the method from LauncherModel.Callbacks.
      *
+     * @param domains the parts of the UI updated by the runnable, see {@link BindOnResumeQueue}.
      * @return {@code true} if we are currently paused. The caller might be able to skip some work
      */
-    @Thunk boolean waitUntilResume(Runnable run, boolean deletePreviousRunnables) {
+    @Thunk boolean waitUntilResume(Runnable run, boolean deletePreviousRunnables, int domains) {
         if (mPaused) {
             if (LOGD) Log.d(TAG, "Deferring update until onResume");
             if (deletePreviousRunnables) {
-                while (mBindOnResumeCallbacks.remove(run)) {
-                }
+                mBindOnResumeCallbacks.replace(run, domains);
+            } else {
+                mBindOnResumeCallbacks.add(run, domains);
             }
-            mBindOnResumeCallbacks.add(run);
             return true;
         } else {
             return false;
@@ -3666,7 +3680,16 @@ public class Launcher extends Activity
     }
 
     private boolean waitUntilResume(Runnable run) {
-        return waitUntilResume(run, false);
+        return waitUntilResume(run, false, BindOnResumeQueue.DOMAIN_ALL);
+    }
+
+    /**
+     * Defers a bind until onResume, merging it with a pending bind of the same kind when
+     * possible. Must only be called while paused.
+     */
+    private void deferUntilResume(BindOnResumeQueue.MergeableBind bind, int domains) {
+        if (LOGD) Log.d(TAG, "Deferring update until onResume");
+        mBindOnResumeCallbacks.addMergeable(bind, domains);
     }
 
     public void addOnResumeCallback(Runnable run) {
@@ -3721,7 +3744,12 @@ public class Launcher extends Activity
         // from scratch again
         mBindOnResumeCallbacks.clear();
 
-        // Clear the workspace because it's going to be rebound
+        // Clear the workspace because it's going to be rebound. The existing icons are kept
+        // aside so that the new bind can reuse them instead of inflating everything again.
+        mViewPool.resetStats();
+        for (CellLayout layout : mWorkspace.getWorkspaceAndHotseatCellLayouts()) {
+            mViewPool.recycleCellLayout(layout);
+        }
         mWorkspace.clearDropTargets();
         mWorkspace.removeAllWorkspaceScreens();
 
@@ -4107,6 +4135,7 @@ public class Launcher extends Activity
         }
 
         mWorkspace.restoreInstanceStateForRemainingPages();
+        mViewPool.logStats("finishBindingItems");
 
         setWorkspaceLoading(false);
         sendLoadingCompleteBroadcastIfNecessary();
@@ -4208,7 +4237,8 @@ public class Launcher extends Activity
      * Implementation of the method from LauncherModel.Callbacks.
      */
     public void bindAllApplications(final ArrayList<AppInfo> apps) {
-        if (waitUntilResume(mBindAllApplicationsRunnable, true)) {
+        if (waitUntilResume(mBindAllApplicationsRunnable, true,
+                BindOnResumeQueue.DOMAIN_ALL_APPS)) {
             mTmpAppsList = apps;
             return;
         }
@@ -4227,12 +4257,8 @@ public class Launcher extends Activity
      * Implementation of the method from LauncherModel.Callbacks.
      */
     public void bindAppsUpdated(final ArrayList<AppInfo> apps) {
-        Runnable r = new Runnable() {
-            public void run() {
-                bindAppsUpdated(apps);
-            }
-        };
-        if (waitUntilResume(r)) {
+        if (mPaused) {
+            deferUntilResume(new AppsUpdatedBind(apps), BindOnResumeQueue.DOMAIN_ALL_APPS);
             return;
         }
 
@@ -4241,6 +4267,33 @@ public class Launcher extends Activity
         }
     }
 
+    /**
+     * Deferred {@link #bindAppsUpdated}. Apps updated later replace the earlier ones.
+     */
+    class AppsUpdatedBind implements BindOnResumeQueue.MergeableBind {
+        final ArrayList<AppInfo> mApps;
+
+        AppsUpdatedBind(ArrayList<AppInfo> apps) {
+            mApps = new ArrayList<>(apps);
+        }
+
+        @Override
+        public Object getMergeKey() {
+            return AppsUpdatedBind.class;
+        }
+
+        @Override
+        public boolean merge(BindOnResumeQueue.MergeableBind later) {
+            mApps.addAll(((AppsUpdatedBind) later).mApps);
+            return true;
+        }
+
+        @Override
+        public void run() {
+            bindAppsUpdated(mApps);
+        }
+    }
+
     @Override
     public void bindWidgetsRestored(final ArrayList<LauncherAppWidgetInfo> widgets) {
         Runnable r = new Runnable() {
@@ -4262,12 +4315,9 @@ public class Launcher extends Activity
     @Override
     public void bindShortcutsChanged(final ArrayList<ShortcutInfo> updated,
             final ArrayList<ShortcutInfo> removed, final UserHandleCompat user) {
-        Runnable r = new Runnable() {
-            public void run() {
-                bindShortcutsChanged(updated, removed, user);
-            }
-        };
-        if (waitUntilResume(r)) {
+        if (mPaused) {
+            deferUntilResume(new ShortcutsChangedBind(updated, removed, user),
+                    BindOnResumeQueue.DOMAIN_WORKSPACE);
             return;
         }
 
@@ -4286,6 +4336,53 @@ public class Launcher extends Activity
         }
     }
 
+    /**
+     * Deferred {@link #bindShortcutsChanged} of a user. A merged bind applies all the updates
+     * before all the removals, so a later bind which updates shortcuts of a component removed
+     * by this one is not merged.
+     */
+    class ShortcutsChangedBind implements BindOnResumeQueue.MergeableBind {
+        final ArrayList<ShortcutInfo> mUpdated;
+        final ArrayList<ShortcutInfo> mRemoved;
+        final UserHandleCompat mUser;
+
+        ShortcutsChangedBind(ArrayList<ShortcutInfo> updated, ArrayList<ShortcutInfo> removed,
+                UserHandleCompat user) {
+            mUpdated = new ArrayList<>(updated);
+            mRemoved = new ArrayList<>(removed);
+            mUser = user;
+        }
+
+        @Override
+        public Object getMergeKey() {
+            return Arrays.asList(ShortcutsChangedBind.class, mUser);
+        }
+
+        @Override
+        public boolean merge(BindOnResumeQueue.MergeableBind later) {
+            ShortcutsChangedBind bind = (ShortcutsChangedBind) later;
+            if (!bind.mUpdated.isEmpty() && !mRemoved.isEmpty()) {
+                HashSet<ComponentName> removedComponents = new HashSet<ComponentName>();
+                for (ShortcutInfo si : mRemoved) {
+                    removedComponents.add(si.getTargetComponent());
+                }
+                for (ShortcutInfo si : bind.mUpdated) {
+                    if (removedComponents.contains(si.getTargetComponent())) {
+                        return false;
+                    }
+                }
+            }
+            mUpdated.addAll(bind.mUpdated);
+            mRemoved.addAll(bind.mRemoved);
+            return true;
+        }
+
+        @Override
+        public void run() {
+            bindShortcutsChanged(mUpdated, mRemoved, mUser);
+        }
+    }
+
     /**
      * Update the state of a package, typically related to install state.
      *
@@ -4293,18 +4390,86 @@ public class Launcher extends Activity
      */
     @Override
     public void bindRestoreItemsChange(final HashSet<ItemInfo> updates) {
-        Runnable r = new Runnable() {
-            public void run() {
-                bindRestoreItemsChange(updates);
-            }
-        };
-        if (waitUntilResume(r)) {
+        if (mPaused) {
+            deferUntilResume(new RestoreItemsChangeBind(updates),
+                    BindOnResumeQueue.DOMAIN_WORKSPACE);
             return;
         }
 
         mWorkspace.updateRestoreItems(updates);
     }
 
+    /**
+     * Deferred {@link #bindRestoreItemsChange}. Items are updated from their current state, so
+     * an item changed several times only needs to be updated once.
+     */
+    class RestoreItemsChangeBind implements BindOnResumeQueue.MergeableBind {
+        final HashSet<ItemInfo> mUpdates;
+
+        RestoreItemsChangeBind(HashSet<ItemInfo> updates) {
+            mUpdates = new HashSet<>(updates);
+        }
+
+        @Override
+        public Object getMergeKey() {
+            return RestoreItemsChangeBind.class;
+        }
+
+        @Override
+        public boolean merge(BindOnResumeQueue.MergeableBind later) {
+            mUpdates.addAll(((RestoreItemsChangeBind) later).mUpdates);
+            return true;
+        }
+
+        @Override
+        public void run() {
+            bindRestoreItemsChange(mUpdates);
+        }
+    }
+
+    /**
+     * Removes the views of the given workspace and hotseat items.
+     *
+     * Implementation of the method from LauncherModel.Callbacks.
+     */
+    @Override
+    public void bindWorkspaceItemsRemoved(final HashSet<Long> itemIds) {
+        if (mPaused) {
+            deferUntilResume(new WorkspaceItemsRemovedBind(itemIds),
+                    BindOnResumeQueue.DOMAIN_WORKSPACE);
+            return;
+        }
+
+        mWorkspace.removeItemsById(itemIds);
+    }
+
+    /**
+     * Deferred {@link #bindWorkspaceItemsRemoved}.
+     */
+    class WorkspaceItemsRemovedBind implements BindOnResumeQueue.MergeableBind {
+        final HashSet<Long> mItemIds;
+
+        WorkspaceItemsRemovedBind(HashSet<Long> itemIds) {
+            mItemIds = new HashSet<>(itemIds);
+        }
+
+        @Override
+        public Object getMergeKey() {
+            return WorkspaceItemsRemovedBind.class;
+        }
+
+        @Override
+        public boolean merge(BindOnResumeQueue.MergeableBind later) {
+            mItemIds.addAll(((WorkspaceItemsRemovedBind) later).mItemIds);
+            return true;
+        }
+
+        @Override
+        public void run() {
+            bindWorkspaceItemsRemoved(mItemIds);
+        }
+    }
+
     /**
      * A package was uninstalled.  We take both the super set of packageNames
      * in addition to specific applications to remove, the reason being that
@@ -4318,12 +4483,9 @@ public class Launcher extends Activity
     @Override
     public void bindComponentsRemoved(final ArrayList<String> packageNames,
             final ArrayList<AppInfo> appInfos, final UserHandleCompat user, final int reason) {
-        Runnable r = new Runnable() {
-            public void run() {
-                bindComponentsRemoved(packageNames, appInfos, user, reason);
-            }
-        };
-        if (waitUntilResume(r)) {
+        if (mPaused) {
+            deferUntilResume(new ComponentsRemovedBind(packageNames, appInfos, user, reason),
+                    BindOnResumeQueue.DOMAIN_WORKSPACE | BindOnResumeQueue.DOMAIN_ALL_APPS);
             return;
         }
 
@@ -4351,6 +4513,42 @@ public class Launcher extends Activity
         }
     }
 
+    /**
+     * Deferred {@link #bindComponentsRemoved} of a user and reason.
+     */
+    class ComponentsRemovedBind implements BindOnResumeQueue.MergeableBind {
+        final LinkedHashSet<String> mPackageNames;
+        final ArrayList<AppInfo> mAppInfos;
+        final UserHandleCompat mUser;
+        final int mReason;
+
+        ComponentsRemovedBind(ArrayList<String> packageNames, ArrayList<AppInfo> appInfos,
+                UserHandleCompat user, int reason) {
+            mPackageNames = new LinkedHashSet<>(packageNames);
+            mAppInfos = new ArrayList<>(appInfos);
+            mUser = user;
+            mReason = reason;
+        }
+
+        @Override
+        public Object getMergeKey() {
+            return Arrays.asList(ComponentsRemovedBind.class, mUser, mReason);
+        }
+
+        @Override
+        public boolean merge(BindOnResumeQueue.MergeableBind later) {
+            ComponentsRemovedBind bind = (ComponentsRemovedBind) later;
+            mPackageNames.addAll(bind.mPackageNames);
+            mAppInfos.addAll(bind.mAppInfos);
+            return true;
+        }
+
+        @Override
+        public void run() {
+            bindComponentsRemoved(new ArrayList<>(mPackageNames), mAppInfos, mUser, mReason);
+        }
+    }
+
     private Runnable mBindPackagesUpdatedRunnable = new Runnable() {
             public void run() {
                 bindAllPackages(mWidgetsModel);
@@ -4359,7 +4557,8 @@ public class Launcher extends Activity
 
     @Override
     public void bindAllPackages(final WidgetsModel model) {
-        if (waitUntilResume(mBindPackagesUpdatedRunnable, true)) {
+        if (waitUntilResume(mBindPackagesUpdatedRunnable, true,
+                BindOnResumeQueue.DOMAIN_WIDGETS)) {
             mWidgetsModel = model;
             return;
         }
@@ -4701,13 +4900,12 @@ public class Launcher extends Activity
     @Override
     public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
         super.dump(prefix, fd, writer, args);
-        synchronized (sDumpLogs) {
-            writer.println(" ");
-            writer.println("Debug logs: ");
-            for (int i = 0; i < sDumpLogs.size(); i++) {
-                writer.println("  " + sDumpLogs.get(i));
-            }
-        }
+        mViewPool.dump(prefix, writer);
+        writer.println(" ");
+        StartupTrace.dump(prefix, writer);
+        writer.println(" ");
+        writer.println("Debug logs: ");
+        sDumpLog.dump("  ", writer);
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.dump(prefix, fd, writer, args);
         }
@@ -4715,16 +4913,16 @@ public class Launcher extends Activity
 
     public static void dumpDebugLogsToConsole() {
         if (DEBUG_DUMP_LOG) {
-            synchronized (sDumpLogs) {
-                Log.d(TAG, "");
-                Log.d(TAG, "*********************");
-                Log.d(TAG, "Launcher debug logs: ");
-                for (int i = 0; i < sDumpLogs.size(); i++) {
-                    Log.d(TAG, "  " + sDumpLogs.get(i));
-                }
-                Log.d(TAG, "*********************");
-                Log.d(TAG, "");
+            StringWriter logs = new StringWriter();
+            sDumpLog.dump("  ", new PrintWriter(logs));
+            Log.d(TAG, "");
+            Log.d(TAG, "*********************");
+            Log.d(TAG, "Launcher debug logs: ");
+            for (String line : logs.toString().split("\n")) {
+                Log.d(TAG, line);
             }
+            Log.d(TAG, "*********************");
+            Log.d(TAG, "");
         }
     }
 
@@ -4741,11 +4939,30 @@ public class Launcher extends Activity
             }
         }
         if (DEBUG_DUMP_LOG) {
-            sDateStamp.setTime(System.currentTimeMillis());
-            synchronized (sDumpLogs) {
-                sDumpLogs.add(sDateFormat.format(sDateStamp) + ": " + tag + ", " + log
-                    + (e == null ? "" : (", Exception: " + e)));
-            }
+            sDumpLog.add(tag, log, e);
+        }
+    }
+
+    /**
+     * Adds a log whose message is only built from the "%s" template when it goes to logcat or
+     * the log is dumped, see {@link DumpLog#format}.
+     */
+    public static void addDumpLog(String tag, String template, Object arg, boolean debugLog) {
+        if (debugLog) {
+            Log.d(tag, DumpLog.format(template, arg, null));
+        }
+        if (DEBUG_DUMP_LOG) {
+            sDumpLog.add(tag, template, arg);
+        }
+    }
+
+    public static void addDumpLog(String tag, String template, Object arg0, Object arg1,
+            boolean debugLog) {
+        if (debugLog) {
+            Log.d(tag, DumpLog.format(template, arg0, arg1));
+        }
+        if (DEBUG_DUMP_LOG) {
+            sDumpLog.add(tag, template, arg0, arg1);
         }
     }
 
@@ -4762,12 +4979,12 @@ public class Launcher extends Activity
             new AsyncTask<Void, Void, Void>() {
                 public Void doInBackground(Void ... args) {
                     boolean success = false;
-                    sDateStamp.setTime(sRunStart);
-                    String FILENAME = sDateStamp.getMonth() + "-"
-                            + sDateStamp.getDay() + "_"
-                            + sDateStamp.getHours() + "-"
-                            + sDateStamp.getMinutes() + "_"
-                            + sDateStamp.getSeconds() + ".txt";
+                    Date runStart = new Date(sRunStart);
+                    String FILENAME = runStart.getMonth() + "-"
+                            + runStart.getDay() + "_"
+                            + runStart.getHours() + "-"
+                            + runStart.getMinutes() + "_"
+                            + runStart.getSeconds() + ".txt";
 
                     FileOutputStream fos = null;
                     File outFile = null;
@@ -4783,11 +5000,7 @@ public class Launcher extends Activity
 
                         writer.println(" ");
                         writer.println("Debug logs: ");
-                        synchronized (sDumpLogs) {
-                            for (int i = 0; i < sDumpLogs.size(); i++) {
-                                writer.println("  " + sDumpLogs.get(i));
-                            }
-                        }
+                        sDumpLog.dump("  ", writer);
                         writer.close();
                     }
                     try {
@@ -128,12 +128,11 @@ public class LauncherAppState {
     }
 
     /**
-     * Reloads the workspace items from the DB and re-binds the workspace. This should generally
-     * not be called as DB updates are automatically followed by UI update
+     * Reloads the workspace items from the DB and re-binds the items which changed. This should
+     * generally not be called as DB updates are automatically followed by UI update
      */
     public void reloadWorkspace() {
-        mModel.resetLoadedState(false, true);
-        mModel.startLoaderFromBackground();
+        mModel.reloadWorkspaceIncrementally();
     }
 
     LauncherModel setLauncher(Launcher launcher) {
@@ -41,6 +41,7 @@ import android.os.Looper;
 import android.os.Parcelable;
 import android.os.Process;
 import android.os.SystemClock;
+import android.os.Trace;
 import android.os.TransactionTooLargeException;
 import android.provider.BaseColumns;
 import android.text.TextUtils;
@@ -61,7 +62,9 @@ import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.CursorIconInfo;
 import com.android.launcher3.util.LongArrayMap;
 import com.android.launcher3.util.ManagedProfileHeuristic;
+import com.android.launcher3.util.QueueStats;
 import com.android.launcher3.util.Thunk;
+import com.android.launcher3.util.WorkerQueue;
 
 import java.lang.ref.WeakReference;
 import java.net.URISyntaxException;
@@ -75,6 +78,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
@@ -95,7 +99,10 @@ public class LauncherModel extends BroadcastReceiver
     public static final int LOADER_FLAG_CLEAR_WORKSPACE = 1 << 0;
     public static final int LOADER_FLAG_MIGRATE_SHORTCUTS = 1 << 1;
 
-    private static final int ITEMS_CHUNK = 6; // batch size for the workspace icons
+    // Time we allow workspace item binding to take on the main thread before yielding to the
+    // next frame, leaving the rest of the frame for layout and drawing.
+    private static final long BIND_FRAME_BUDGET_NANOS = 8 * 1000 * 1000;
+    private static final long FRAME_DURATION_NANOS = 16 * 1000 * 1000;
     private static final long INVALID_SCREEN_ID = -1L;
 
     @Thunk final boolean mAppsCanBeOnRemoveableStorage;
@@ -110,11 +117,19 @@ public class LauncherModel extends BroadcastReceiver
 
     private static final String MIGRATE_AUTHORITY = "com.android.launcher2.settings";
 
-    @Thunk static final HandlerThread sWorkerThread = new HandlerThread("launcher-loader");
-    static {
-        sWorkerThread.start();
-    }
-    @Thunk static final Handler sWorker = new Handler(sWorkerThread.getLooper());
+    // Background work is split into serial queues per domain, so that a slow task in one domain
+    // (eg. a large icon cache update) does not hold up the others.
+    // The model queue runs the loader and package events, which own the sBg* structures.
+    @Thunk static final WorkerQueue sWorkerQueue = new WorkerQueue("launcher-loader");
+    @Thunk static final HandlerThread sWorkerThread = sWorkerQueue.getThread();
+    @Thunk static final Handler sWorker = sWorkerQueue.getHandler();
+    // Database writes made in response to user actions. Blocked while the loader reads the db.
+    @Thunk static final WorkerQueue sPersistenceQueue = new WorkerQueue("launcher-db");
+    // Widget and shortcut list refreshes and widget preview updates.
+    @Thunk static final WorkerQueue sWidgetsQueue = new WorkerQueue("launcher-widgets");
+    // Icon cache lookups and updates.
+    @Thunk static final WorkerQueue sIconsQueue = new WorkerQueue("launcher-icons",
+            Process.THREAD_PRIORITY_BACKGROUND);
 
     // We start off with everything not loaded.  After that, we assume that
     // our monitoring of the package manager provides all updates and we never
@@ -127,6 +142,8 @@ public class LauncherModel extends BroadcastReceiver
     // draw (in Workspace) to initiate the binding of the remaining side pages.  Any time we start
     // a normal load, we also clear this set of Runnables.
     static final ArrayList<Runnable> mDeferredBindRunnables = new ArrayList<Runnable>();
+    // Measures how long the deferred bind runnables wait before running, see deferBind().
+    static final QueueStats sDeferredBindStats = new QueueStats("launcher-deferred-binds");
 
     /**
      * Set of runnables to be called on the background thread after the workspace binding
@@ -166,8 +183,24 @@ public class LauncherModel extends BroadcastReceiver
     // sBgWorkspaceScreens is the ordered set of workspace screens.
     static final ArrayList<Long> sBgWorkspaceScreens = new ArrayList<Long>();
 
-    // sBgWidgetProviders is the set of widget providers including custom internal widgets
-    public static HashMap<ComponentKey, LauncherAppWidgetProviderInfo> sBgWidgetProviders;
+    // sBgSnapshot is an immutable copy of the structures above, published every time they are
+    // changed. Readers which only need a consistent view of the model use it instead of sBgLock,
+    // so that they never wait for a loader which is in the middle of parsing the workspace.
+    // Only the structures which changed are copied, the others are shared with the previous one.
+    static volatile BgSnapshot sBgSnapshot = new BgSnapshot();
+
+    // Structures changed since the last snapshot, see publishBgSnapshotLocked(int)
+    static final int BG_ITEMS_ID_MAP = 1 << 0;
+    static final int BG_WORKSPACE_ITEMS = 1 << 1;
+    static final int BG_APP_WIDGETS = 1 << 2;
+    static final int BG_FOLDERS = 1 << 3;
+    static final int BG_WORKSPACE_SCREENS = 1 << 4;
+    static final int BG_ALL = BG_ITEMS_ID_MAP | BG_WORKSPACE_ITEMS | BG_APP_WIDGETS | BG_FOLDERS
+            | BG_WORKSPACE_SCREENS;
+
+    // sBgWidgetProviders is the set of widget providers including custom internal widgets. It is
+    // never modified once published, and replaced as a whole on refresh, so it needs no lock.
+    private static volatile Map<ComponentKey, LauncherAppWidgetProviderInfo> sBgWidgetProviders;
 
     // sPendingPackages is a set of packages which could be on sdcard and are not available yet
     static final HashMap<UserHandleCompat, HashSet<String>> sPendingPackages =
@@ -201,6 +234,7 @@ public class LauncherModel extends BroadcastReceiver
                 ArrayList<ShortcutInfo> removed, UserHandleCompat user);
         public void bindWidgetsRestored(ArrayList<LauncherAppWidgetInfo> widgets);
         public void bindRestoreItemsChange(HashSet<ItemInfo> updates);
+        public void bindWorkspaceItemsRemoved(HashSet<Long> itemIds);
         public void bindComponentsRemoved(ArrayList<String> packageNames,
                         ArrayList<AppInfo> appInfos, UserHandleCompat user, int reason);
         public void bindAllPackages(WidgetsModel model);
@@ -210,6 +244,60 @@ public class LauncherModel extends BroadcastReceiver
         public void dumpLogsToLocalData();
     }
 
+    /**
+     * Read-only copy of the background workspace model. The contained collections must not be
+     * modified; the {@link ItemInfo}s are shared with the live model.
+     */
+    static final class BgSnapshot {
+        final LongArrayMap<ItemInfo> itemsIdMap;
+        final List<ItemInfo> workspaceItems;
+        final List<LauncherAppWidgetInfo> appWidgets;
+        final LongArrayMap<FolderInfo> folders;
+        final List<Long> workspaceScreens;
+
+        BgSnapshot() {
+            itemsIdMap = new LongArrayMap<>();
+            workspaceItems = Collections.emptyList();
+            appWidgets = Collections.emptyList();
+            folders = new LongArrayMap<>();
+            workspaceScreens = Collections.emptyList();
+        }
+
+        /**
+         * Copies the changed structures and shares the others with the previous snapshot. Must
+         * be called with {@link #sBgLock} held.
+         */
+        BgSnapshot(BgSnapshot previous, int changed) {
+            itemsIdMap = (changed & BG_ITEMS_ID_MAP) != 0
+                    ? sBgItemsIdMap.clone() : previous.itemsIdMap;
+            workspaceItems = (changed & BG_WORKSPACE_ITEMS) != 0
+                    ? Collections.unmodifiableList(new ArrayList<>(sBgWorkspaceItems))
+                    : previous.workspaceItems;
+            appWidgets = (changed & BG_APP_WIDGETS) != 0
+                    ? Collections.unmodifiableList(new ArrayList<>(sBgAppWidgets))
+                    : previous.appWidgets;
+            folders = (changed & BG_FOLDERS) != 0 ? sBgFolders.clone() : previous.folders;
+            workspaceScreens = (changed & BG_WORKSPACE_SCREENS) != 0
+                    ? Collections.unmodifiableList(new ArrayList<>(sBgWorkspaceScreens))
+                    : previous.workspaceScreens;
+        }
+    }
+
+    /** Publishes a new {@link #sBgSnapshot}. Must be called with {@link #sBgLock} held. */
+    static void publishBgSnapshotLocked() {
+        publishBgSnapshotLocked(BG_ALL);
+    }
+
+    /**
+     * Publishes a new {@link #sBgSnapshot} in which only the given structures, a combination of
+     * the BG_* flags, are copied. Must be called with {@link #sBgLock} held.
+     */
+    static void publishBgSnapshotLocked(int changed) {
+        if (changed != 0) {
+            sBgSnapshot = new BgSnapshot(sBgSnapshot, changed);
+        }
+    }
+
     public interface ItemInfoFilter {
         public boolean filterItem(ItemInfo parent, ItemInfo info, ComponentName cn);
     }
@@ -251,9 +339,9 @@ public class LauncherModel extends BroadcastReceiver
     /** Runs the specified runnable immediately if called from the main thread, otherwise it is
      * posted on the main thread handler. */
     @Thunk void runOnMainThread(Runnable r) {
-        if (sWorkerThread.getThreadId() == Process.myTid()) {
-            // If we are on the worker thread, post onto the main handler
-            mHandler.post(r);
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            // If we are on a worker thread, post onto the main handler
+            mHandler.post(r, QueueStats.TYPE_BIND);
         } else {
             r.run();
         }
@@ -262,11 +350,16 @@ public class LauncherModel extends BroadcastReceiver
     /** Runs the specified runnable immediately if called from the worker thread, otherwise it is
      * posted on the worker thread handler. */
     @Thunk static void runOnWorkerThread(Runnable r) {
-        if (sWorkerThread.getThreadId() == Process.myTid()) {
+        sWorkerQueue.execute(r);
+    }
+
+    /** Runs the specified database write on the persistence queue. Writes made from the worker
+     * thread are run immediately, so that the model thread sees its own writes in order. */
+    @Thunk static void runOnPersistenceThread(Runnable r) {
+        if (sWorkerQueue.isCurrentThread()) {
             r.run();
         } else {
-            // If we are not on the worker thread, then post to the worker handler
-            sWorker.post(r);
+            sPersistenceQueue.execute(r, QueueStats.TYPE_DB_WRITE);
         }
     }
 
@@ -321,7 +414,7 @@ public class LauncherModel extends BroadcastReceiver
                                 }
                             }
                         };
-                        mHandler.post(r);
+                        mHandler.post(r, QueueStats.TYPE_PACKAGE_UPDATE);
                     }
                 }
             }
@@ -372,7 +465,7 @@ public class LauncherModel extends BroadcastReceiver
                                 }
                             }
                         };
-                        mHandler.post(r);
+                        mHandler.post(r, QueueStats.TYPE_PACKAGE_UPDATE);
                     }
                 }
             }
@@ -438,18 +531,16 @@ public class LauncherModel extends BroadcastReceiver
             int spanX, int spanY) {
         LongSparseArray<ArrayList<ItemInfo>> screenItems = new LongSparseArray<>();
 
-        // Use sBgItemsIdMap as all the items are already loaded.
+        // Use the loaded model as all the items are already loaded.
         assertWorkspaceLoaded();
-        synchronized (sBgLock) {
-            for (ItemInfo info : sBgItemsIdMap) {
-                if (info.container == LauncherSettings.Favorites.CONTAINER_DESKTOP) {
-                    ArrayList<ItemInfo> items = screenItems.get(info.screenId);
-                    if (items == null) {
-                        items = new ArrayList<>();
-                        screenItems.put(info.screenId, items);
-                    }
-                    items.add(info);
+        for (ItemInfo info : sBgSnapshot.itemsIdMap) {
+            if (info.container == LauncherSettings.Favorites.CONTAINER_DESKTOP) {
+                ArrayList<ItemInfo> items = screenItems.get(info.screenId);
+                if (items == null) {
+                    items = new ArrayList<>();
+                    screenItems.put(info.screenId, items);
                 }
+                items.add(info);
             }
         }
 
@@ -507,7 +598,7 @@ public class LauncherModel extends BroadcastReceiver
             return;
         }
         // Process the newly added applications and add them to the database first
-        Runnable r = new Runnable() {
+        final Runnable addItems = new Runnable() {
             public void run() {
                 final ArrayList<ItemInfo> addedShortcutsFinal = new ArrayList<ItemInfo>();
                 final ArrayList<Long> addedWorkspaceScreensFinal = new ArrayList<Long>();
@@ -579,6 +670,18 @@ public class LauncherModel extends BroadcastReceiver
                 }
             }
         };
+        Runnable r = new Runnable() {
+            public void run() {
+                // The items are placed against the model and the screens in the db, apply the
+                // writes queued by the UI first and hold back the later ones until it is done.
+                final WorkerQueue.Barrier barrier = sPersistenceQueue.block();
+                try {
+                    addItems.run();
+                } finally {
+                    barrier.release();
+                }
+            }
+        };
         runOnWorkerThread(r);
     }
 
@@ -589,9 +692,7 @@ public class LauncherModel extends BroadcastReceiver
         }
 
         // Clear any deferred bind runnables
-        synchronized (mDeferredBindRunnables) {
-            mDeferredBindRunnables.clear();
-        }
+        clearDeferredBindRunnables();
 
         // Remove any queued UI runnables
         mHandler.cancelAll();
@@ -603,11 +704,10 @@ public class LauncherModel extends BroadcastReceiver
     void unbindWorkspaceItemsOnMainThread() {
         // Ensure that we don't use the same workspace items data structure on the main thread
         // by making a copy of workspace items first.
+        final BgSnapshot snapshot = sBgSnapshot;
         final ArrayList<ItemInfo> tmpItems = new ArrayList<ItemInfo>();
-        synchronized (sBgLock) {
-            tmpItems.addAll(sBgWorkspaceItems);
-            tmpItems.addAll(sBgAppWidgets);
-        }
+        tmpItems.addAll(snapshot.workspaceItems);
+        tmpItems.addAll(snapshot.appWidgets);
         Runnable r = new Runnable() {
                 @Override
                 public void run() {
@@ -687,7 +787,7 @@ public class LauncherModel extends BroadcastReceiver
                 }
             }
         };
-        runOnWorkerThread(r);
+        runOnPersistenceThread(r);
     }
 
     static void updateItemInDatabaseHelper(Context context, final ContentValues values,
@@ -703,7 +803,7 @@ public class LauncherModel extends BroadcastReceiver
                 updateItemArrays(item, itemId, stackTrace);
             }
         };
-        runOnWorkerThread(r);
+        runOnPersistenceThread(r);
     }
 
     static void updateItemsInDatabaseHelper(Context context, final ArrayList<ContentValues> valuesList,
@@ -733,9 +833,13 @@ public class LauncherModel extends BroadcastReceiver
                 }
             }
         };
-        runOnWorkerThread(r);
+        runOnPersistenceThread(r);
     }
 
+    /**
+     * Updates the structures the item is in after it changed, and publishes them if needed. The
+     * fields of the item itself are shared with the snapshot.
+     */
     static void updateItemArrays(ItemInfo item, long itemId, StackTraceElement[] stackTrace) {
         // Lock on mBgLock *after* the db operation
         synchronized (sBgLock) {
@@ -766,13 +870,14 @@ public class LauncherModel extends BroadcastReceiver
                     case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
                         if (!sBgWorkspaceItems.contains(modelItem)) {
                             sBgWorkspaceItems.add(modelItem);
+                            publishBgSnapshotLocked(BG_WORKSPACE_ITEMS);
                         }
                         break;
                     default:
                         break;
                 }
-            } else {
-                sBgWorkspaceItems.remove(modelItem);
+            } else if (sBgWorkspaceItems.remove(modelItem)) {
+                publishBgSnapshotLocked(BG_WORKSPACE_ITEMS);
             }
         }
     }
@@ -916,17 +1021,15 @@ public class LauncherModel extends BroadcastReceiver
             intentWithoutPkg = intent.toUri(0);
         }
 
-        synchronized (sBgLock) {
-            for (ItemInfo item : sBgItemsIdMap) {
-                if (item instanceof ShortcutInfo) {
-                    ShortcutInfo info = (ShortcutInfo) item;
-                    Intent targetIntent = info.promisedIntent == null
-                            ? info.intent : info.promisedIntent;
-                    if (targetIntent != null && info.user.equals(user)) {
-                        String s = targetIntent.toUri(0);
-                        if (intentWithPkg.equals(s) || intentWithoutPkg.equals(s)) {
-                            return true;
-                        }
+        for (ItemInfo item : sBgSnapshot.itemsIdMap) {
+            if (item instanceof ShortcutInfo) {
+                ShortcutInfo info = (ShortcutInfo) item;
+                Intent targetIntent = info.promisedIntent == null
+                        ? info.intent : info.promisedIntent;
+                if (targetIntent != null && info.user.equals(user)) {
+                    String s = targetIntent.toUri(0);
+                    if (intentWithPkg.equals(s) || intentWithoutPkg.equals(s)) {
+                        return true;
                     }
                 }
             }
@@ -1013,15 +1116,18 @@ public class LauncherModel extends BroadcastReceiver
                 synchronized (sBgLock) {
                     checkItemInfoLocked(item.id, item, stackTrace);
                     sBgItemsIdMap.put(item.id, item);
+                    int changed = BG_ITEMS_ID_MAP;
                     switch (item.itemType) {
                         case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
                             sBgFolders.put(item.id, (FolderInfo) item);
+                            changed |= BG_FOLDERS;
                             // Fall through
                         case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
                         case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
                             if (item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP ||
                                     item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
                                 sBgWorkspaceItems.add(item);
+                                changed |= BG_WORKSPACE_ITEMS;
                             } else {
                                 if (!sBgFolders.containsKey(item.container)) {
                                     // Adding an item to a folder that doesn't exist.
@@ -1033,12 +1139,14 @@ public class LauncherModel extends BroadcastReceiver
                             break;
                         case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
                             sBgAppWidgets.add((LauncherAppWidgetInfo) item);
+                            changed |= BG_APP_WIDGETS;
                             break;
                     }
+                    publishBgSnapshotLocked(changed);
                 }
             }
         };
-        runOnWorkerThread(r);
+        runOnPersistenceThread(r);
     }
 
     /**
@@ -1089,15 +1197,18 @@ public class LauncherModel extends BroadcastReceiver
         final ContentResolver cr = context.getContentResolver();
         Runnable r = new Runnable() {
             public void run() {
+                int changed = 0;
                 for (ItemInfo item : items) {
                     final Uri uri = LauncherSettings.Favorites.getContentUri(item.id);
                     cr.delete(uri, null, null);
 
                     // Lock on mBgLock *after* the db operation
                     synchronized (sBgLock) {
+                        changed |= BG_ITEMS_ID_MAP;
                         switch (item.itemType) {
                             case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
                                 sBgFolders.remove(item.id);
+                                changed |= BG_FOLDERS | BG_WORKSPACE_ITEMS;
                                 for (ItemInfo info: sBgItemsIdMap) {
                                     if (info.container == item.id) {
                                         // We are deleting a folder which still contains items that
@@ -1112,17 +1223,23 @@ public class LauncherModel extends BroadcastReceiver
                             case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
                             case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
                                 sBgWorkspaceItems.remove(item);
+                                changed |= BG_WORKSPACE_ITEMS;
                                 break;
                             case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
                                 sBgAppWidgets.remove((LauncherAppWidgetInfo) item);
+                                changed |= BG_APP_WIDGETS;
                                 break;
                         }
                         sBgItemsIdMap.remove(item.id);
                     }
                 }
+                // Published once for the whole batch
+                synchronized (sBgLock) {
+                    publishBgSnapshotLocked(changed);
+                }
             }
         };
-        runOnWorkerThread(r);
+        runOnPersistenceThread(r);
     }
 
     /**
@@ -1167,10 +1284,11 @@ public class LauncherModel extends BroadcastReceiver
                 synchronized (sBgLock) {
                     sBgWorkspaceScreens.clear();
                     sBgWorkspaceScreens.addAll(screensCopy);
+                    publishBgSnapshotLocked(BG_WORKSPACE_SCREENS);
                 }
             }
         };
-        runOnWorkerThread(r);
+        runOnPersistenceThread(r);
     }
 
     /**
@@ -1196,10 +1314,11 @@ public class LauncherModel extends BroadcastReceiver
                     for (ItemInfo childInfo : info.contents) {
                         sBgItemsIdMap.remove(childInfo.id);
                     }
+                    publishBgSnapshotLocked(BG_ITEMS_ID_MAP | BG_FOLDERS | BG_WORKSPACE_ITEMS);
                 }
             }
         };
-        runOnWorkerThread(r);
+        runOnPersistenceThread(r);
     }
 
     /**
@@ -1288,6 +1407,14 @@ public class LauncherModel extends BroadcastReceiver
         }
     }
 
+    /**
+     * Re-reads the favorites and binds only the items which changed since the last load. Falls
+     * back to {@link #resetLoadedState} and a full load when that is not possible.
+     */
+    void reloadWorkspaceIncrementally() {
+        runOnWorkerThread(new WorkspaceDiffTask(this, mApp.getContext()));
+    }
+
     void forceReload() {
         resetLoadedState(true, true);
 
@@ -1353,9 +1480,7 @@ public class LauncherModel extends BroadcastReceiver
             // Clear any deferred bind-runnables from the synchronized load process
             // We must do this before any loading/binding is scheduled below.
             //加载之前我们必须这样做如下安排。
-            synchronized (mDeferredBindRunnables) {
-                mDeferredBindRunnables.clear();
-            }
+            clearDeferredBindRunnables();
 
             // Don't bother to start the thread if we know it's not going to do anything
             if (mCallbacks != null && mCallbacks.get() != null) {
@@ -1373,7 +1498,7 @@ public class LauncherModel extends BroadcastReceiver
                     mLoaderTask.runBindSynchronousPage(synchronousBindPage);
                 } else {
                     sWorkerThread.setPriority(Thread.NORM_PRIORITY);
-                    sWorker.post(mLoaderTask);
+                    sWorkerQueue.post(mLoaderTask, QueueStats.TYPE_LOADER);
                 }
             }
         }
@@ -1389,8 +1514,26 @@ public class LauncherModel extends BroadcastReceiver
                 mDeferredBindRunnables.clear();
             }
             for (final Runnable r : deferredBindRunnables) {
-                mHandler.post(r);
+                mHandler.post(r, QueueStats.TYPE_BIND);
+            }
+        }
+    }
+
+    /**
+     * Defers a bind runnable until {@link #bindRemainingSynchronousPages} is called.
+     */
+    static void deferBind(ArrayList<Runnable> deferredBindRunnables, Runnable r) {
+        synchronized (deferredBindRunnables) {
+            deferredBindRunnables.add(sDeferredBindStats.wrap(r, QueueStats.TYPE_BIND));
+        }
+    }
+
+    static void clearDeferredBindRunnables() {
+        synchronized (mDeferredBindRunnables) {
+            for (Runnable r : mDeferredBindRunnables) {
+                ((QueueStats.Task) r).cancel();
             }
+            mDeferredBindRunnables.clear();
         }
     }
 
@@ -1469,7 +1612,16 @@ public class LauncherModel extends BroadcastReceiver
                 //loadWorkspace有将近400行，挺多的，其实做的事情就是遍历数据库里的每条记录，
                 // 判断他的类型，生成对应的ItemInfo对象（ShortcutInfo，FolderInfo，LauncherAppWidgetInfo）
                 //TODO----------------------loadWorkspace
-                loadWorkspace();
+                // Hold back db writes from the UI while the db is read, they are applied on top
+                // of the loaded model once it is done.
+                final WorkerQueue.Barrier barrier = sPersistenceQueue.block();
+                final int traceToken = StartupTrace.begin(StartupTrace.LOAD_WORKSPACE);
+                try {
+                    loadWorkspace();
+                } finally {
+                    StartupTrace.end(traceToken);
+                    barrier.release();
+                }
 
                 synchronized (LoaderTask.this) {
                     if (mStopped) {
@@ -1914,7 +2066,7 @@ public class LauncherModel extends BroadcastReceiver
                                                 // The app is installed but the component is no
                                                 // longer available.
                                                 Launcher.addDumpLog(TAG,
-                                                        "Invalid component removed: " + cn, true);
+                                                        "Invalid component removed: %s", cn, true);
                                                 itemsToRemove.add(id);
                                                 continue;
                                             } else {
@@ -1926,7 +2078,7 @@ public class LauncherModel extends BroadcastReceiver
                                             // Package is not yet available but might be
                                             // installed later.
                                             Launcher.addDumpLog(TAG,
-                                                    "package not yet restored: " + cn, true);
+                                                    "package not yet restored: %s", cn, true);
 
                                             if ((promiseType & ShortcutInfo.FLAG_RESTORE_STARTED) != 0) {
                                                 // Restore has started once.
@@ -1953,13 +2105,15 @@ public class LauncherModel extends BroadcastReceiver
 
                                                 } else if (REMOVE_UNRESTORED_ICONS) {
                                                     Launcher.addDumpLog(TAG,
-                                                            "Unrestored package removed: " + cn, true);
+                                                            "Unrestored package removed: %s",
+                                                            cn, true);
                                                     itemsToRemove.add(id);
                                                     continue;
                                                 }
                                             } else if (REMOVE_UNRESTORED_ICONS) {
                                                 Launcher.addDumpLog(TAG,
-                                                        "Unrestored package removed: " + cn, true);
+                                                        "Unrestored package removed: %s",
+                                                        cn, true);
                                                 itemsToRemove.add(id);
                                                 continue;
                                             }
@@ -1972,8 +2126,9 @@ public class LauncherModel extends BroadcastReceiver
                                         } else if (!isSdCardReady) {
                                             // SdCard is not ready yet. Package might get available,
                                             // once it is ready.
-                                            Launcher.addDumpLog(TAG, "Invalid package: " + cn
-                                                    + " (check again later)", true);
+                                            Launcher.addDumpLog(TAG,
+                                                    "Invalid package: %s (check again later)",
+                                                    cn, true);
                                             HashSet<String> pkgs = sPendingPackages.get(user);
                                             if (pkgs == null) {
                                                 pkgs = new HashSet<String>();
@@ -1987,7 +2142,7 @@ public class LauncherModel extends BroadcastReceiver
                                             // Do not wait for external media load anymore.
                                             // Log the invalid package, and remove it
                                             Launcher.addDumpLog(TAG,
-                                                    "Invalid package removed: " + cn, true);
+                                                    "Invalid package removed: %s", cn, true);
                                             itemsToRemove.add(id);
                                             continue;
                                         }
@@ -1998,7 +2153,7 @@ public class LauncherModel extends BroadcastReceiver
                                     }
                                 } catch (URISyntaxException e) {
                                     Launcher.addDumpLog(TAG,
-                                            "Invalid uri: " + intentDescription, true);
+                                            "Invalid uri: %s", intentDescription, true);
                                     itemsToRemove.add(id);
                                     continue;
                                 }
@@ -2221,7 +2376,8 @@ public class LauncherModel extends BroadcastReceiver
                                                     LauncherAppWidgetInfo.FLAG_RESTORE_STARTED;
                                         } else if (REMOVE_UNRESTORED_ICONS && !isSafeMode) {
                                             Launcher.addDumpLog(TAG,
-                                                    "Unrestored widget removed: " + component, true);
+                                                    "Unrestored widget removed: %s", component,
+                                                    true);
                                             itemsToRemove.add(id);
                                             continue;
                                         }
@@ -2353,6 +2509,11 @@ public class LauncherModel extends BroadcastReceiver
                     updateWorkspaceScreenOrder(context, sBgWorkspaceScreens);
                 }
 
+                // Only expose the model to lock-free readers once it is complete.
+                if (!mStopped) {
+                    publishBgSnapshotLocked();
+                }
+
                 if (DEBUG_LOADERS) {
                     Log.d(TAG, "loaded workspace in " + (SystemClock.uptimeMillis()-t) + "ms");
                     Log.d(TAG, "workspace layout: ");
@@ -2514,6 +2675,88 @@ public class LauncherModel extends BroadcastReceiver
             runOnMainThread(r);
         }
 
+        /**
+         * Binds a list of workspace items on the main thread, as many per frame as fit in
+         * {@link #BIND_FRAME_BUDGET_NANOS}. The per-item inflation cost is measured as we go and
+         * used to size the next batch; once the budget is used up, the remaining items are
+         * deferred until after the next frame while keeping their place ahead of anything else
+         * queued on {@link #mHandler}.
+         */
+        private class WorkspaceItemsBinder implements Runnable {
+            private final Callbacks mOldCallbacks;
+            private final ArrayList<ItemInfo> mItems;
+            private int mNextItem;
+
+            // Running estimate of the time it takes to bind a single item
+            private long mAvgItemCostNanos = -1;
+
+            // Stats, only used when DEBUG_LOADERS is set
+            private int mFrameCount;
+            private int mMaxItemsPerFrame;
+            private int mOverBudgetFrames;
+
+            WorkspaceItemsBinder(Callbacks oldCallbacks, ArrayList<ItemInfo> items) {
+                mOldCallbacks = oldCallbacks;
+                mItems = items;
+            }
+
+            @Override
+            public void run() {
+                final int N = mItems.size();
+                final long frameStart = System.nanoTime();
+                final int firstItem = mNextItem;
+                long elapsed = 0;
+
+                if (Utilities.ATLEAST_JB_MR2) {
+                    Trace.beginSection("LauncherModel.bindItems");
+                }
+                try {
+                    while (mNextItem < N) {
+                        Callbacks callbacks = tryGetCallbacks(mOldCallbacks);
+                        if (callbacks == null) {
+                            return;
+                        }
+
+                        int count = mAvgItemCostNanos <= 0 ? 1 : (int) Math.max(1,
+                                (BIND_FRAME_BUDGET_NANOS - elapsed) / mAvgItemCostNanos);
+                        count = Math.min(count, N - mNextItem);
+
+                        final long start = System.nanoTime();
+                        callbacks.bindItems(mItems, mNextItem, mNextItem + count, false);
+                        final long cost = (System.nanoTime() - start) / count;
+                        mAvgItemCostNanos = mAvgItemCostNanos <= 0
+                                ? cost : (mAvgItemCostNanos + cost) / 2;
+                        mNextItem += count;
+
+                        elapsed = System.nanoTime() - frameStart;
+                        if (elapsed + mAvgItemCostNanos > BIND_FRAME_BUDGET_NANOS
+                                && mNextItem < N && mHandler.deferToNextFrame(this)) {
+                            break;
+                        }
+                    }
+                } finally {
+                    if (Utilities.ATLEAST_JB_MR2) {
+                        Trace.endSection();
+                    }
+                }
+
+                if (DEBUG_LOADERS) {
+                    final int bound = mNextItem - firstItem;
+                    mFrameCount++;
+                    mMaxItemsPerFrame = Math.max(mMaxItemsPerFrame, bound);
+                    if (elapsed > FRAME_DURATION_NANOS) {
+                        mOverBudgetFrames++;
+                    }
+                    Log.d(TAG, "bound " + bound + " items in " + (elapsed / 1000000) + "ms");
+                    if (mNextItem >= N) {
+                        Log.d(TAG, "bound " + N + " items over " + mFrameCount + " frames, max "
+                                + mMaxItemsPerFrame + " items per frame, " + mOverBudgetFrames
+                                + " janky frames");
+                    }
+                }
+            }
+        }
+
         private void bindWorkspaceItems(final Callbacks oldCallbacks,
                 final ArrayList<ItemInfo> workspaceItems,
                 final ArrayList<LauncherAppWidgetInfo> appWidgets,
@@ -2523,24 +2766,10 @@ public class LauncherModel extends BroadcastReceiver
             final boolean postOnMainThread = (deferredBindRunnables != null);
 
             // Bind the workspace items
-            int N = workspaceItems.size();
-            for (int i = 0; i < N; i += ITEMS_CHUNK) {
-                final int start = i;
-                final int chunkSize = (i+ITEMS_CHUNK <= N) ? ITEMS_CHUNK : (N-i);
-                final Runnable r = new Runnable() {
-                    @Override
-                    public void run() {
-                        Callbacks callbacks = tryGetCallbacks(oldCallbacks);
-                        if (callbacks != null) {
-                            callbacks.bindItems(workspaceItems, start, start+chunkSize,
-                                    false);
-                        }
-                    }
-                };
+            if (!workspaceItems.isEmpty()) {
+                final Runnable r = new WorkspaceItemsBinder(oldCallbacks, workspaceItems);
                 if (postOnMainThread) {
-                    synchronized (deferredBindRunnables) {
-                        deferredBindRunnables.add(r);
-                    }
+                    deferBind(deferredBindRunnables, r);
                 } else {
                     runOnMainThread(r);
                 }
@@ -2557,16 +2786,14 @@ public class LauncherModel extends BroadcastReceiver
                     }
                 };
                 if (postOnMainThread) {
-                    synchronized (deferredBindRunnables) {
-                        deferredBindRunnables.add(r);
-                    }
+                    deferBind(deferredBindRunnables, r);
                 } else {
                     runOnMainThread(r);
                 }
             }
 
             // Bind the widgets, one at a time
-            N = appWidgets.size();
+            final int N = appWidgets.size();
             for (int i = 0; i < N; i++) {
                 final LauncherAppWidgetInfo widget = appWidgets.get(i);
                 final Runnable r = new Runnable() {
@@ -2578,7 +2805,7 @@ public class LauncherModel extends BroadcastReceiver
                     }
                 };
                 if (postOnMainThread) {
-                    deferredBindRunnables.add(r);
+                    deferBind(deferredBindRunnables, r);
                 } else {
                     runOnMainThread(r);
                 }
@@ -2590,6 +2817,7 @@ public class LauncherModel extends BroadcastReceiver
          */
         private void bindWorkspace(int synchronizeBindPage) {
             final long t = SystemClock.uptimeMillis();
+            final int traceToken = StartupTrace.beginAsync(StartupTrace.BIND_WORKSPACE, -1);
             Runnable r;
 
             // Don't use these two variables in any of the callback runnables.
@@ -2610,14 +2838,13 @@ public class LauncherModel extends BroadcastReceiver
             final LongArrayMap<FolderInfo> folders;
             final LongArrayMap<ItemInfo> itemsIdMap;
 
-            synchronized (sBgLock) {
-                workspaceItems.addAll(sBgWorkspaceItems);
-                appWidgets.addAll(sBgAppWidgets);
-                orderedScreenIds.addAll(sBgWorkspaceScreens);
+            final BgSnapshot snapshot = sBgSnapshot;
+            workspaceItems.addAll(snapshot.workspaceItems);
+            appWidgets.addAll(snapshot.appWidgets);
+            orderedScreenIds.addAll(snapshot.workspaceScreens);
 
-                folders = sBgFolders.clone();
-                itemsIdMap = sBgItemsIdMap.clone();
-            }
+            folders = snapshot.folders.clone();
+            itemsIdMap = snapshot.itemsIdMap;
 
             final boolean isLoadingSynchronously =
                     synchronizeBindPage != PagedView.INVALID_RESTORE_PAGE;
@@ -2668,8 +2895,15 @@ public class LauncherModel extends BroadcastReceiver
             bindWorkspaceScreens(oldCallbacks, orderedScreenIds);
 
             // Load items on the current page
+            final int currentPageToken =
+                    StartupTrace.beginAsync(StartupTrace.BIND_CURRENT_PAGE, currentScreen);
             bindWorkspaceItems(oldCallbacks, currentWorkspaceItems, currentAppWidgets,
                     currentFolders, null);
+            runOnMainThread(new Runnable() {
+                public void run() {
+                    StartupTrace.endAsync(currentPageToken);
+                }
+            });
             if (isLoadingSynchronously) {
                 r = new Runnable() {
                     public void run() {
@@ -2684,19 +2918,21 @@ public class LauncherModel extends BroadcastReceiver
 
             // Load all the remaining pages (if we are loading synchronously, we want to defer this
             // work until after the first render)
-            synchronized (mDeferredBindRunnables) {
-                mDeferredBindRunnables.clear();
-            }
+            clearDeferredBindRunnables();
+            final int otherPagesToken =
+                    StartupTrace.beginAsync(StartupTrace.BIND_OTHER_PAGES, -1);
             bindWorkspaceItems(oldCallbacks, otherWorkspaceItems, otherAppWidgets, otherFolders,
                     (isLoadingSynchronously ? mDeferredBindRunnables : null));
 
             // Tell the workspace that we're done binding items
             r = new Runnable() {
                 public void run() {
+                    StartupTrace.endAsync(otherPagesToken);
                     Callbacks callbacks = tryGetCallbacks(oldCallbacks);
                     if (callbacks != null) {
                         callbacks.finishBindingItems();
                     }
+                    StartupTrace.endAsync(traceToken);
 
                     mIsLoadingAndBindingWorkspace = false;
 
@@ -2719,9 +2955,7 @@ public class LauncherModel extends BroadcastReceiver
                 }
             };
             if (isLoadingSynchronously) {
-                synchronized (mDeferredBindRunnables) {
-                    mDeferredBindRunnables.add(r);
-                }
+                deferBind(mDeferredBindRunnables, r);
             } else {
                 runOnMainThread(r);
             }
@@ -2731,7 +2965,9 @@ public class LauncherModel extends BroadcastReceiver
             if (DEBUG_LOADERS) {Log.d(TAG, "loadAndBindAllApps mAllAppsLoaded=" + mAllAppsLoaded);}
             if (!mAllAppsLoaded) {
                 //加载所有app
+                int traceToken = StartupTrace.begin(StartupTrace.LOAD_ALL_APPS);
                 loadAllApps();
+                StartupTrace.end(traceToken);
 
                 synchronized (LoaderTask.this) {
                     if (mStopped) {
@@ -2739,7 +2975,9 @@ public class LauncherModel extends BroadcastReceiver
                     }
                 }
 
+                traceToken = StartupTrace.begin(StartupTrace.UPDATE_ICON_CACHE);
                 updateIconCache();
+                StartupTrace.end(traceToken);
 
                 synchronized (LoaderTask.this) {
                     if (mStopped) {
@@ -2806,7 +3044,7 @@ public class LauncherModel extends BroadcastReceiver
             if (isRunningOnMainThread) {
                 r.run();
             } else {
-                mHandler.post(r);
+                mHandler.post(r, QueueStats.TYPE_BIND);
             }
         }
 
@@ -2892,7 +3130,7 @@ public class LauncherModel extends BroadcastReceiver
                         Log.i(TAG, "not binding apps: no Launcher activity");
                     }
                 }
-            });
+            }, QueueStats.TYPE_BIND);
             // Cleanup any data stored for a deleted user.
             ManagedProfileHeuristic.processAllUsers(profiles, mContext);
 
@@ -2916,7 +3154,19 @@ public class LauncherModel extends BroadcastReceiver
     /**
      * Called when the icons for packages have been updated in the icon cache.
      */
-    public void onPackageIconsUpdated(HashSet<String> updatedPackages, UserHandleCompat user) {
+    public void onPackageIconsUpdated(HashSet<String> updatedPackages,
+            final UserHandleCompat user) {
+        // Icon updates arrive on the icons queue, but the model is only changed on the worker.
+        final HashSet<String> packages = new HashSet<>(updatedPackages);
+        runOnWorkerThread(new Runnable() {
+            @Override
+            public void run() {
+                updatePackageIcons(packages, user);
+            }
+        });
+    }
+
+    @Thunk void updatePackageIcons(HashSet<String> updatedPackages, UserHandleCompat user) {
         final Callbacks callbacks = getCallback();
         final ArrayList<AppInfo> updatedApps = new ArrayList<>();
         final ArrayList<ShortcutInfo> updatedShortcuts = new ArrayList<>();
@@ -2949,7 +3199,7 @@ public class LauncherModel extends BroadcastReceiver
                                 new ArrayList<ShortcutInfo>(), userFinal);
                     }
                 }
-            });
+            }, QueueStats.TYPE_PACKAGE_UPDATE);
         }
 
         if (!updatedApps.isEmpty()) {
@@ -2961,7 +3211,7 @@ public class LauncherModel extends BroadcastReceiver
                         cb.bindAppsUpdated(updatedApps);
                     }
                 }
-            });
+            }, QueueStats.TYPE_PACKAGE_UPDATE);
         }
 
         // Reload widget list. No need to refresh, as we only want to update the icons and labels.
@@ -2969,7 +3219,7 @@ public class LauncherModel extends BroadcastReceiver
     }
 
     void enqueuePackageUpdated(PackageUpdatedTask task) {
-        sWorker.post(task);
+        sWorkerQueue.post(task, QueueStats.TYPE_PACKAGE_UPDATE);
     }
 
     @Thunk class AppsAvailabilityCheck extends BroadcastReceiver {
@@ -2991,10 +3241,10 @@ public class LauncherModel extends BroadcastReceiver
                             boolean packageOnSdcard = launcherApps.isAppEnabled(
                                     manager, pkg, PackageManager.GET_UNINSTALLED_PACKAGES);
                             if (packageOnSdcard) {
-                                Launcher.addDumpLog(TAG, "Package found on sd-card: " + pkg, true);
+                                Launcher.addDumpLog(TAG, "Package found on sd-card: %s", pkg, true);
                                 packagesUnavailable.add(pkg);
                             } else {
-                                Launcher.addDumpLog(TAG, "Package not found: " + pkg, true);
+                                Launcher.addDumpLog(TAG, "Package not found: %s", pkg, true);
                                 packagesRemoved.add(pkg);
                             }
                         }
@@ -3036,6 +3286,17 @@ public class LauncherModel extends BroadcastReceiver
                 // Loader has not yet run.
                 return;
             }
+            // The update writes to the db inline, apply the writes queued by the UI first and
+            // hold back the later ones until it is done, so that the writes stay in order.
+            final WorkerQueue.Barrier barrier = sPersistenceQueue.block();
+            try {
+                applyUpdate();
+            } finally {
+                barrier.release();
+            }
+        }
+
+        private void applyUpdate() {
             final Context context = mApp.getContext();
 
             final String[] packages = mPackages;
@@ -3128,7 +3389,7 @@ public class LauncherModel extends BroadcastReceiver
                             callbacks.bindAppsUpdated(modifiedFinal);
                         }
                     }
-                });
+                }, QueueStats.TYPE_PACKAGE_UPDATE);
             }
 
             // Update shortcut infos
@@ -3251,7 +3512,7 @@ public class LauncherModel extends BroadcastReceiver
                                         updatedShortcuts, removedShortcuts, mUser);
                             }
                         }
-                    });
+                    }, QueueStats.TYPE_PACKAGE_UPDATE);
                     if (!removedShortcuts.isEmpty()) {
                         deleteItemsFromDatabase(context, removedShortcuts);
                     }
@@ -3264,7 +3525,7 @@ public class LauncherModel extends BroadcastReceiver
                                 callbacks.bindWidgetsRestored(widgets);
                             }
                         }
-                    });
+                    }, QueueStats.TYPE_PACKAGE_UPDATE);
                 }
             }
 
@@ -3310,7 +3571,7 @@ public class LauncherModel extends BroadcastReceiver
                                     removedPackageNames, removedApps, mUser, removeReason);
                         }
                     }
-                });
+                }, QueueStats.TYPE_PACKAGE_UPDATE);
             }
 
             // Update widgets
@@ -3319,15 +3580,15 @@ public class LauncherModel extends BroadcastReceiver
                 boolean needToRefresh = !mUser.equals(UserHandleCompat.myUserHandle());
 
                 // Refresh widget list, if the package already had a widget.
-                synchronized (sBgLock) {
-                    if (sBgWidgetProviders != null) {
-                        HashSet<String> pkgSet = new HashSet<>();
-                        Collections.addAll(pkgSet, mPackages);
+                final Map<ComponentKey, LauncherAppWidgetProviderInfo> widgetProviders =
+                        sBgWidgetProviders;
+                if (widgetProviders != null) {
+                    HashSet<String> pkgSet = new HashSet<>();
+                    Collections.addAll(pkgSet, mPackages);
 
-                        for (ComponentKey key : sBgWidgetProviders.keySet()) {
-                            needToRefresh |= key.user.equals(mUser) &&
-                                    pkgSet.contains(key.componentName.getPackageName());
-                        }
+                    for (ComponentKey key : widgetProviders.keySet()) {
+                        needToRefresh |= key.user.equals(mUser) &&
+                                pkgSet.contains(key.componentName.getPackageName());
                     }
                 }
 
@@ -3352,7 +3613,7 @@ public class LauncherModel extends BroadcastReceiver
                         callbacks.dumpLogsToLocalData();
                     }
                 }
-            });
+            }, QueueStats.TYPE_PACKAGE_UPDATE);
         }
     }
 
@@ -3361,45 +3622,45 @@ public class LauncherModel extends BroadcastReceiver
         ArrayList<LauncherAppWidgetProviderInfo> results =
                 new ArrayList<LauncherAppWidgetProviderInfo>();
         try {
-            synchronized (sBgLock) {
-                if (sBgWidgetProviders == null || refresh) {
-                    HashMap<ComponentKey, LauncherAppWidgetProviderInfo> tmpWidgetProviders
-                            = new HashMap<>();
-                    AppWidgetManagerCompat wm = AppWidgetManagerCompat.getInstance(context);
-                    LauncherAppWidgetProviderInfo info;
-
-                    List<AppWidgetProviderInfo> widgets = wm.getAllProviders();
-                    for (AppWidgetProviderInfo pInfo : widgets) {
-                        info = LauncherAppWidgetProviderInfo.fromProviderInfo(context, pInfo);
-                        UserHandleCompat user = wm.getUser(info);
-                        tmpWidgetProviders.put(new ComponentKey(info.provider, user), info);
-                    }
-
-                    Collection<CustomAppWidget> customWidgets = Launcher.getCustomAppWidgets().values();
-                    for (CustomAppWidget widget : customWidgets) {
-                        info = new LauncherAppWidgetProviderInfo(context, widget);
-                        UserHandleCompat user = wm.getUser(info);
-                        tmpWidgetProviders.put(new ComponentKey(info.provider, user), info);
-                    }
-                    // Replace the global list at the very end, so that if there is an exception,
-                    // previously loaded provider list is used.
-                    sBgWidgetProviders = tmpWidgetProviders;
-                }
-                results.addAll(sBgWidgetProviders.values());
-                return results;
-            }
+            Map<ComponentKey, LauncherAppWidgetProviderInfo> widgetProviders = sBgWidgetProviders;
+            if (widgetProviders == null || refresh) {
+                HashMap<ComponentKey, LauncherAppWidgetProviderInfo> tmpWidgetProviders
+                        = new HashMap<>();
+                AppWidgetManagerCompat wm = AppWidgetManagerCompat.getInstance(context);
+                LauncherAppWidgetProviderInfo info;
+
+                List<AppWidgetProviderInfo> widgets = wm.getAllProviders();
+                for (AppWidgetProviderInfo pInfo : widgets) {
+                    info = LauncherAppWidgetProviderInfo.fromProviderInfo(context, pInfo);
+                    UserHandleCompat user = wm.getUser(info);
+                    tmpWidgetProviders.put(new ComponentKey(info.provider, user), info);
+                }
+
+                Collection<CustomAppWidget> customWidgets = Launcher.getCustomAppWidgets().values();
+                for (CustomAppWidget widget : customWidgets) {
+                    info = new LauncherAppWidgetProviderInfo(context, widget);
+                    UserHandleCompat user = wm.getUser(info);
+                    tmpWidgetProviders.put(new ComponentKey(info.provider, user), info);
+                }
+                // Replace the global list at the very end, so that if there is an exception,
+                // previously loaded provider list is used.
+                widgetProviders = Collections.unmodifiableMap(tmpWidgetProviders);
+                sBgWidgetProviders = widgetProviders;
+            }
+            results.addAll(widgetProviders.values());
+            return results;
         } catch (Exception e) {
             if (e.getCause() instanceof TransactionTooLargeException) {
                 // the returned value may be incomplete and will not be refreshed until the next
                 // time Launcher starts.
                 // TODO: after figuring out a repro step, introduce a dirty bit to check when
                 // onResume is called to refresh the widget provider list.
-                synchronized (sBgLock) {
-                    if (sBgWidgetProviders != null) {
-                        results.addAll(sBgWidgetProviders.values());
-                    }
-                    return results;
+                final Map<ComponentKey, LauncherAppWidgetProviderInfo> widgetProviders =
+                        sBgWidgetProviders;
+                if (widgetProviders != null) {
+                    results.addAll(widgetProviders.values());
                 }
+                return results;
             } else {
                 throw e;
             }
@@ -3408,17 +3669,18 @@ public class LauncherModel extends BroadcastReceiver
 
     public static LauncherAppWidgetProviderInfo getProviderInfo(Context ctx, ComponentName name,
             UserHandleCompat user) {
-        synchronized (sBgLock) {
-            if (sBgWidgetProviders == null) {
-                getWidgetProviders(ctx, false /* refresh */);
-            }
-            return sBgWidgetProviders.get(new ComponentKey(name, user));
+        if (sBgWidgetProviders == null) {
+            getWidgetProviders(ctx, false /* refresh */);
         }
+        final Map<ComponentKey, LauncherAppWidgetProviderInfo> widgetProviders =
+                sBgWidgetProviders;
+        return widgetProviders == null ? null
+                : widgetProviders.get(new ComponentKey(name, user));
     }
 
     public void loadAndBindWidgetsAndShortcuts(final Callbacks callbacks, final boolean refresh) {
 
-        runOnWorkerThread(new Runnable() {
+        sWidgetsQueue.execute(new Runnable() {
             @Override
             public void run() {
                 updateWidgetsModel(refresh);
@@ -3432,8 +3694,8 @@ public class LauncherModel extends BroadcastReceiver
                             callbacks.bindAllPackages(model);
                         }
                     }
-                });
-                // update the Widget entries inside DB on the worker thread.
+                }, QueueStats.TYPE_BIND);
+                // update the Widget entries inside DB on the widgets thread.
                 LauncherAppState.getInstance().getWidgetCache().removeObsoletePreviews(
                         model.getRawList());
             }
@@ -3655,6 +3917,7 @@ public class LauncherModel extends BroadcastReceiver
             info.usingFallbackIcon = true;
         }
         info.setIcon(icon);
+        info.iconBlobHash = iconInfo.getIconBlobHash(c);
         return info;
     }
 
@@ -3737,6 +4000,12 @@ public class LauncherModel extends BroadcastReceiver
         } else {
             Log.d(TAG, "mLoaderTask=null");
         }
+        sWorkerQueue.dumpState(TAG);
+        sPersistenceQueue.dumpState(TAG);
+        sWidgetsQueue.dumpState(TAG);
+        sIconsQueue.dumpState(TAG);
+        mHandler.getStats().dumpState(TAG);
+        sDeferredBindStats.dumpState(TAG);
     }
 
     public Callbacks getCallback() {
@@ -3747,9 +4016,7 @@ public class LauncherModel extends BroadcastReceiver
      * @return {@link FolderInfo} if its already loaded.
      */
     public FolderInfo findFolderById(Long folderId) {
-        synchronized (sBgLock) {
-            return sBgFolders.get(folderId);
-        }
+        return sBgSnapshot.folders.get(folderId);
     }
 
     /**
@@ -3758,4 +4025,18 @@ public class LauncherModel extends BroadcastReceiver
     public static Looper getWorkerLooper() {
         return sWorkerThread.getLooper();
     }
+
+    /**
+     * @return the looper for the queue which refreshes the widget list and widget previews.
+     */
+    public static Looper getWidgetsLooper() {
+        return sWidgetsQueue.getLooper();
+    }
+
+    /**
+     * @return the looper for the queue which loads and updates the icon cache.
+     */
+    public static Looper getIconsLooper() {
+        return sIconsQueue.getLooper();
+    }
 }
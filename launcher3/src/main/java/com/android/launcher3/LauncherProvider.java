@@ -929,11 +929,6 @@ public class LauncherProvider extends ContentProvider {
             return mMaxItemId;
         }
 
-        @Override
-        public long insertAndCheck(SQLiteDatabase db, ContentValues values) {
-            return dbInsertAndCheck(this, db, TABLE_FAVORITES, null, values);
-        }
-
         public void updateMaxItemId(long id) {
             mMaxItemId = id + 1;
         }
@@ -1056,30 +1051,37 @@ public class LauncherProvider extends ContentProvider {
         }
 
         @Thunk int loadFavorites(SQLiteDatabase db, AutoInstallsLayout loader) {
-            ArrayList<Long> screenIds = new ArrayList<Long>();
-            // TODO: Use multiple loaders with fall-back and transaction.
-            int count = loader.loadLayout(db, screenIds);
-
-            // Add the screens specified by the items above
-            Collections.sort(screenIds);
-            int rank = 0;
-            ContentValues values = new ContentValues();
-            for (Long id : screenIds) {
-                values.clear();
-                values.put(LauncherSettings.WorkspaceScreens._ID, id);
-                values.put(LauncherSettings.WorkspaceScreens.SCREEN_RANK, rank);
-                if (dbInsertAndCheck(this, db, TABLE_WORKSPACE_SCREENS, null, values) < 0) {
-                    throw new RuntimeException("Failed initialize screen table"
-                            + "from default layout");
+            // Parse the layout and load its icons before opening the transaction
+            LayoutPlan plan = loader.loadLayout();
+            if (plan == null) {
+                return -1;
+            }
+
+            // Add the items and the screens specified by them
+            boolean success = false;
+            db.beginTransaction();
+            try {
+                success = plan.insertInto(db);
+                if (success) {
+                    db.setTransactionSuccessful();
+                }
+            } catch (SQLException ex) {
+                Log.e(TAG, "Failed to insert default layout", ex);
+            } finally {
+                db.endTransaction();
+            }
+            if (!success) {
+                for (int appWidgetId : plan.getAppWidgetIds()) {
+                    mAppWidgetHost.deleteAppWidgetId(appWidgetId);
                 }
-                rank++;
+                return -1;
             }
 
             // Ensure that the max ids are initialized
             mMaxItemId = initializeMaxItemId(db);
             mMaxScreenId = initializeMaxScreenId(db);
 
-            return count;
+            return plan.getDesktopItemCount();
         }
 
         @Thunk void migrateLauncher2Shortcuts(SQLiteDatabase db, Uri uri) {
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+
+import com.android.gallery3d.common.Utils;
+import com.android.launcher3.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Stores parsed default layouts in a compact binary form, so that resetting the workspace to
+ * a layout which was already parsed replays its rows instead of parsing the XML, resolving its
+ * components and loading its icons again.
+ *
+ * Each layout is stored in its own file under a key which must change whenever parsing the
+ * layout could give a different result, see {@link AutoInstallsLayout#getCacheKey}, along with
+ * the versions of the packages and the components of the uris it was resolved against.
+ *
+ * The files are kept out of the cache dir, which the system can trim at any time, as the
+ * workspace is only reset every now and then: when the grid migration fails, when the db is
+ * downgraded or cannot be upgraded. Clearing the data also removes them, so the first load
+ * after a clear-data still parses the layout.
+ */
+public class LayoutCache {
+    private static final String TAG = "LayoutCache";
+
+    private static final String DIR_NAME = "layouts";
+    private static final int MAGIC = 0x4c594f54;
+    private static final int VERSION = 3;
+
+    private final File mDir;
+
+    public LayoutCache(Context context) {
+        mDir = new File(getFilesDir(context), DIR_NAME);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static File getFilesDir(Context context) {
+        // The layouts are device specific, keep them out of backups when possible
+        return Utilities.ATLEAST_LOLLIPOP ? context.getNoBackupFilesDir() : context.getFilesDir();
+    }
+
+    /**
+     * @return the plan saved for the key, or null if there is none.
+     */
+    public LayoutPlan read(String key) {
+        File file = getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals(in.readUTF())) {
+                // Stale file, or another key with the same hash
+                return null;
+            }
+            return LayoutPlan.readFrom(in);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read cached layout, exception: " + e);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to read cached layout, exception: " + e);
+        } finally {
+            Utils.closeSilently(in);
+        }
+        file.delete();
+        return null;
+    }
+
+    public void write(String key, LayoutPlan plan) {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.w(TAG, "Failed to create " + mDir);
+            return;
+        }
+        File file = getFile(key);
+        File temp = new File(mDir, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        boolean written = false;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+            plan.writeTo(out);
+            out.flush();
+            written = true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write cached layout, exception: " + e);
+        } finally {
+            Utils.closeSilently(out);
+        }
+        if (!written || !temp.renameTo(file)) {
+            temp.delete();
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(mDir, "layout_" + Integer.toHexString(key.hashCode()));
+    }
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.graphics.drawable.Drawable;
+
+import com.android.launcher3.AutoInstallsLayout.LayoutParserCallback;
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.LauncherSettings.WorkspaceScreens;
+import com.android.launcher3.util.Log;
+import com.android.launcher3.util.LongArrayMap;
+import com.android.launcher3.util.Thunk;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The rows of a parsed default layout, built by {@link AutoInstallsLayout} without touching the
+ * db. Shortcut icons are loaded in parallel once the whole layout is parsed, after which all the
+ * favorites and workspace screens are inserted in a single transaction.
+ *
+ * A plan can also be serialized, see {@link LayoutCache}.
+ */
+public class LayoutPlan {
+    private static final String TAG = "LayoutPlan";
+
+    private static final int MAX_ICON_THREADS = 4;
+    private static final long ICON_TIMEOUT_SECONDS = 10;
+
+    // Column value types in the serialized form
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_LONG = 1;
+    private static final int TYPE_DOUBLE = 2;
+    private static final int TYPE_STRING = 3;
+    private static final int TYPE_BLOB = 4;
+
+    private final LongArrayMap<ContentValues> mItems = new LongArrayMap<>();
+    private final ArrayList<PendingIcon> mPendingIcons = new ArrayList<>();
+    private final ArrayList<Long> mScreenIds = new ArrayList<>();
+    // Versions of the packages the layout was resolved against, null if not installed
+    private final HashMap<String, String> mPackageVersions = new HashMap<>();
+    // Components the uri favorites resolved to, null if none
+    private final HashMap<String, String> mResolvedUris = new HashMap<>();
+
+    private int mDesktopItemCount;
+    private boolean mCacheable = true;
+
+    /**
+     * Adds a copy of the given favorites row, which must contain its id.
+     * @return the id of the row.
+     */
+    public long add(ContentValues values) {
+        long id = values.getAsLong(Favorites._ID);
+        mItems.put(id, new ContentValues(values));
+        return id;
+    }
+
+    public ContentValues get(long id) {
+        return mItems.get(id);
+    }
+
+    public void update(long id, ContentValues values) {
+        ContentValues row = mItems.get(id);
+        if (row != null) {
+            row.putAll(values);
+        }
+    }
+
+    public void remove(long id) {
+        mItems.remove(id);
+        for (int i = mPendingIcons.size() - 1; i >= 0; i--) {
+            if (mPendingIcons.get(i).mId == id) {
+                mPendingIcons.remove(i);
+            }
+        }
+    }
+
+    public int size() {
+        return mItems.size();
+    }
+
+    public Iterable<ContentValues> getItems() {
+        return mItems;
+    }
+
+    /**
+     * Whether the plan can be saved and replayed later, which is not the case when adding the
+     * layout has side effects beyond the rows, like configuring widgets.
+     */
+    public boolean isCacheable() {
+        return mCacheable;
+    }
+
+    public void setNotCacheable() {
+        mCacheable = false;
+    }
+
+    /**
+     * Records the version the package had when the layout was parsed, or null if it was not
+     * installed.
+     */
+    public void addPackageVersion(String packageName, String version) {
+        if (!mPackageVersions.containsKey(packageName)) {
+            mPackageVersions.put(packageName, version);
+        }
+    }
+
+    public HashMap<String, String> getPackageVersions() {
+        return mPackageVersions;
+    }
+
+    /**
+     * Records the component a uri favorite resolved to, or null if it resolved to none.
+     */
+    public void addResolvedUri(String uri, String component) {
+        mResolvedUris.put(uri, component);
+    }
+
+    public HashMap<String, String> getResolvedUris() {
+        return mResolvedUris;
+    }
+
+    /**
+     * Gives all the rows new ids from the callback, updating the items inside folders.
+     */
+    public void reassignIds(LayoutParserCallback callback) {
+        LongArrayMap<Long> newIds = new LongArrayMap<>();
+        LongArrayMap<ContentValues> items = mItems.clone();
+        mItems.clear();
+        for (ContentValues row : items) {
+            long id = callback.generateNewItemId();
+            newIds.put(row.getAsLong(Favorites._ID), id);
+            row.put(Favorites._ID, id);
+            mItems.put(id, row);
+        }
+        for (ContentValues row : mItems) {
+            Long container = row.getAsLong(Favorites.CONTAINER);
+            Long newContainer = container == null ? null : newIds.get(container);
+            if (newContainer != null) {
+                row.put(Favorites.CONTAINER, newContainer);
+            }
+        }
+    }
+
+    /**
+     * Schedules the icon bitmap of the given row to be rendered from the drawable by
+     * {@link #loadIcons}.
+     */
+    public void loadIconLater(long id, Drawable icon) {
+        mPendingIcons.add(new PendingIcon(id, icon));
+    }
+
+    /**
+     * The ids of the desktop screens used by the layout, in the order they were found.
+     */
+    public ArrayList<Long> getScreenIds() {
+        return mScreenIds;
+    }
+
+    public int getDesktopItemCount() {
+        return mDesktopItemCount;
+    }
+
+    public void setDesktopItemCount(int count) {
+        mDesktopItemCount = count;
+    }
+
+    /**
+     * Renders and compresses all the pending icons on a small thread pool. Rows whose icon
+     * cannot be rendered keep their icon resource, which the model resolves again when binding.
+     */
+    public void loadIcons(final Context context) {
+        if (mPendingIcons.isEmpty()) {
+            return;
+        }
+        int threads = Math.min(mPendingIcons.size(),
+                Math.min(MAX_ICON_THREADS, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (final PendingIcon icon : mPendingIcons) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    icon.load(context);
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(ICON_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                Log.w(TAG, "Timed out loading layout icons");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        // Loads which timed out may still be running, only copy the icons which are done
+        for (PendingIcon icon : mPendingIcons) {
+            byte[] data = icon.mResult;
+            ContentValues row = mItems.get(icon.mId);
+            if (data != null && row != null) {
+                row.put(Favorites.ICON, data);
+            }
+        }
+        mPendingIcons.clear();
+    }
+
+    /**
+     * Inserts all the favorites and the screens they are on, ranked by id. Must be called
+     * inside a transaction.
+     *
+     * @return false if any row could not be inserted.
+     */
+    public boolean insertInto(SQLiteDatabase db) {
+        // Rows of the same kind share their columns, so there are only a handful of statements
+        HashMap<String, InsertStatement> statements = new HashMap<>();
+        try {
+            for (ContentValues row : mItems) {
+                ArrayList<String> columns = new ArrayList<>(row.keySet());
+                Collections.sort(columns);
+                String key = columns.toString();
+                InsertStatement statement = statements.get(key);
+                if (statement == null) {
+                    statement = new InsertStatement(db, LauncherProvider.TABLE_FAVORITES,
+                            columns);
+                    statements.put(key, statement);
+                }
+                if (statement.insert(row) < 0) {
+                    return false;
+                }
+            }
+
+            ArrayList<Long> screenIds = new ArrayList<>(mScreenIds);
+            Collections.sort(screenIds);
+            ArrayList<String> screenColumns = new ArrayList<>();
+            screenColumns.add(WorkspaceScreens._ID);
+            screenColumns.add(WorkspaceScreens.SCREEN_RANK);
+            InsertStatement screens = new InsertStatement(db,
+                    LauncherProvider.TABLE_WORKSPACE_SCREENS, screenColumns);
+            statements.put(LauncherProvider.TABLE_WORKSPACE_SCREENS, screens);
+            ContentValues values = new ContentValues();
+            for (int rank = 0; rank < screenIds.size(); rank++) {
+                values.put(WorkspaceScreens._ID, screenIds.get(rank));
+                values.put(WorkspaceScreens.SCREEN_RANK, rank);
+                if (screens.insert(values) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            for (InsertStatement statement : statements.values()) {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the app widget ids bound by the layout, so that they can be released if the
+     * layout is not saved.
+     */
+    public ArrayList<Integer> getAppWidgetIds() {
+        ArrayList<Integer> ids = new ArrayList<>();
+        for (ContentValues row : mItems) {
+            Integer id = row.getAsInteger(Favorites.APPWIDGET_ID);
+            if (id != null && id > 0) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Writes the rows and screens of the plan. Pending icons are not written, so they should
+     * be loaded first.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(mDesktopItemCount);
+        out.writeInt(mScreenIds.size());
+        for (long screenId : mScreenIds) {
+            out.writeLong(screenId);
+        }
+        out.writeInt(mItems.size());
+        for (ContentValues row : mItems) {
+            out.writeInt(row.size());
+            for (String column : row.keySet()) {
+                out.writeUTF(column);
+                writeValue(out, row.get(column));
+            }
+        }
+        writeStrings(out, mPackageVersions);
+        writeStrings(out, mResolvedUris);
+    }
+
+    public static LayoutPlan readFrom(DataInputStream in) throws IOException {
+        LayoutPlan plan = new LayoutPlan();
+        plan.mDesktopItemCount = in.readInt();
+        int screenCount = in.readInt();
+        for (int i = 0; i < screenCount; i++) {
+            plan.mScreenIds.add(in.readLong());
+        }
+        int itemCount = in.readInt();
+        for (int i = 0; i < itemCount; i++) {
+            int columnCount = in.readInt();
+            ContentValues row = new ContentValues(columnCount);
+            for (int j = 0; j < columnCount; j++) {
+                readValue(in, row, in.readUTF());
+            }
+            if (!row.containsKey(Favorites._ID)) {
+                throw new IOException("Row without an id");
+            }
+            plan.add(row);
+        }
+        readStrings(in, plan.mPackageVersions);
+        readStrings(in, plan.mResolvedUris);
+        return plan;
+    }
+
+    private static void writeStrings(DataOutputStream out, HashMap<String, String> map)
+            throws IOException {
+        out.writeInt(map.size());
+        for (String key : map.keySet()) {
+            out.writeUTF(key);
+            writeValue(out, map.get(key));
+        }
+    }
+
+    private static void readStrings(DataInputStream in, HashMap<String, String> map)
+            throws IOException {
+        int count = in.readInt();
+        ContentValues values = new ContentValues(count);
+        for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            readValue(in, values, key);
+            map.put(key, values.getAsString(key));
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof byte[]) {
+            byte[] data = (byte[]) value;
+            out.writeByte(TYPE_BLOB);
+            out.writeInt(data.length);
+            out.write(data);
+        } else if (value instanceof Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong(((Number) value).longValue());
+        } else if (value instanceof Float || value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Boolean) value ? 1 : 0);
+        } else {
+            out.writeByte(TYPE_STRING);
+            out.writeUTF(value.toString());
+        }
+    }
+
+    private static void readValue(DataInputStream in, ContentValues row, String column)
+            throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                row.putNull(column);
+                break;
+            case TYPE_LONG:
+                row.put(column, in.readLong());
+                break;
+            case TYPE_DOUBLE:
+                row.put(column, in.readDouble());
+                break;
+            case TYPE_STRING:
+                row.put(column, in.readUTF());
+                break;
+            case TYPE_BLOB:
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                row.put(column, data);
+                break;
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    private static class PendingIcon {
+        @Thunk final long mId;
+        private final Drawable mIcon;
+        // The flattened icon, set by the loading thread
+        @Thunk volatile byte[] mResult;
+
+        PendingIcon(long id, Drawable icon) {
+            mId = id;
+            mIcon = icon;
+        }
+
+        void load(Context context) {
+            try {
+                mResult = Utilities.flattenBitmap(Utilities.createIconBitmap(mIcon, context));
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Unable to render layout icon for " + mId + ", exception: " + e);
+            }
+        }
+    }
+
+    /**
+     * A compiled insert of a fixed set of columns.
+     */
+    private static class InsertStatement {
+        private final SQLiteStatement mStatement;
+        private final ArrayList<String> mColumns;
+
+        InsertStatement(SQLiteDatabase db, String table, ArrayList<String> columns) {
+            mColumns = columns;
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+            StringBuilder args = new StringBuilder();
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) {
+                    sql.append(',');
+                    args.append(',');
+                }
+                sql.append(columns.get(i));
+                args.append('?');
+            }
+            sql.append(") VALUES (").append(args).append(')');
+            mStatement = db.compileStatement(sql.toString());
+        }
+
+        long insert(ContentValues values) {
+            mStatement.clearBindings();
+            for (int i = 0; i < mColumns.size(); i++) {
+                bind(i + 1, values.get(mColumns.get(i)));
+            }
+            return mStatement.executeInsert();
+        }
+
+        private void bind(int index, Object value) {
+            if (value == null) {
+                mStatement.bindNull(index);
+            } else if (value instanceof byte[]) {
+                mStatement.bindBlob(index, (byte[]) value);
+            } else if (value instanceof Long || value instanceof Integer
+                    || value instanceof Short || value instanceof Byte) {
+                mStatement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof Float || value instanceof Double) {
+                mStatement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Boolean) {
+                mStatement.bindLong(index, (Boolean) value ? 1 : 0);
+            } else {
+                mStatement.bindString(index, value.toString());
+            }
+        }
+
+        void close() {
+            mStatement.close();
+        }
+    }
+}
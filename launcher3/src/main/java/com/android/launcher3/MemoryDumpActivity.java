@@ -111,6 +111,11 @@ public class MemoryDumpActivity extends Activity {
             }
         }
 
+        body.append("\nSubsystems of pid ").append(myPid).append(":\n");
+        for (MemoryTracker.SubsystemMemInfo info : tracker.getSubsystemMemInfos()) {
+            body.append(info).append("\n");
+        }
+
         String zipfile = zipUp(paths);
 
         if (zipfile == null) return;
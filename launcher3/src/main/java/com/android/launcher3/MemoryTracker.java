@@ -25,8 +25,14 @@ import com.android.launcher3.util.Log;
 import android.util.LongSparseArray;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Tracks the memory of the launcher processes, and the bytes held by the main subsystems of
+ * this process, like caches of bitmaps, as reported by their {@link MemoryReporter}.
+ */
 public class MemoryTracker extends Service {
     public static final String TAG = MemoryTracker.class.getSimpleName();
     public static final String ACTION_START_TRACKING = "com.android.launcher3.action.START_TRACKING";
@@ -56,9 +62,59 @@ public class MemoryTracker extends Service {
             return System.currentTimeMillis() - startTime;
         }
     };
+
+    /**
+     * Reports the memory held by a subsystem. Called on the main thread.
+     */
+    public interface MemoryReporter {
+        /** Returns the number of bytes held by the subsystem, mostly in bitmaps. */
+        long getMemoryBytes();
+        /** Returns the number of objects, like cache entries or bitmaps, holding the bytes. */
+        int getMemoryObjectCount();
+    }
+
+    public static class SubsystemMemInfo {
+        public final String name;
+        public long currentBytes;
+        public int currentCount;
+        public long[] bytes = new long[256];
+        public long max = 1;
+        public int head = 0;
+        public SubsystemMemInfo(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + (currentBytes / 1024) + "K in " + currentCount
+                    + " (max " + (max / 1024) + "K)";
+        }
+    }
+
+    // Reporters of this process by subsystem name
+    private static final LinkedHashMap<String, MemoryReporter> sReporters = new LinkedHashMap<>();
+
+    /**
+     * Starts accounting for the memory of a subsystem, replacing its previous reporter if any.
+     */
+    public static void registerReporter(String name, MemoryReporter reporter) {
+        synchronized (sReporters) {
+            sReporters.put(name, reporter);
+        }
+    }
+
+    public static void unregisterReporter(String name, MemoryReporter reporter) {
+        synchronized (sReporters) {
+            if (sReporters.get(name) == reporter) {
+                sReporters.remove(name);
+            }
+        }
+    }
+
     public final LongSparseArray<ProcessMemInfo> mData = new LongSparseArray<ProcessMemInfo>();
     public final ArrayList<Long> mPids = new ArrayList<Long>();
     private int[] mPidsArray = new int[0];
+    private final LinkedHashMap<String, SubsystemMemInfo> mSubsystems = new LinkedHashMap<>();
     private final Object mLock = new Object();
 
     Handler mHandler = new Handler() {
@@ -99,6 +155,15 @@ public class MemoryTracker extends Service {
         return mPidsArray;
     }
 
+    /**
+     * Returns the memory of the subsystems of this process, in registration order.
+     */
+    public ArrayList<SubsystemMemInfo> getSubsystemMemInfos() {
+        synchronized (mLock) {
+            return new ArrayList<>(mSubsystems.values());
+        }
+    }
+
     public void startTrackingProcess(int pid, String name, long start) {
         synchronized (mLock) {
             final Long lpid = Long.valueOf(pid);
@@ -153,6 +218,24 @@ public class MemoryTracker extends Service {
                     updatePidsArrayL();
                 }
             }
+            updateSubsystemsL();
+        }
+    }
+
+    void updateSubsystemsL() {
+        synchronized (sReporters) {
+            for (Map.Entry<String, MemoryReporter> entry : sReporters.entrySet()) {
+                final MemoryReporter reporter = entry.getValue();
+                SubsystemMemInfo info = mSubsystems.get(entry.getKey());
+                if (info == null) {
+                    info = new SubsystemMemInfo(entry.getKey());
+                    mSubsystems.put(entry.getKey(), info);
+                }
+                info.head = (info.head+1) % info.bytes.length;
+                info.bytes[info.head] = info.currentBytes = reporter.getMemoryBytes();
+                info.currentCount = reporter.getMemoryObjectCount();
+                if (info.currentBytes > info.max) info.max = info.currentBytes;
+            }
         }
     }
 
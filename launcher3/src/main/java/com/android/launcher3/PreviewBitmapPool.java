@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.SparseArray;
+
+import com.android.launcher3.util.Log;
+import com.android.photos.BitmapRegionTileSource.BitmapSource.InBitmapProvider;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+/**
+ * Pool of mutable ARGB_8888 wallpaper preview bitmaps, which the next preview is decoded into
+ * instead of allocating a new multi-megabyte bitmap each time another wallpaper is selected.
+ *
+ * Bitmaps are bucketed by the power of two of their allocation size. Since KitKat a preview
+ * can be decoded into any bitmap with a large enough allocation; before that only into a
+ * bitmap of the exact same size, and only without sub-sampling.
+ *
+ * Safe to use from the loader and main threads.
+ */
+public class PreviewBitmapPool implements InBitmapProvider {
+
+    private static final int MAX_BITMAPS = 4;
+
+    // Pooled bitmaps by size bucket, and all of them from the oldest. Guarded by this.
+    private final SparseArray<ArrayList<Bitmap>> mBuckets = new SparseArray<>();
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<>();
+
+    // Stats, guarded by this
+    private int mRequestCount;
+    private int mHitCount;
+    private int mFailureCount;
+    private int mEvictionCount;
+
+    @Override
+    public synchronized Bitmap forSize(int width, int height, int sampleSize) {
+        mRequestCount++;
+        Bitmap bitmap = Utilities.ATLEAST_KITKAT
+                ? findLargeEnough(4 * width * height)
+                : (sampleSize == 1 ? findExact(width, height) : null);
+        if (bitmap != null) {
+            remove(bitmap);
+            mHitCount++;
+        }
+        return bitmap;
+    }
+
+    @Override
+    public synchronized void onReuseFailed(Bitmap bitmap) {
+        mHitCount--;
+        mFailureCount++;
+        // It may still fit another preview
+        add(bitmap);
+    }
+
+    /**
+     * Adds a preview bitmap which is no longer displayed to the pool, evicting the oldest
+     * bitmap if the pool is full.
+     */
+    public synchronized void add(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getConfig() != Bitmap.Config.ARGB_8888
+                || mBitmaps.contains(bitmap)) {
+            return;
+        }
+        if (mBitmaps.size() >= MAX_BITMAPS) {
+            remove(mBitmaps.getFirst());
+            mEvictionCount++;
+        }
+        int bucket = getBucket(getAllocationByteCount(bitmap));
+        ArrayList<Bitmap> bitmaps = mBuckets.get(bucket);
+        if (bitmaps == null) {
+            bitmaps = new ArrayList<>(MAX_BITMAPS);
+            mBuckets.put(bucket, bitmaps);
+        }
+        bitmaps.add(bitmap);
+        mBitmaps.add(bitmap);
+    }
+
+    public synchronized void clear() {
+        mBuckets.clear();
+        mBitmaps.clear();
+    }
+
+    public synchronized void dumpStats(String tag) {
+        long pooledBytes = 0;
+        for (Bitmap b : mBitmaps) {
+            pooledBytes += getAllocationByteCount(b);
+        }
+        Log.d(tag, "PreviewBitmapPool: requests=" + mRequestCount
+                + " reused=" + mHitCount
+                + " (" + (mRequestCount == 0 ? 0 : 100 * mHitCount / mRequestCount) + "%)"
+                + " failed=" + mFailureCount + " evicted=" + mEvictionCount
+                + " pooled=" + mBitmaps.size() + " (" + (pooledBytes / 1024) + "KB)");
+    }
+
+    /**
+     * Returns the smallest bitmap with at least the given allocation size.
+     */
+    private Bitmap findLargeEnough(int byteCount) {
+        int firstBucket = getBucket(byteCount);
+        for (int i = 0; i < mBuckets.size(); i++) {
+            if (mBuckets.keyAt(i) < firstBucket) {
+                continue;
+            }
+            Bitmap best = null;
+            for (Bitmap b : mBuckets.valueAt(i)) {
+                int size = getAllocationByteCount(b);
+                if (size >= byteCount && (best == null || size < getAllocationByteCount(best))) {
+                    best = b;
+                }
+            }
+            if (best != null) {
+                return best;
+            }
+        }
+        return null;
+    }
+
+    private Bitmap findExact(int width, int height) {
+        ArrayList<Bitmap> bitmaps = mBuckets.get(getBucket(4 * width * height));
+        if (bitmaps != null) {
+            for (Bitmap b : bitmaps) {
+                if (b.getWidth() == width && b.getHeight() == height) {
+                    return b;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void remove(Bitmap bitmap) {
+        mBitmaps.remove(bitmap);
+        int bucket = getBucket(getAllocationByteCount(bitmap));
+        ArrayList<Bitmap> bitmaps = mBuckets.get(bucket);
+        if (bitmaps != null) {
+            bitmaps.remove(bitmap);
+            if (bitmaps.isEmpty()) {
+                mBuckets.remove(bucket);
+            }
+        }
+    }
+
+    private static int getBucket(int byteCount) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(0, byteCount - 1));
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static int getAllocationByteCount(Bitmap bitmap) {
+        return Utilities.ATLEAST_KITKAT ? bitmap.getAllocationByteCount() : bitmap.getByteCount();
+    }
+}
@@ -22,9 +22,6 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
 import com.android.launcher3.util.Log;
 import android.util.Pair;
 import android.view.LayoutInflater;
@@ -34,8 +31,10 @@ import android.widget.BaseAdapter;
 import android.widget.ListAdapter;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 
 
@@ -45,11 +44,12 @@ public class SavedWallpaperImages extends BaseAdapter implements ListAdapter {
     ArrayList<SavedWallpaperTile> mImages;
     Context mContext;
     LayoutInflater mLayoutInflater;
+    private final WallpaperThumbnailLoader mThumbnailLoader;
 
     public static class SavedWallpaperTile extends WallpaperPickerActivity.FileWallpaperInfo {
         private int mDbId;
-        public SavedWallpaperTile(int dbId, File target, Drawable thumb) {
-            super(target, thumb);
+        public SavedWallpaperTile(int dbId, File target, File thumbFile) {
+            super(target, thumbFile);
             mDbId = dbId;
         }
 
@@ -59,13 +59,14 @@ public class SavedWallpaperImages extends BaseAdapter implements ListAdapter {
         }
     }
 
-    public SavedWallpaperImages(Context context) {
+    public SavedWallpaperImages(Context context, WallpaperThumbnailLoader thumbnailLoader) {
         // We used to store the saved images in the cache directory, but that meant they'd get
         // deleted sometimes-- move them to the data directory
         ImageDb.moveFromCacheDirectoryIfNecessary(context);
         mDb = new ImageDb(context);
         mContext = context;
         mLayoutInflater = LayoutInflater.from(context);
+        mThumbnailLoader = thumbnailLoader;
     }
 
     public void loadThumbnailsAndImageIdList() {
@@ -86,11 +87,10 @@ public class SavedWallpaperImages extends BaseAdapter implements ListAdapter {
             String filename = result.getString(1);
             File file = new File(mContext.getFilesDir(), filename);
 
-            Bitmap thumb = BitmapFactory.decodeFile(file.getAbsolutePath());
-            if (thumb != null) {
+            // The thumbnail itself is decoded in the background when the tile is bound
+            if (file.isFile()) {
                 mImages.add(new SavedWallpaperTile(result.getInt(0),
-                        new File(mContext.getFilesDir(), result.getString(2)),
-                        new BitmapDrawable(thumb)));
+                        new File(mContext.getFilesDir(), result.getString(2)), file));
             }
         }
         result.close();
@@ -109,12 +109,8 @@ public class SavedWallpaperImages extends BaseAdapter implements ListAdapter {
     }
 
     public View getView(int position, View convertView, ViewGroup parent) {
-        Drawable thumbDrawable = mImages.get(position).mThumb;
-        if (thumbDrawable == null) {
-            Log.e(TAG, "Error decoding thumbnail for wallpaper #" + position);
-        }
-        return WallpaperPickerActivity.createImageTileView(
-                mLayoutInflater, convertView, parent, thumbDrawable);
+        return WallpaperPickerActivity.createImageTileView(mLayoutInflater, convertView, parent,
+                mImages.get(position).mThumbFile, mThumbnailLoader);
     }
 
     private Pair<String, String> getImageFilenames(int id) {
@@ -153,13 +149,15 @@ public class SavedWallpaperImages extends BaseAdapter implements ListAdapter {
                 });
     }
 
-    public void writeImage(Bitmap thumbnail, byte[] imageBytes) {
+    /**
+     * Saves the image by moving the given file into the files directory.
+     */
+    public void writeImage(Bitmap thumbnail, File image) {
         try {
             File imageFile = File.createTempFile("wallpaper", "", mContext.getFilesDir());
-            FileOutputStream imageFileStream =
-                    mContext.openFileOutput(imageFile.getName(), Context.MODE_PRIVATE);
-            imageFileStream.write(imageBytes);
-            imageFileStream.close();
+            if (!image.renameTo(imageFile)) {
+                copyFile(image, imageFile);
+            }
 
             File thumbFile = File.createTempFile("wallpaperthumb", "", mContext.getFilesDir());
             FileOutputStream thumbFileStream =
@@ -177,6 +175,22 @@ public class SavedWallpaperImages extends BaseAdapter implements ListAdapter {
         }
     }
 
+    private static void copyFile(File from, File to) throws IOException {
+        FileInputStream in = new FileInputStream(from);
+        FileOutputStream out = new FileOutputStream(to);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, out.getChannel());
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
     static class ImageDb extends SQLiteOpenHelper {
         final static int DB_VERSION = 1;
         final static String TABLE_NAME = "saved_wallpaper_images";
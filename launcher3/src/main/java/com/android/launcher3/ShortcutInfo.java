@@ -97,6 +97,12 @@ public class ShortcutInfo extends ItemInfo {
      */
     public Intent.ShortcutIconResource iconResource;
 
+    /**
+     * Hash of the icon blob last read from or written to the db, used to detect icon changes in
+     * the db without decoding the blob.
+     */
+    public int iconBlobHash;
+
     /**
      * The application icon.
      */
@@ -171,6 +177,7 @@ public class ShortcutInfo extends ItemInfo {
         }
         mIcon = info.mIcon; // TODO: should make a copy here.  maybe we don't need this ctor at all
         customIcon = info.customIcon;
+        iconBlobHash = info.iconBlobHash;
         flags = info.flags;
         firstInstallTime = info.firstInstallTime;
         user = info.user;
@@ -238,6 +245,8 @@ public class ShortcutInfo extends ItemInfo {
                         iconResource.resourceName);
             }
         }
+        iconBlobHash = Arrays.hashCode(
+                values.getAsByteArray(LauncherSettings.BaseLauncherColumns.ICON));
     }
 
     @Override
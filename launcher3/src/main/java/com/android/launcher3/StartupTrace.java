@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Records the timing of the steps of a launcher start, from the creation of the activity to
+ * the end of the workspace binding, so that cold and warm starts can be compared across
+ * releases. A new trace is started every time the activity is created, and is printed by
+ * {@link Launcher#dump}.
+ *
+ * Spans are stored with monotonic timestamps in preallocated arrays. Synchronous spans, which
+ * end on the thread they began on, also show up as sections in systrace.
+ */
+public class StartupTrace {
+
+    public static final int ON_CREATE = 0;
+    public static final int ON_RESUME = 1;
+    public static final int BIND_ON_RESUME = 2;
+    public static final int LOAD_WORKSPACE = 3;
+    public static final int BIND_WORKSPACE = 4;
+    public static final int BIND_CURRENT_PAGE = 5;
+    public static final int BIND_OTHER_PAGES = 6;
+    public static final int FIRST_FRAME = 7;
+    public static final int LOAD_ALL_APPS = 8;
+    public static final int UPDATE_ICON_CACHE = 9;
+
+    private static final String[] NAMES = {
+            "onCreate",
+            "onResume",
+            "bindOnResume",
+            "loadWorkspace",
+            "bindWorkspace",
+            "bindCurrentPage",
+            "bindOtherPages",
+            "firstFrame",
+            "loadAllApps",
+            "updateIconCache",
+    };
+
+    private static final int CAPACITY = 64;
+    private static final int NO_ARG = -1;
+
+    // All guarded by the class
+    private static final int[] sSpans = new int[CAPACITY];
+    private static final int[] sArgs = new int[CAPACITY];
+    private static final long[] sStartNanos = new long[CAPACITY];
+    private static final long[] sEndNanos = new long[CAPACITY];
+    private static int sCount;
+    private static int sTraceCount;
+    private static long sTraceStartNanos;
+
+    /**
+     * Starts a new trace, dropping the previous one.
+     */
+    public static synchronized void startTrace() {
+        sCount = 0;
+        sTraceCount++;
+        sTraceStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Begins a span which ends on the same thread.
+     * @return the token to pass to {@link #end}.
+     */
+    public static int begin(int span) {
+        beginSection(NAMES[span]);
+        return beginAsync(span, NO_ARG);
+    }
+
+    public static void end(int token) {
+        endAsync(token);
+        endSection();
+    }
+
+    /**
+     * Begins a span which may end on another thread.
+     * @param arg an optional argument printed with the span, like a page index, or -1.
+     * @return the token to pass to {@link #endAsync}.
+     */
+    public static synchronized int beginAsync(int span, int arg) {
+        if (sCount >= CAPACITY) {
+            return -1;
+        }
+        int i = sCount++;
+        sSpans[i] = span;
+        sArgs[i] = arg;
+        sStartNanos[i] = System.nanoTime();
+        sEndNanos[i] = 0;
+        return sTraceCount * CAPACITY + i;
+    }
+
+    public static synchronized void endAsync(int token) {
+        // Ignore spans of a previous trace
+        if (token >= 0 && token / CAPACITY == sTraceCount) {
+            sEndNanos[token % CAPACITY] = System.nanoTime();
+        }
+    }
+
+    /**
+     * Records an event which has no duration.
+     */
+    public static synchronized void mark(int span) {
+        int token = beginAsync(span, NO_ARG);
+        if (token >= 0) {
+            int i = token % CAPACITY;
+            sEndNanos[i] = sStartNanos[i];
+        }
+    }
+
+    public static synchronized void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "Startup trace (" + (sTraceCount <= 1 ? "cold" : "warm")
+                + " start, activity created " + sTraceCount + " times):");
+        for (int i = 0; i < sCount; i++) {
+            StringBuilder line = new StringBuilder(prefix).append("  ")
+                    .append(NAMES[sSpans[i]]);
+            if (sArgs[i] != NO_ARG) {
+                line.append('[').append(sArgs[i]).append(']');
+            }
+            line.append(" at ").append(toMillis(sStartNanos[i] - sTraceStartNanos));
+            if (sEndNanos[i] == 0) {
+                line.append(", not finished");
+            } else if (sEndNanos[i] != sStartNanos[i]) {
+                line.append(", took ").append(toMillis(sEndNanos[i] - sStartNanos[i]));
+            }
+            writer.println(line);
+        }
+        if (sCount >= CAPACITY) {
+            writer.println(prefix + "  (trace full)");
+        }
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format(Locale.US, "%.1fms", nanos / 1000000f);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginSection(String name) {
+        if (Utilities.ATLEAST_JB_MR2) {
+            Trace.beginSection(name);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void endSection() {
+        if (Utilities.ATLEAST_JB_MR2) {
+            Trace.endSection();
+        }
+    }
+}
@@ -46,7 +46,6 @@ import android.graphics.drawable.Drawable;
 import android.graphics.drawable.PaintDrawable;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Process;
 import android.text.TextUtils;
 import android.util.DisplayMetrics;
 import com.android.launcher3.util.Log;
@@ -71,16 +70,19 @@ public final class Utilities {
 
     private static final String TAG = "Launcher.Utilities";
 
-    private static final Rect sOldBounds = new Rect();
-    private static final Canvas sCanvas = new Canvas();
+    // One canvas per thread, so that different icons can be rendered in parallel
+    private static final ThreadLocal<Canvas> sCanvas = new ThreadLocal<Canvas>() {
+        @Override
+        protected Canvas initialValue() {
+            Canvas canvas = new Canvas();
+            canvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.DITHER_FLAG,
+                    Paint.FILTER_BITMAP_FLAG));
+            return canvas;
+        }
+    };
 
     private static final Pattern sTrimPattern =
             Pattern.compile("^[\\s|\\p{javaSpaceChar}]*(.*)[\\s|\\p{javaSpaceChar}]*$");
-
-    static {
-        sCanvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.DITHER_FLAG,
-                Paint.FILTER_BITMAP_FLAG));
-    }
     static int sColors[] = { 0xffff0000, 0xff00ff00, 0xff0000ff };
     static int sColorIndex = 0;
 
@@ -178,7 +180,8 @@ public final class Utilities {
      * Returns a bitmap suitable for the all apps view.
      */
     public static Bitmap createIconBitmap(Drawable icon, Context context) {
-        synchronized (sCanvas) {
+        // The bounds of the drawable are changed while drawing it
+        synchronized (icon) {
             final int iconBitmapSize = getIconBitmapSize();
 
             int width = iconBitmapSize;
@@ -214,7 +217,7 @@ public final class Utilities {
 
             final Bitmap bitmap = Bitmap.createBitmap(textureWidth, textureHeight,
                     Bitmap.Config.ARGB_8888);
-            final Canvas canvas = sCanvas;
+            final Canvas canvas = sCanvas.get();
             canvas.setBitmap(bitmap);
 
             final int left = (textureWidth-width) / 2;
@@ -231,10 +234,10 @@ public final class Utilities {
                 canvas.drawRect(left, top, left+width, top+height, debugPaint);
             }
 
-            sOldBounds.set(icon.getBounds());
+            final Rect oldBounds = new Rect(icon.getBounds());
             icon.setBounds(left, top, left+width, top+height);
             icon.draw(canvas);
-            icon.setBounds(sOldBounds);
+            icon.setBounds(oldBounds);
             canvas.setBitmap(null);
 
             return bitmap;
@@ -559,6 +562,17 @@ public final class Utilities {
         return defaultWidgetForSearchPackage;
     }
 
+    /**
+     * Returns the number of bytes of memory used by the bitmap, or 0 if it is null or recycled.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public static int getBitmapByteCount(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return 0;
+        }
+        return ATLEAST_KITKAT ? bitmap.getAllocationByteCount() : bitmap.getByteCount();
+    }
+
     /**
      * Compresses the bitmap to a byte array for serialization.
      */
@@ -660,9 +674,8 @@ public final class Utilities {
                 (res.getConfiguration().getLayoutDirection() == View.LAYOUT_DIRECTION_RTL);
     }
 
-    public static void assertWorkerThread() {
-        if (LauncherAppState.isDogfoodBuild() &&
-                (LauncherModel.sWorkerThread.getThreadId() != Process.myTid())) {
+    public static void assertWidgetsThread() {
+        if (LauncherAppState.isDogfoodBuild() && !LauncherModel.sWidgetsQueue.isCurrentThread()) {
             throw new IllegalStateException();
         }
     }
@@ -25,7 +25,6 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
 import android.graphics.Matrix;
 import android.graphics.Point;
 import android.graphics.RectF;
@@ -48,13 +47,8 @@ import com.android.launcher3.util.Thunk;
 import com.android.launcher3.util.WallpaperUtils;
 import com.android.photos.BitmapRegionTileSource;
 import com.android.photos.BitmapRegionTileSource.BitmapSource;
-import com.android.photos.BitmapRegionTileSource.BitmapSource.InBitmapProvider;
 import com.android.photos.views.TiledImageRenderer.TileSource;
 
-import java.util.Collections;
-import java.util.Set;
-import java.util.WeakHashMap;
-
 public class WallpaperCropActivity extends BaseActivity implements Handler.Callback {
     private static final String LOGTAG = "Launcher3.CropActivity";
 
@@ -82,9 +76,8 @@ public class WallpaperCropActivity extends BaseActivity implements Handler.Callb
     private Handler mLoaderHandler;
     @Thunk LoadRequest mCurrentLoadRequest;
     private byte[] mTempStorageForDecoding = new byte[16 * 1024];
-    // A weak-set of reusable bitmaps
-    @Thunk Set<Bitmap> mReusableBitmaps =
-            Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+    // Previews which are no longer displayed, to decode the next ones into
+    private final PreviewBitmapPool mPreviewPool = new PreviewBitmapPool();
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -151,10 +144,13 @@ public class WallpaperCropActivity extends BaseActivity implements Handler.Callb
     public void onDestroy() {
         if (mCropView != null) {
             mCropView.destroy();
+            releaseTileSource(mCropView.getTileSource());
         }
         if (mLoaderThread != null) {
             mLoaderThread.quit();
         }
+        mPreviewPool.dumpStats(LOGTAG);
+        mPreviewPool.clear();
         super.onDestroy();
     }
 
@@ -166,29 +162,7 @@ public class WallpaperCropActivity extends BaseActivity implements Handler.Callb
         if (msg.what == MSG_LOAD_IMAGE) {
             final LoadRequest req = (LoadRequest) msg.obj;
             try {
-                req.src.loadInBackground(new InBitmapProvider() {
-
-                    @Override
-                    public Bitmap forPixelCount(int count) {
-                        Bitmap bitmapToReuse = null;
-                        // Find the smallest bitmap that satisfies the pixel count limit
-                        synchronized (mReusableBitmaps) {
-                            int currentBitmapSize = Integer.MAX_VALUE;
-                            for (Bitmap b : mReusableBitmaps) {
-                                int bitmapSize = b.getWidth() * b.getHeight();
-                                if ((bitmapSize >= count) && (bitmapSize < currentBitmapSize)) {
-                                    bitmapToReuse = b;
-                                    currentBitmapSize = bitmapSize;
-                                }
-                            }
-
-                            if (bitmapToReuse != null) {
-                                mReusableBitmaps.remove(bitmapToReuse);
-                            }
-                        }
-                        return bitmapToReuse;
-                    }
-                });
+                req.src.loadInBackground(mPreviewPool);
             } catch (SecurityException securityException) {
                 if (isActivityDestroyed()) {
                     // Temporarily granted permissions are revoked when the activity
@@ -227,13 +201,15 @@ public class WallpaperCropActivity extends BaseActivity implements Handler.Callb
     }
 
     @Thunk void addReusableBitmap(TileSource src) {
-        synchronized (mReusableBitmaps) {
-            if (Utilities.ATLEAST_KITKAT && src instanceof BitmapRegionTileSource) {
-                Bitmap preview = ((BitmapRegionTileSource) src).getBitmap();
-                if (preview != null && preview.isMutable()) {
-                    mReusableBitmaps.add(preview);
-                }
-            }
+        if (src instanceof BitmapRegionTileSource) {
+            mPreviewPool.add(((BitmapRegionTileSource) src).getBitmap());
+        }
+        releaseTileSource(src);
+    }
+
+    private void releaseTileSource(TileSource src) {
+        if (src instanceof BitmapRegionTileSource) {
+            ((BitmapRegionTileSource) src).release();
         }
     }
 
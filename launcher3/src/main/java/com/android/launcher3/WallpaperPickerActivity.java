@@ -108,6 +108,7 @@ public class WallpaperPickerActivity extends WallpaperCropActivity {
 
     ArrayList<Uri> mTempWallpaperTiles = new ArrayList<Uri>();
     private SavedWallpaperImages mSavedImages;
+    private WallpaperThumbnailLoader mThumbnailLoader;
     @Thunk int mSelectedIndex = -1;
 
     public static abstract class WallpaperTileInfo {
@@ -170,12 +171,12 @@ public class WallpaperPickerActivity extends WallpaperCropActivity {
         public void onSave(final WallpaperPickerActivity a) {
             boolean finishActivityWhenDone = true;
             BitmapCropTask.OnBitmapCroppedHandler h = new BitmapCropTask.OnBitmapCroppedHandler() {
-                public void onBitmapCropped(byte[] imageBytes) {
+                public void onBitmapCropped(File imageFile) {
                     Point thumbSize = getDefaultThumbnailSize(a.getResources());
-                    // rotation is set to 0 since imageBytes has already been correctly rotated
-                    Bitmap thumb = createThumbnail(
-                            thumbSize, null, null, imageBytes, null, 0, 0, true);
-                    a.getSavedImages().writeImage(thumb, imageBytes);
+                    // rotation is set to 0 since imageFile has already been correctly rotated
+                    Bitmap thumb = createThumbnail(thumbSize, a.getContext(),
+                            Uri.fromFile(imageFile), null, null, 0, 0, true);
+                    a.getSavedImages().writeImage(thumb, imageFile);
                 }
             };
             a.cropImageAndSetWallpaper(mUri, h, finishActivityWhenDone);
@@ -192,11 +193,18 @@ public class WallpaperPickerActivity extends WallpaperCropActivity {
 
     public static class FileWallpaperInfo extends WallpaperTileInfo {
         private File mFile;
+        // Thumbnail to load in the background when no thumbnail drawable is given
+        File mThumbFile;
 
         public FileWallpaperInfo(File target, Drawable thumb) {
             mFile = target;
             mThumb = thumb;
         }
+
+        public FileWallpaperInfo(File target, File thumbFile) {
+            mFile = target;
+            mThumbFile = thumbFile;
+        }
         @Override
         public void onClick(final WallpaperPickerActivity a) {
             a.setWallpaperButtonEnabled(false);
@@ -239,7 +247,8 @@ public class WallpaperPickerActivity extends WallpaperCropActivity {
         public void onClick(final WallpaperPickerActivity a) {
             a.setWallpaperButtonEnabled(false);
             final BitmapRegionTileSource.ResourceBitmapSource bitmapSource =
-                    new BitmapRegionTileSource.ResourceBitmapSource(mResources, mResId);
+                    new BitmapRegionTileSource.ResourceBitmapSource(
+                            a.getContext(), mResources, mResId);
             a.setCropViewTileSource(bitmapSource, false, false, new CropViewScaleProvider() {
 
                 @Override
@@ -460,14 +469,19 @@ public class WallpaperPickerActivity extends WallpaperCropActivity {
             }
         };
 
+        // Thumbnails stored in files are bound empty and filled in as they are decoded
+        mThumbnailLoader = new WallpaperThumbnailLoader(
+                getResources(), getDefaultThumbnailSize(getResources()));
+
         // Populate the built-in wallpapers
         ArrayList<WallpaperTileInfo> wallpapers = findBundledWallpapers();
         mWallpapersView = (LinearLayout) findViewById(R.id.wallpaper_list);
-        SimpleWallpapersAdapter ia = new SimpleWallpapersAdapter(getContext(), wallpapers);
+        SimpleWallpapersAdapter ia =
+                new SimpleWallpapersAdapter(getContext(), wallpapers, mThumbnailLoader);
         populateWallpapersFromAdapter(mWallpapersView, ia, false);
 
         // Populate the saved wallpapers
-        mSavedImages = new SavedWallpaperImages(getContext());
+        mSavedImages = new SavedWallpaperImages(getContext(), mThumbnailLoader);
         mSavedImages.loadThumbnailsAndImageIdList();
         populateWallpapersFromAdapter(mWallpapersView, mSavedImages, true);
 
@@ -717,6 +731,14 @@ public class WallpaperPickerActivity extends WallpaperCropActivity {
         return thumb;
     }
 
+    @Override
+    public void onDestroy() {
+        if (mThumbnailLoader != null) {
+            mThumbnailLoader.cancel();
+        }
+        super.onDestroy();
+    }
+
     public void onStop() {
         super.onStop();
         mWallpaperStrip = findViewById(R.id.wallpaper_strip);
@@ -956,9 +978,8 @@ public class WallpaperPickerActivity extends WallpaperCropActivity {
                     }
 
                     File thumbnail = new File(systemDir, name + "_small" + extension);
-                    Bitmap thumb = BitmapFactory.decodeFile(thumbnail.getAbsolutePath());
-                    if (thumb != null) {
-                        bundled.add(new FileWallpaperInfo(file, new BitmapDrawable(thumb)));
+                    if (thumbnail.isFile()) {
+                        bundled.add(new FileWallpaperInfo(file, thumbnail));
                     }
                 }
             }
@@ -1118,14 +1139,22 @@ public class WallpaperPickerActivity extends WallpaperCropActivity {
 
     private static class SimpleWallpapersAdapter extends ArrayAdapter<WallpaperTileInfo> {
         private final LayoutInflater mLayoutInflater;
+        private final WallpaperThumbnailLoader mThumbnailLoader;
 
-        SimpleWallpapersAdapter(Context context, ArrayList<WallpaperTileInfo> wallpapers) {
+        SimpleWallpapersAdapter(Context context, ArrayList<WallpaperTileInfo> wallpapers,
+                WallpaperThumbnailLoader thumbnailLoader) {
             super(context, R.layout.wallpaper_picker_item, wallpapers);
             mLayoutInflater = LayoutInflater.from(context);
+            mThumbnailLoader = thumbnailLoader;
         }
 
         public View getView(int position, View convertView, ViewGroup parent) {
-            Drawable thumb = getItem(position).mThumb;
+            WallpaperTileInfo info = getItem(position);
+            if (info instanceof FileWallpaperInfo && ((FileWallpaperInfo) info).mThumbFile != null) {
+                return createImageTileView(mLayoutInflater, convertView, parent,
+                        ((FileWallpaperInfo) info).mThumbFile, mThumbnailLoader);
+            }
+            Drawable thumb = info.mThumb;
             if (thumb == null) {
                 Log.e(TAG, "Error decoding thumbnail for wallpaper #" + position);
             }
@@ -1153,6 +1182,16 @@ public class WallpaperPickerActivity extends WallpaperCropActivity {
         return view;
     }
 
+    /**
+     * Creates a tile with an empty image, which the loader fills in with the given thumbnail.
+     */
+    public static View createImageTileView(LayoutInflater layoutInflater, View convertView,
+            ViewGroup parent, File thumbFile, WallpaperThumbnailLoader loader) {
+        View view = createImageTileView(layoutInflater, convertView, parent, null);
+        loader.load(thumbFile, (ImageView) view.findViewById(R.id.wallpaper_image));
+        return view;
+    }
+
     public void startActivityForResultSafely(Intent intent, int requestCode) {
         Utilities.startActivityForResultSafely(getActivity(), intent, requestCode);
     }
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.AsyncTask;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.android.launcher3.util.Log;
+import com.android.launcher3.util.Thunk;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * Decodes wallpaper thumbnails from files in the background, sub-sampled to the size of the
+ * thumbnail tiles, so that the picker can bind its tiles right away and fill them in as the
+ * thumbnails become available. Recently used thumbnails are kept in memory across pickers.
+ *
+ * Only accessed from the main thread.
+ */
+public class WallpaperThumbnailLoader {
+    private static final String TAG = "WallpaperThumbnailLoader";
+
+    private static LruCache<String, Bitmap> sCache;
+
+    private final Resources mResources;
+    private final Point mSize;
+
+    // The file each image view is waiting for. Results for any other file are dropped.
+    @Thunk final WeakHashMap<ImageView, String> mPending = new WeakHashMap<>();
+
+    public WallpaperThumbnailLoader(Resources res, Point size) {
+        mResources = res;
+        mSize = size;
+    }
+
+    /**
+     * Sets the thumbnail stored in the given file on the image view, now if it is in memory,
+     * or once it is decoded otherwise.
+     */
+    public void load(File file, ImageView view) {
+        String key = file.getAbsolutePath();
+        Bitmap cached = getCache().get(key);
+        if (cached != null) {
+            mPending.remove(view);
+            setThumbnail(view, cached);
+            return;
+        }
+        if (key.equals(mPending.put(view, key))) {
+            // Already on its way
+            return;
+        }
+        new DecodeTask(key, view).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Drops all pending loads. Thumbnails being decoded still end up in the cache.
+     */
+    public void cancel() {
+        mPending.clear();
+    }
+
+    @Thunk void setThumbnail(ImageView view, Bitmap thumb) {
+        BitmapDrawable drawable = new BitmapDrawable(mResources, thumb);
+        drawable.setDither(true);
+        view.setImageDrawable(drawable);
+    }
+
+    @Thunk Bitmap decode(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        // Largest power of two which still covers the tile
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= mSize.x
+                && options.outHeight / (sampleSize * 2) >= mSize.y) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        return BitmapFactory.decodeFile(path, options);
+    }
+
+    @Thunk static synchronized LruCache<String, Bitmap> getCache() {
+        if (sCache == null) {
+            // Use 1/32 of the heap, a few dozen tiles on most devices
+            sCache = new LruCache<String, Bitmap>(
+                    (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 32)) {
+                @Override
+                protected int sizeOf(String key, Bitmap value) {
+                    return value.getByteCount();
+                }
+            };
+        }
+        return sCache;
+    }
+
+    private class DecodeTask extends AsyncTask<Void, Void, Bitmap> {
+        private final String mPath;
+        // Weak so that a queued decode does not keep a closed picker alive
+        private final WeakReference<ImageView> mView;
+
+        DecodeTask(String path, ImageView view) {
+            mPath = path;
+            mView = new WeakReference<>(view);
+        }
+
+        @Override
+        protected Bitmap doInBackground(Void... params) {
+            Bitmap thumb = decode(mPath);
+            if (thumb != null) {
+                getCache().put(mPath, thumb);
+            } else {
+                Log.e(TAG, "Error decoding thumbnail " + mPath);
+            }
+            return thumb;
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap thumb) {
+            ImageView view = mView.get();
+            if (view == null || !mPath.equals(mPending.get(view))) {
+                return;
+            }
+            mPending.remove(view);
+            if (thumb != null) {
+                setThumbnail(view, thumb);
+            }
+        }
+    }
+}
@@ -68,7 +68,8 @@ public class WeightWatcher extends LinearLayout {
                 case MSG_UPDATE:
                     int[] pids = mMemoryService.getTrackedProcesses();
 
-                    final int N = getChildCount();
+                    // The last child shows the subsystems
+                    final int N = getChildCount() - 1;
                     if (pids.length != N) initViews();
                     else for (int i=0; i<N; i++) {
                         ProcessWatcher pw = ((ProcessWatcher) getChildAt(i));
@@ -78,12 +79,14 @@ public class WeightWatcher extends LinearLayout {
                         }
                         pw.update();
                     }
+                    updateSubsystems();
                     mHandler.sendEmptyMessageDelayed(MSG_UPDATE, UPDATE_RATE);
                     break;
             }
         }
     };
     @Thunk MemoryTracker mMemoryService;
+    private TextView mSubsystemText;
 
     public WeightWatcher(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -114,6 +117,28 @@ public class WeightWatcher extends LinearLayout {
             v.setPid(processes[i]);
             addView(v);
         }
+
+        final float dp = getResources().getDisplayMetrics().density;
+        mSubsystemText = new TextView(getContext());
+        mSubsystemText.setTextColor(TEXT_COLOR);
+        mSubsystemText.setTextSize(TypedValue.COMPLEX_UNIT_PX, 10 * dp);
+        final int p = (int)(2*dp);
+        mSubsystemText.setPadding(p, 0, p, 0);
+        addView(mSubsystemText);
+        updateSubsystems();
+    }
+
+    /**
+     * Shows the memory held by the subsystems of this process, see
+     * {@link MemoryTracker.MemoryReporter}.
+     */
+    @Thunk void updateSubsystems() {
+        StringBuilder sb = new StringBuilder();
+        for (MemoryTracker.SubsystemMemInfo info : mMemoryService.getSubsystemMemInfos()) {
+            if (sb.length() > 0) sb.append("  ");
+            sb.append(info);
+        }
+        mSubsystemText.setText(sb);
     }
 
     public WeightWatcher(Context context) {
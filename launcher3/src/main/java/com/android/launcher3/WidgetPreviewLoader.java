@@ -44,7 +44,7 @@ import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 
-public class WidgetPreviewLoader {
+public class WidgetPreviewLoader implements MemoryTracker.MemoryReporter {
 
     private static final String TAG = "WidgetPreviewLoader";
     private static final boolean DEBUG = false;
@@ -78,9 +78,10 @@ public class WidgetPreviewLoader {
         mManager = AppWidgetManagerCompat.getInstance(context);
         mUserManager = UserManagerCompat.getInstance(context);
         mDb = new CacheDb(context);
-        mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+        mWorkerHandler = new Handler(LauncherModel.getWidgetsLooper());
         mProfileBadgeMargin = context.getResources()
                 .getDimensionPixelSize(R.dimen.profile_badge_margin);
+        MemoryTracker.registerReporter("WidgetPreviews", this);
     }
 
     /**
@@ -100,6 +101,27 @@ public class WidgetPreviewLoader {
         return new PreviewLoadRequest(task);
     }
 
+    /**
+     * Returns the bytes of the preview bitmaps kept for reuse.
+     */
+    @Override
+    public long getMemoryBytes() {
+        long bytes = 0;
+        synchronized (mUnusedBitmaps) {
+            for (Bitmap b : mUnusedBitmaps) {
+                bytes += Utilities.getBitmapByteCount(b);
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public int getMemoryObjectCount() {
+        synchronized (mUnusedBitmaps) {
+            return mUnusedBitmaps.size();
+        }
+    }
+
     /**
      * The DB holds the generated previews for various components. Previews can also have different
      * sizes (landscape vs portrait).
@@ -210,7 +232,7 @@ public class WidgetPreviewLoader {
      * This ensures that we remove entries for packages which changed while the launcher was dead.
      */
     public void removeObsoletePreviews(ArrayList<Object> list) {
-        Utilities.assertWorkerThread();
+        Utilities.assertWidgetsThread();
 
         LongSparseArray<HashSet<String>> validPackages = new LongSparseArray<>();
 
@@ -4310,6 +4310,38 @@ public class Workspace extends PagedView
         stripEmptyScreens();
     }
 
+    /**
+     * Removes the views of the workspace and hotseat items with the given ids. Unlike
+     * {@link #removeItemsByComponentName} this does not strip empty screens, as the caller
+     * may be about to bind items on them.
+     */
+    void removeItemsById(final HashSet<Long> itemIds) {
+        for (final CellLayout layoutParent : getWorkspaceAndHotseatCellLayouts()) {
+            final ViewGroup layout = layoutParent.getShortcutsAndWidgets();
+
+            final ArrayList<View> childrenToRemove = new ArrayList<View>();
+            for (int j = 0; j < layout.getChildCount(); j++) {
+                final View view = layout.getChildAt(j);
+                final Object tag = view.getTag();
+                if (tag instanceof ItemInfo && itemIds.contains(((ItemInfo) tag).id)) {
+                    childrenToRemove.add(view);
+                }
+            }
+
+            for (View child : childrenToRemove) {
+                layoutParent.removeViewInLayout(child);
+                if (child instanceof DropTarget) {
+                    mDragController.removeDropTarget((DropTarget) child);
+                }
+            }
+
+            if (childrenToRemove.size() > 0) {
+                layout.requestLayout();
+                layout.invalidate();
+            }
+        }
+    }
+
     interface ItemOperator {
         /**
          * Process the next itemInfo, possibly with side-effect on {@link ItemOperator#value}.
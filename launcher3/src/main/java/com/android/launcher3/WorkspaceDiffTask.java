@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import com.android.launcher3.LauncherModel.Callbacks;
+import com.android.launcher3.compat.LauncherAppsCompat;
+import com.android.launcher3.compat.UserHandleCompat;
+import com.android.launcher3.compat.UserManagerCompat;
+import com.android.launcher3.util.CursorIconInfo;
+import com.android.launcher3.util.Log;
+import com.android.launcher3.util.WorkerQueue;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Compares the favorites table against the loaded model and binds only the items which were
+ * added, moved, updated or removed, instead of reloading and rebinding the whole workspace.
+ *
+ * Only shortcuts directly on the workspace or hotseat are handled incrementally. Any other
+ * difference (folders, widgets, including their id or restore state, folder contents, screen
+ * changes or items which need the restore handling of the loader) falls back to a full reload.
+ * Runs on the worker thread.
+ */
+class WorkspaceDiffTask implements Runnable {
+    private static final String TAG = "WorkspaceDiffTask";
+
+    private final LauncherModel mModel;
+    private final Context mContext;
+
+    // Result of the diff
+    private final HashSet<Long> mRemovedIds = new HashSet<>();
+    private final ArrayList<ItemInfo> mAddedItems = new ArrayList<>();
+
+    WorkspaceDiffTask(LauncherModel model, Context context) {
+        mModel = model;
+        mContext = context;
+    }
+
+    @Override
+    public void run() {
+        final Callbacks callbacks = mModel.getCallback();
+        synchronized (mModel.mLock) {
+            if (callbacks == null || !mModel.mWorkspaceLoaded || mModel.mIsLoaderTaskRunning) {
+                reloadFully();
+                return;
+            }
+        }
+
+        // Hold back pending db writes from the UI, so that neither the table nor the model
+        // change while they are being compared.
+        final WorkerQueue.Barrier barrier = LauncherModel.sPersistenceQueue.block();
+        try {
+            final boolean diffed;
+            try {
+                diffed = computeDiff();
+            } catch (Exception e) {
+                Log.e(TAG, "Error computing workspace diff", e);
+                reloadFully();
+                return;
+            }
+            if (!diffed) {
+                reloadFully();
+                return;
+            }
+            if (mRemovedIds.isEmpty() && mAddedItems.isEmpty()) {
+                return;
+            }
+            applyDiff();
+        } finally {
+            barrier.release();
+        }
+
+        mModel.mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Callbacks cb = mModel.getCallback();
+                if (callbacks == cb && cb != null) {
+                    if (!mRemovedIds.isEmpty()) {
+                        callbacks.bindWorkspaceItemsRemoved(mRemovedIds);
+                    }
+                    if (!mAddedItems.isEmpty()) {
+                        callbacks.bindAppsAdded(null, mAddedItems, null, null);
+                    }
+                }
+            }
+        });
+    }
+
+    private void applyDiff() {
+        Log.d(TAG, "Rebinding " + mRemovedIds.size() + " removed/changed and "
+                + mAddedItems.size() + " added/changed items");
+
+        synchronized (LauncherModel.sBgLock) {
+            for (Long id : mRemovedIds) {
+                ItemInfo info = LauncherModel.sBgItemsIdMap.get(id);
+                LauncherModel.sBgItemsIdMap.remove(id);
+                LauncherModel.sBgWorkspaceItems.remove(info);
+            }
+            for (ItemInfo info : mAddedItems) {
+                LauncherModel.sBgItemsIdMap.put(info.id, info);
+                LauncherModel.sBgWorkspaceItems.add(info);
+            }
+            LauncherModel.publishBgSnapshotLocked(
+                    LauncherModel.BG_ITEMS_ID_MAP | LauncherModel.BG_WORKSPACE_ITEMS);
+        }
+    }
+
+    private void reloadFully() {
+        mModel.resetLoadedState(false, true);
+        mModel.startLoaderFromBackground();
+    }
+
+    /**
+     * Fills {@link #mRemovedIds} and {@link #mAddedItems}. A changed item appears in both.
+     *
+     * @return false if the difference cannot be applied incrementally.
+     */
+    private boolean computeDiff() {
+        final LauncherModel.BgSnapshot snapshot = LauncherModel.sBgSnapshot;
+        final ArrayList<Long> screens = LauncherModel.loadWorkspaceScreensDb(mContext);
+        if (!screens.equals(snapshot.workspaceScreens)) {
+            return false;
+        }
+
+        final LauncherAppsCompat launcherApps = LauncherAppsCompat.getInstance(mContext);
+        final UserManagerCompat userManager = UserManagerCompat.getInstance(mContext);
+        final boolean isSafeMode = mContext.getPackageManager().isSafeMode();
+        final HashSet<Long> seenIds = new HashSet<>();
+
+        final Cursor c = mContext.getContentResolver().query(
+                LauncherSettings.Favorites.CONTENT_URI, null, null, null, null);
+        if (c == null) {
+            return false;
+        }
+        try {
+            final int idIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites._ID);
+            final int intentIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.INTENT);
+            final int titleIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.TITLE);
+            final int containerIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.CONTAINER);
+            final int itemTypeIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.ITEM_TYPE);
+            final int screenIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.SCREEN);
+            final int cellXIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.CELLX);
+            final int cellYIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.CELLY);
+            final int spanXIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.SPANX);
+            final int spanYIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.SPANY);
+            final int rankIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.RANK);
+            final int restoredIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.RESTORED);
+            final int profileIdIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.PROFILE_ID);
+            final int appWidgetIdIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.APPWIDGET_ID);
+            final int appWidgetProviderIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.APPWIDGET_PROVIDER);
+            final int optionsIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.OPTIONS);
+            final CursorIconInfo cursorIconInfo = new CursorIconInfo(c);
+
+            while (c.moveToNext()) {
+                final long id = c.getLong(idIndex);
+                final int itemType = c.getInt(itemTypeIndex);
+                final long container = c.getInt(containerIndex);
+                final long screenId = c.getInt(screenIndex);
+                final int cellX = c.getInt(cellXIndex);
+                final int cellY = c.getInt(cellYIndex);
+                seenIds.add(id);
+
+                final ItemInfo existing = snapshot.itemsIdMap.get(id);
+
+                final Intent intent;
+                if (itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION
+                        || itemType == LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT) {
+                    try {
+                        intent = Intent.parseUri(c.getString(intentIndex), 0);
+                    } catch (URISyntaxException e) {
+                        return false;
+                    }
+                } else {
+                    intent = null;
+                }
+
+                if (existing != null) {
+                    final boolean moved = existing.itemType != itemType
+                            || existing.container != container
+                            || existing.screenId != screenId
+                            || existing.cellX != cellX || existing.cellY != cellY
+                            || existing.spanX != c.getInt(spanXIndex)
+                            || existing.spanY != c.getInt(spanYIndex)
+                            || existing.rank != c.getInt(rankIndex);
+                    boolean updated = false;
+                    if (existing instanceof ShortcutInfo) {
+                        ShortcutInfo si = (ShortcutInfo) existing;
+                        updated = (!si.isPromise() && !si.intent.filterEquals(intent))
+                                || si.status != c.getInt(restoredIndex)
+                                || (itemType == LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT
+                                        && (!TextUtils.equals(si.title,
+                                                Utilities.trim(c.getString(titleIndex)))
+                                        || isIconChanged(si, c, cursorIconInfo)));
+                    } else if (existing instanceof LauncherAppWidgetInfo) {
+                        LauncherAppWidgetInfo widget = (LauncherAppWidgetInfo) existing;
+                        String provider = c.getString(appWidgetProviderIndex);
+                        ComponentName providerName = provider == null
+                                ? null : ComponentName.unflattenFromString(provider);
+                        updated = widget.appWidgetId != c.getInt(appWidgetIdIndex)
+                                || widget.restoreStatus != c.getInt(restoredIndex)
+                                || providerName == null
+                                || !providerName.equals(widget.providerName);
+                    } else if (existing instanceof FolderInfo) {
+                        FolderInfo folder = (FolderInfo) existing;
+                        updated = !TextUtils.equals(folder.title, c.getString(titleIndex))
+                                || folder.options != c.getInt(optionsIndex);
+                    }
+                    if (!moved && !updated) {
+                        continue;
+                    }
+                    if (!isWorkspaceShortcut(existing)) {
+                        return false;
+                    }
+                    mRemovedIds.add(id);
+                }
+
+                // New or changed item
+                if ((itemType != LauncherSettings.Favorites.ITEM_TYPE_APPLICATION
+                        && itemType != LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT)
+                        || (container != LauncherSettings.Favorites.CONTAINER_DESKTOP
+                        && container != LauncherSettings.Favorites.CONTAINER_HOTSEAT)
+                        || c.getInt(restoredIndex) != 0) {
+                    return false;
+                }
+
+                final long serialNumber = c.getInt(profileIdIndex);
+                final UserHandleCompat user = userManager.getUserForSerialNumber(serialNumber);
+                if (user == null) {
+                    return false;
+                }
+
+                final ShortcutInfo info;
+                if (itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
+                    ComponentName cn = intent.getComponent();
+                    if (cn == null || !launcherApps.isActivityEnabledForProfile(cn, user)) {
+                        return false;
+                    }
+                    info = mModel.getAppShortcutInfo(mContext.getPackageManager(), intent, user,
+                            mContext, c, cursorIconInfo.iconIndex, titleIndex, false, false);
+                } else {
+                    if (!user.equals(UserHandleCompat.myUserHandle())) {
+                        return false;
+                    }
+                    info = mModel.getShortcutInfo(c, mContext, titleIndex, cursorIconInfo);
+                    if (Intent.ACTION_MAIN.equals(intent.getAction())
+                            && intent.getCategories() != null
+                            && intent.getCategories().contains(Intent.CATEGORY_LAUNCHER)) {
+                        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK
+                                | Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED);
+                    }
+                }
+                if (info == null) {
+                    return false;
+                }
+
+                info.id = id;
+                info.intent = intent;
+                info.container = container;
+                info.screenId = screenId;
+                info.cellX = cellX;
+                info.cellY = cellY;
+                info.rank = c.getInt(rankIndex);
+                info.spanX = 1;
+                info.spanY = 1;
+                info.intent.putExtra(ItemInfo.EXTRA_PROFILE, serialNumber);
+                if (isSafeMode && !Utilities.isSystemApp(mContext, intent)) {
+                    info.isDisabled |= ShortcutInfo.FLAG_DISABLED_SAFEMODE;
+                }
+                mAddedItems.add(info);
+            }
+        } finally {
+            c.close();
+        }
+
+        for (ItemInfo info : snapshot.itemsIdMap) {
+            if (!seenIds.contains(info.id)) {
+                if (!isWorkspaceShortcut(info)) {
+                    return false;
+                }
+                mRemovedIds.add(info.id);
+            }
+        }
+        return !hasCollisions(snapshot);
+    }
+
+    /**
+     * Checks whether the icon of a non-app shortcut was changed in the table. Compares the icon
+     * columns and the hash of the icon blob, so that the icon is never decoded.
+     */
+    private boolean isIconChanged(ShortcutInfo si, Cursor c, CursorIconInfo cursorIconInfo) {
+        if (si.iconBlobHash != cursorIconInfo.getIconBlobHash(c)) {
+            return true;
+        }
+        switch (c.getInt(cursorIconInfo.iconTypeIndex)) {
+            case LauncherSettings.Favorites.ICON_TYPE_RESOURCE:
+                String packageName = c.getString(cursorIconInfo.iconPackageIndex);
+                String resourceName = c.getString(cursorIconInfo.iconResourceIndex);
+                if (si.iconResource == null) {
+                    return si.customIcon || !TextUtils.isEmpty(packageName)
+                            || !TextUtils.isEmpty(resourceName);
+                }
+                return si.customIcon
+                        || !TextUtils.equals(packageName, si.iconResource.packageName)
+                        || !TextUtils.equals(resourceName, si.iconResource.resourceName);
+            case LauncherSettings.Favorites.ICON_TYPE_BITMAP:
+                // The blob is unchanged, so it decodes as before: the icon is custom unless
+                // the blob cannot be decoded
+                return si.iconResource != null || si.customIcon == si.usingFallbackIcon;
+            default:
+                return si.customIcon || si.iconResource != null;
+        }
+    }
+
+    /**
+     * Checks whether any added item would overlap with an item which stays in place, or another
+     * added item. Such layouts are left to the loader which knows how to resolve them.
+     */
+    private boolean hasCollisions(LauncherModel.BgSnapshot snapshot) {
+        final HashSet<String> occupied = new HashSet<>();
+        for (ItemInfo info : snapshot.workspaceItems) {
+            if (!mRemovedIds.contains(info.id)) {
+                markCells(occupied, info);
+            }
+        }
+        for (ItemInfo info : snapshot.appWidgets) {
+            markCells(occupied, info);
+        }
+        for (ItemInfo info : mAddedItems) {
+            if (!markCells(occupied, info)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return false if any of the cells were already marked.
+     */
+    private static boolean markCells(HashSet<String> occupied, ItemInfo info) {
+        if (info.container != LauncherSettings.Favorites.CONTAINER_DESKTOP
+                && info.container != LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+            return true;
+        }
+        boolean free = true;
+        for (int x = info.cellX; x < info.cellX + info.spanX; x++) {
+            for (int y = info.cellY; y < info.cellY + info.spanY; y++) {
+                free &= occupied.add(info.container + ":" + info.screenId + ":" + x + ":" + y);
+            }
+        }
+        return free;
+    }
+
+    private static boolean isWorkspaceShortcut(ItemInfo info) {
+        return info instanceof ShortcutInfo
+                && (info.container == LauncherSettings.Favorites.CONTAINER_DESKTOP
+                        || info.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.util.SparseArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.android.launcher3.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Pool of detached workspace views, keyed by the layout they were inflated from. When the
+ * workspace is rebound, the shortcut and folder icons of the previous bind are returned here so
+ * that the next bind can re-apply them to the new items instead of inflating them again.
+ *
+ * Only accessed from the main thread.
+ */
+public class WorkspaceViewPool {
+    private static final String TAG = "WorkspaceViewPool";
+    private static final boolean DEBUG = false;
+
+    // Upper bound of views retained per layout, roughly a full workspace worth of icons.
+    private static final int MAX_POOL_SIZE = 128;
+
+    private final LayoutInflater mInflater;
+    private final SparseArray<ArrayList<View>> mPool = new SparseArray<>();
+
+    // Stats since the last reset
+    private int mInflateCount;
+    private int mReuseCount;
+    private long mInflateTimeNanos;
+
+    public WorkspaceViewPool(LayoutInflater inflater) {
+        mInflater = inflater;
+    }
+
+    /**
+     * Returns a previously recycled view for the given layout, or a newly inflated one.
+     * The returned view is detached and has its transient view properties reset.
+     */
+    public View obtain(int layoutId, ViewGroup parent) {
+        ArrayList<View> views = mPool.get(layoutId);
+        if (views != null && !views.isEmpty()) {
+            mReuseCount++;
+            return views.remove(views.size() - 1);
+        }
+
+        final long start = System.nanoTime();
+        View v = mInflater.inflate(layoutId, parent, false);
+        mInflateTimeNanos += System.nanoTime() - start;
+        mInflateCount++;
+        return v;
+    }
+
+    /**
+     * Detaches the view from its parent and keeps it for later reuse.
+     */
+    public void recycle(int layoutId, View v) {
+        ViewGroup parent = (ViewGroup) v.getParent();
+        if (parent != null) {
+            parent.removeView(v);
+        }
+
+        ArrayList<View> views = mPool.get(layoutId);
+        if (views == null) {
+            views = new ArrayList<>();
+            mPool.put(layoutId, views);
+        }
+        if (views.size() >= MAX_POOL_SIZE) {
+            return;
+        }
+
+        v.setTag(null);
+        v.setAlpha(1f);
+        v.setScaleX(1f);
+        v.setScaleY(1f);
+        v.setTranslationX(0f);
+        v.setTranslationY(0f);
+        v.setVisibility(View.VISIBLE);
+        v.setPressed(false);
+        v.setOnClickListener(null);
+        v.setOnFocusChangeListener(null);
+        // Only set by applyFromShortcutInfo() when the new item has one
+        v.setContentDescription(null);
+        views.add(v);
+    }
+
+    /**
+     * Removes all the shortcut and folder icons from the given cell layout and recycles them.
+     * Folder icons whose folder is currently open are left alone.
+     */
+    public void recycleCellLayout(CellLayout layout) {
+        ShortcutAndWidgetContainer container = layout.getShortcutsAndWidgets();
+        for (int i = container.getChildCount() - 1; i >= 0; i--) {
+            View v = container.getChildAt(i);
+            Object tag = v.getTag();
+            if (v instanceof BubbleTextView && tag instanceof ShortcutInfo) {
+                layout.removeView(v);
+                recycle(R.layout.app_icon, v);
+            } else if (v instanceof FolderIcon && tag instanceof FolderInfo) {
+                FolderIcon icon = (FolderIcon) v;
+                if (icon.getFolder().getParent() != null) {
+                    continue;
+                }
+                layout.removeView(v);
+                icon.unbind();
+                recycle(R.layout.folder_icon, v);
+            }
+        }
+    }
+
+    public void resetStats() {
+        mInflateCount = 0;
+        mReuseCount = 0;
+        mInflateTimeNanos = 0;
+    }
+
+    public void logStats(String reason) {
+        if (DEBUG) {
+            Log.d(TAG, reason + ": inflated " + mInflateCount + " views in "
+                    + (mInflateTimeNanos / 1000000) + "ms, reused " + mReuseCount);
+        }
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        int pooled = 0;
+        for (int i = 0; i < mPool.size(); i++) {
+            pooled += mPool.valueAt(i).size();
+        }
+        writer.println(prefix + "WorkspaceViewPool: pooled=" + pooled + " inflated="
+                + mInflateCount + " (" + (mInflateTimeNanos / 1000000) + "ms) reused="
+                + mReuseCount);
+    }
+
+    /**
+     * Drops all the pooled views, along with the icons they still hold.
+     */
+    public void clear() {
+        mPool.clear();
+    }
+}
@@ -9,6 +9,7 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
 import android.database.Cursor;
 import android.graphics.Point;
+import android.net.Uri;
 import android.text.TextUtils;
 import com.android.launcher3.util.Log;
 import com.android.launcher3.InvariantDeviceProfile;
@@ -26,9 +27,15 @@ import com.android.launcher3.util.LongArrayMap;
 import com.android.launcher3.util.Thunk;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class takes care of shrinking the workspace (by maximum of one row and one column), as a
@@ -52,6 +59,14 @@ public class MigrateFromRestoreTask {
     private static final float WT_WIDGET_FACTOR = 0.6f;
     private static final float WT_FOLDER_FACTOR = 0.5f;
 
+    // Budget of a placement search, after which the best placement found so far is used.
+    private static final int MAX_SEARCH_STEPS = 200000;
+    private static final long MAX_SEARCH_MILLIS = 250;
+    private static final int MAX_VISITED_STATES = 100000;
+
+    // Weights are sums of the above floats, compare them with some tolerance.
+    private static final float WEIGHT_EPSILON = 0.001f;
+
     private final Context mContext;
     private final ContentValues mTempValues = new ContentValues();
     private final HashMap<String, Point> mWidgetMinSize;
@@ -111,13 +126,24 @@ public class MigrateFromRestoreTask {
             throw new Exception("Unable to get workspace screens");
         }
 
+        // The best row and column to remove only depends on the items of each screen, so it
+        // is solved for all the screens at once. Carrying over the lost items depends on the
+        // previous screens, and is done in order afterwards.
+        LongArrayMap<ArrayList<DbEntry>> entries = loadAllEntries();
+        ArrayList<ArrayList<DbEntry>> itemsByScreen = new ArrayList<>(allScreens.size());
         for (long screenId : allScreens) {
+            ArrayList<DbEntry> items = entries.get(screenId);
+            itemsByScreen.add(items != null ? items : new ArrayList<DbEntry>());
+        }
+        ArrayList<ScreenSolution> solutions = solveScreens(itemsByScreen);
+        for (int i = 0; i < allScreens.size(); i++) {
             if (DEBUG) {
-                Log.d(TAG, "Migrating " + screenId);
+                Log.d(TAG, "Migrating " + allScreens.get(i));
             }
-            migrateScreen(screenId);
+            migrateScreen(allScreens.get(i), itemsByScreen.get(i), solutions.get(i));
         }
 
+        boolean screensAdded = false;
         if (!mCarryOver.isEmpty()) {
             LongArrayMap<DbEntry> itemMap = new LongArrayMap<>();
             for (DbEntry e : mCarryOver) {
@@ -136,6 +162,7 @@ public class MigrateFromRestoreTask {
                 if (placement.finalPlacedItems.size() > 0) {
                     long newScreenId = LauncherAppState.getLauncherProvider().generateNewScreenId();
                     allScreens.add(newScreenId);
+                    screensAdded = true;
                     for (DbEntry item : placement.finalPlacedItems) {
                         if (!mCarryOver.remove(itemMap.get(item.id))) {
                             throw new Exception("Unable to find matching items");
@@ -148,23 +175,23 @@ public class MigrateFromRestoreTask {
                 }
 
             } while (!mCarryOver.isEmpty());
-
-
-            LauncherAppState.getInstance().getModel()
-                .updateWorkspaceScreenOrder(mContext, allScreens);
         }
 
-        // Update items
-        mContext.getContentResolver().applyBatch(LauncherProvider.AUTHORITY, mUpdateOperations);
-
+        // Apply all the changes in a single transaction
+        if (screensAdded) {
+            addScreenOrderOperations(allScreens);
+        }
         if (!mEntryToRemove.isEmpty()) {
             if (DEBUG) {
                 Log.d(TAG, "Removing items: " + TextUtils.join(", ", mEntryToRemove));
             }
-            mContext.getContentResolver().delete(LauncherSettings.Favorites.CONTENT_URI,
-                    Utilities.createDbSelectionQuery(
-                            LauncherSettings.Favorites._ID, mEntryToRemove), null);
+            mUpdateOperations.add(ContentProviderOperation
+                    .newDelete(LauncherSettings.Favorites.CONTENT_URI)
+                    .withSelection(Utilities.createDbSelectionQuery(
+                            LauncherSettings.Favorites._ID, mEntryToRemove), null)
+                    .build());
         }
+        mContext.getContentResolver().applyBatch(LauncherProvider.AUTHORITY, mUpdateOperations);
 
         // Make sure we haven't removed everything.
         final Cursor c = mContext.getContentResolver().query(
@@ -177,44 +204,71 @@ public class MigrateFromRestoreTask {
     }
 
     /**
-     * Migrate a particular screen id.
-     * Strategy:
-     *   1) For all possible combinations of row and column, pick the one which causes the least
-     *      data loss: {@link #tryRemove(int, int, ArrayList, float[])}
-     *   2) Maintain a list of all lost items before this screen, and add any new item lost from
-     *      this screen to that list as well.
-     *   3) If all those items from the above list can be placed on this screen, place them
-     *      (otherwise they are placed on a new screen).
+     * Finds the best row and column to remove for each screen, on up to one thread per core.
      */
-    private void migrateScreen(long screenId) {
-        ArrayList<DbEntry> items = loadEntries(screenId);
+    private ArrayList<ScreenSolution> solveScreens(ArrayList<ArrayList<DbEntry>> itemsByScreen)
+            throws Exception {
+        int threadCount = Math.min(itemsByScreen.size(),
+                Runtime.getRuntime().availableProcessors());
+        ArrayList<ScreenSolution> solutions = new ArrayList<>(itemsByScreen.size());
+        if (threadCount <= 1) {
+            for (ArrayList<DbEntry> items : itemsByScreen) {
+                solutions.add(solveScreen(items));
+            }
+            return solutions;
+        }
 
-        int removedCol = Integer.MAX_VALUE;
-        int removedRow = Integer.MAX_VALUE;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            ArrayList<Future<ScreenSolution>> futures = new ArrayList<>(itemsByScreen.size());
+            for (final ArrayList<DbEntry> items : itemsByScreen) {
+                futures.add(executor.submit(new Callable<ScreenSolution>() {
+                    @Override
+                    public ScreenSolution call() {
+                        return solveScreen(items);
+                    }
+                }));
+            }
+            for (Future<ScreenSolution> future : futures) {
+                solutions.add(future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return solutions;
+    }
+
+    /**
+     * For all possible combinations of row and column, picks the one which causes the least
+     * data loss: {@link #tryRemove(int, int, ArrayList, float[], ScreenSolution)}. Does not
+     * modify the items.
+     */
+    @Thunk ScreenSolution solveScreen(ArrayList<DbEntry> items) {
+        ScreenSolution solution = new ScreenSolution();
+        long startTime = System.currentTimeMillis();
 
         // removeWt represents the cost function for loss of items during migration, and moveWt
         // represents the cost function for repositioning the items. moveWt is only considered if
         // removeWt is same for two different configurations.
         // Start with Float.MAX_VALUE (assuming full data) and pick the configuration with least
         // cost.
-        float removeWt = Float.MAX_VALUE;
-        float moveWt = Float.MAX_VALUE;
         float[] outLoss = new float[2];
-        ArrayList<DbEntry> finalItems = null;
 
         // Try removing all possible combinations
         for (int x = 0; x < mSrcX; x++) {
             for (int y = 0; y < mSrcY; y++) {
                 // Use a deep copy when trying out a particular combination as it can change
                 // the underlying object.
-                ArrayList<DbEntry> itemsOnScreen = tryRemove(x, y, deepCopy(items), outLoss);
-
-                if ((outLoss[0] < removeWt) || ((outLoss[0] == removeWt) && (outLoss[1] < moveWt))) {
-                    removeWt = outLoss[0];
-                    moveWt = outLoss[1];
-                    removedCol = mShouldRemoveX ? x : removedCol;
-                    removedRow = mShouldRemoveY ? y : removedRow;
-                    finalItems = itemsOnScreen;
+                ArrayList<DbEntry> itemsOnScreen =
+                        tryRemove(x, y, deepCopy(items), outLoss, solution);
+
+                if ((outLoss[0] < solution.removeWt)
+                        || ((outLoss[0] == solution.removeWt) && (outLoss[1] < solution.moveWt))) {
+                    solution.removeWt = outLoss[0];
+                    solution.moveWt = outLoss[1];
+                    solution.removedCol = mShouldRemoveX ? x : solution.removedCol;
+                    solution.removedRow = mShouldRemoveY ? y : solution.removedRow;
+                    solution.finalItems = itemsOnScreen;
                 }
 
                 // No need to loop over all rows, if a row removal is not needed.
@@ -227,10 +281,30 @@ public class MigrateFromRestoreTask {
                 break;
             }
         }
+        solution.searchMillis = System.currentTimeMillis() - startTime;
+        return solution;
+    }
+
+    /**
+     * Migrate a particular screen id.
+     * Strategy:
+     *   1) Apply the row and column removal which causes the least data loss, found by
+     *      {@link #solveScreen(ArrayList)}.
+     *   2) Maintain a list of all lost items before this screen, and add any new item lost from
+     *      this screen to that list as well.
+     *   3) If all those items from the above list can be placed on this screen, place them
+     *      (otherwise they are placed on a new screen).
+     */
+    private void migrateScreen(long screenId, ArrayList<DbEntry> items, ScreenSolution solution) {
+        float removeWt = solution.removeWt;
+        ArrayList<DbEntry> finalItems = solution.finalItems;
 
         if (DEBUG) {
             Log.d(TAG, String.format("Removing row %d, column %d on screen %d",
-                    removedRow, removedCol, screenId));
+                    solution.removedRow, solution.removedCol, screenId));
+            Log.d(TAG, "Searched placements in " + solution.searchSteps + " steps, "
+                    + solution.searchMillis + "ms, budget exhausted "
+                    + solution.exhaustedSearches + " times");
         }
 
         LongArrayMap<DbEntry> itemMap = new LongArrayMap<>();
@@ -276,6 +350,20 @@ public class MigrateFromRestoreTask {
         }
     }
 
+    /**
+     * Replaces the workspace screens with the given ones, in that order.
+     */
+    private void addScreenOrderOperations(ArrayList<Long> screens) {
+        Uri uri = LauncherSettings.WorkspaceScreens.CONTENT_URI;
+        mUpdateOperations.add(ContentProviderOperation.newDelete(uri).build());
+        for (int i = 0; i < screens.size(); i++) {
+            ContentValues v = new ContentValues();
+            v.put(LauncherSettings.WorkspaceScreens._ID, screens.get(i));
+            v.put(LauncherSettings.WorkspaceScreens.SCREEN_RANK, i);
+            mUpdateOperations.add(ContentProviderOperation.newInsert(uri).withValues(v).build());
+        }
+    }
+
     /**
      * Updates an item in the DB.
      */
@@ -292,9 +380,10 @@ public class MigrateFromRestoreTask {
      * @param items all the items on the screen under operation
      * @param outLoss array of size 2. The first entry is filled with weight loss, and the second
      * with the overall item movement.
+     * @param stats the solution of the screen, to which the search statistics are added.
      */
     private ArrayList<DbEntry> tryRemove(int col, int row, ArrayList<DbEntry> items,
-            float[] outLoss) {
+            float[] outLoss, ScreenSolution stats) {
         boolean[][] occupied = new boolean[mTrgX][mTrgY];
 
         col = mShouldRemoveX ? col : Integer.MAX_VALUE;
@@ -319,6 +408,10 @@ public class MigrateFromRestoreTask {
 
         OptimalPlacementSolution placement = new OptimalPlacementSolution(occupied, removedItems);
         placement.find();
+        stats.searchSteps += placement.mSteps;
+        if (placement.mBudgetExhausted) {
+            stats.exhaustedSearches++;
+        }
         finalItems.addAll(placement.finalPlacedItems);
         outLoss[0] = placement.lowestWeightLoss;
         outLoss[1] = placement.lowestMoveCost;
@@ -347,6 +440,16 @@ public class MigrateFromRestoreTask {
         return true;
     }
 
+    /**
+     * Branch and bound search of the placement with the least weight loss, and then the least
+     * move cost, for a list of items on a partially occupied screen.
+     *
+     * Branches are cut when a lower bound of the weight loss, obtained by filling the free
+     * cells with the remaining items in decreasing weight per cell, cannot beat the best
+     * placement so far. Occupancy states already reached at the same item with a lower cost are
+     * not explored again. The search stops after {@link #MAX_SEARCH_STEPS} steps or
+     * {@link #MAX_SEARCH_MILLIS}, keeping the best placement found so far.
+     */
     private class OptimalPlacementSolution {
         private final ArrayList<DbEntry> itemsToPlace;
         private final boolean[][] occupied;
@@ -359,10 +462,29 @@ public class MigrateFromRestoreTask {
         float lowestMoveCost = Float.MAX_VALUE;
         ArrayList<DbEntry> finalPlacedItems;
 
+        // Items placed along the current branch
+        private final DbEntry[] mPlaced;
+
+        // For each index, the following items ordered by decreasing weight per cell, and their
+        // total weight. Used to compute the lower bound of the weight loss.
+        private final int[][] mByDensity;
+        private final float[] mRemainingWeight;
+        private final int[] mMinArea;
+
+        // For each index, the lowest weightLoss and moveCost seen for each occupancy state.
+        // Only used when the grid fits in a long.
+        private final HashMap<Long, float[]>[] mVisited;
+        private int mVisitedCount;
+
+        @Thunk int mSteps;
+        private long mStartTime;
+        @Thunk boolean mBudgetExhausted;
+
         public OptimalPlacementSolution(boolean[][] occupied, ArrayList<DbEntry> itemsToPlace) {
             this(occupied, itemsToPlace, false);
         }
 
+        @SuppressWarnings("unchecked")
         public OptimalPlacementSolution(boolean[][] occupied, ArrayList<DbEntry> itemsToPlace,
                 boolean ignoreMove) {
             this.occupied = occupied;
@@ -371,10 +493,63 @@ public class MigrateFromRestoreTask {
 
             // Sort the items such that larger widgets appear first followed by 1x1 items
             Collections.sort(this.itemsToPlace);
+
+            int count = itemsToPlace.size();
+            mPlaced = new DbEntry[count];
+            mMinArea = new int[count];
+            for (int i = 0; i < count; i++) {
+                DbEntry item = itemsToPlace.get(i);
+                // Widgets are resized down by at most one cell in each direction
+                mMinArea[i] = Math.max(item.minSpanX, item.spanX - 1)
+                        * Math.max(item.minSpanY, item.spanY - 1);
+            }
+
+            mByDensity = new int[count + 1][];
+            mRemainingWeight = new float[count + 1];
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer lhs, Integer rhs) {
+                    return Float.compare(getDensity(rhs), getDensity(lhs));
+                }
+            });
+            for (int i = 0; i <= count; i++) {
+                int[] suffix = new int[count - i];
+                int n = 0;
+                for (Integer j : order) {
+                    if (j >= i) {
+                        suffix[n++] = j;
+                        mRemainingWeight[i] += itemsToPlace.get(j).weight;
+                    }
+                }
+                mByDensity[i] = suffix;
+            }
+
+            mVisited = mTrgX * mTrgY <= 64 ? new HashMap[count] : null;
+        }
+
+        @Thunk float getDensity(int index) {
+            return itemsToPlace.get(index).weight / mMinArea[index];
         }
 
         public void find() {
-            find(0, 0, 0, new ArrayList<DbEntry>());
+            int freeCells = 0;
+            long occupancy = 0;
+            for (int x = 0; x < mTrgX; x++) {
+                for (int y = 0; y < mTrgY; y++) {
+                    if (occupied[x][y]) {
+                        occupancy |= getCellBits(x, y, 1, 1);
+                    } else {
+                        freeCells++;
+                    }
+                }
+            }
+
+            mStartTime = System.currentTimeMillis();
+            find(0, 0, 0, 0, freeCells, occupancy);
         }
 
         /**
@@ -382,13 +557,15 @@ public class MigrateFromRestoreTask {
          * @param index the position in {@link #itemsToPlace} to start looking at.
          * @param weightLoss total weight loss upto this point
          * @param moveCost total move cost upto this point
-         * @param itemsPlaced all the items already placed upto this point
+         * @param placedCount number of items in {@link #mPlaced} upto this point
+         * @param freeCells number of cells still vacant
+         * @param occupancy bit mask of the occupied cells, if {@link #mVisited} is used
          */
-        public void find(int index, float weightLoss, float moveCost,
-                ArrayList<DbEntry> itemsPlaced) {
-            if ((weightLoss >= lowestWeightLoss) ||
-                    ((weightLoss == lowestWeightLoss) && (moveCost >= lowestMoveCost))) {
-                // Abort, as we already have a better solution.
+        private void find(int index, float weightLoss, float moveCost, int placedCount,
+                int freeCells, long occupancy) {
+            if (mBudgetExhausted || weightLoss + getLossLowerBound(index, freeCells)
+                    >= lowestWeightLoss - WEIGHT_EPSILON) {
+                // Abort, as this branch cannot lose less weight than the solution we have.
                 return;
 
             } else if (index >= itemsToPlace.size()) {
@@ -397,7 +574,22 @@ public class MigrateFromRestoreTask {
                 lowestMoveCost = moveCost;
 
                 // Keep a deep copy of current configuration as it can change during recursion.
-                finalPlacedItems = deepCopy(itemsPlaced);
+                finalPlacedItems = new ArrayList<>(placedCount);
+                for (int i = 0; i < placedCount; i++) {
+                    finalPlacedItems.add(mPlaced[i].copy());
+                }
+                return;
+            } else if (wasVisited(index, weightLoss, moveCost, occupancy)) {
+                return;
+            }
+
+            mSteps++;
+            if (finalPlacedItems != null && (mSteps >= MAX_SEARCH_STEPS
+                    || ((mSteps & 0xff) == 0
+                            && System.currentTimeMillis() - mStartTime >= MAX_SEARCH_MILLIS))) {
+                // Keep the best placement found so far. The first branch goes straight to the
+                // end, so there is always one by then.
+                mBudgetExhausted = true;
                 return;
             }
 
@@ -405,10 +597,8 @@ public class MigrateFromRestoreTask {
             int myX = me.cellX;
             int myY = me.cellY;
 
-            // List of items to pass over if this item was placed.
-            ArrayList<DbEntry> itemsIncludingMe = new ArrayList<>(itemsPlaced.size() + 1);
-            itemsIncludingMe.addAll(itemsPlaced);
-            itemsIncludingMe.add(me);
+            // The next level sees this item as placed if it gets placed.
+            mPlaced[placedCount] = me;
 
             if (me.spanX > 1 || me.spanY > 1) {
                 // If the current item is a widget (and it greater than 1x1), try to place it at
@@ -434,28 +624,25 @@ public class MigrateFromRestoreTask {
 
                         if (isVacant(occupied, x, y, myW, myH)) {
                             // place at this position and continue search.
-                            markCells(occupied, me, true);
-                            find(index + 1, weightLoss, newMoveCost, itemsIncludingMe);
-                            markCells(occupied, me, false);
+                            findWithPlaced(me, index, weightLoss, newMoveCost, placedCount,
+                                    freeCells, occupancy);
                         }
 
                         // Try resizing horizontally
                         if (myW > me.minSpanX && isVacant(occupied, x, y, myW - 1, myH)) {
                             me.spanX --;
-                            markCells(occupied, me, true);
                             // 1 extra move cost
-                            find(index + 1, weightLoss, newMoveCost + 1, itemsIncludingMe);
-                            markCells(occupied, me, false);
+                            findWithPlaced(me, index, weightLoss, newMoveCost + 1, placedCount,
+                                    freeCells, occupancy);
                             me.spanX ++;
                         }
 
                         // Try resizing vertically
                         if (myH > me.minSpanY && isVacant(occupied, x, y, myW, myH - 1)) {
                             me.spanY --;
-                            markCells(occupied, me, true);
                             // 1 extra move cost
-                            find(index + 1, weightLoss, newMoveCost + 1, itemsIncludingMe);
-                            markCells(occupied, me, false);
+                            findWithPlaced(me, index, weightLoss, newMoveCost + 1, placedCount,
+                                    freeCells, occupancy);
                             me.spanY ++;
                         }
 
@@ -464,10 +651,9 @@ public class MigrateFromRestoreTask {
                                 isVacant(occupied, x, y, myW - 1, myH - 1)) {
                             me.spanX --;
                             me.spanY --;
-                            markCells(occupied, me, true);
                             // 2 extra move cost
-                            find(index + 1, weightLoss, newMoveCost + 2, itemsIncludingMe);
-                            markCells(occupied, me, false);
+                            findWithPlaced(me, index, weightLoss, newMoveCost + 2, placedCount,
+                                    freeCells, occupancy);
                             me.spanX ++;
                             me.spanY ++;
                         }
@@ -479,7 +665,8 @@ public class MigrateFromRestoreTask {
                 // Finally also try a solution when this item is not included. Trying it in the end
                 // causes it to get skipped in most cases due to higher weight loss, and prevents
                 // unnecessary deep copies of various configurations.
-                find(index + 1, weightLoss + me.weight, moveCost, itemsPlaced);
+                find(index + 1, weightLoss + me.weight, moveCost, placedCount,
+                        freeCells, occupancy);
             } else {
                 // Since this is a 1x1 item and all the following items are also 1x1, just place
                 // it at 'the most appropriate position' and hope for the best.
@@ -514,9 +701,8 @@ public class MigrateFromRestoreTask {
                     if (ignoreMove) {
                         newMoveCost = moveCost;
                     }
-                    markCells(occupied, me, true);
-                    find(index + 1, weightLoss, newMoveCost, itemsIncludingMe);
-                    markCells(occupied, me, false);
+                    findWithPlaced(me, index, weightLoss, newMoveCost, placedCount,
+                            freeCells, occupancy);
                     me.cellX = myX;
                     me.cellY = myY;
 
@@ -528,23 +714,113 @@ public class MigrateFromRestoreTask {
                     //      anyway be same.
                     if (index + 1 < itemsToPlace.size()
                             && itemsToPlace.get(index + 1).weight >= me.weight && !ignoreMove) {
-                        find(index + 1, weightLoss + me.weight, moveCost, itemsPlaced);
+                        find(index + 1, weightLoss + me.weight, moveCost, placedCount,
+                                freeCells, occupancy);
                     }
                 } else {
                     // No more space. Jump to the end.
                     for (int i = index + 1; i < itemsToPlace.size(); i++) {
                         weightLoss += itemsToPlace.get(i).weight;
                     }
-                    find(itemsToPlace.size(), weightLoss + me.weight, moveCost, itemsPlaced);
+                    find(itemsToPlace.size(), weightLoss + me.weight, moveCost, placedCount,
+                            freeCells, occupancy);
+                }
+            }
+        }
+
+        /**
+         * Marks the item as placed at its current position and size, and continues the search
+         * with the next item.
+         */
+        private void findWithPlaced(DbEntry me, int index, float weightLoss, float moveCost,
+                int placedCount, int freeCells, long occupancy) {
+            markCells(occupied, me, true);
+            find(index + 1, weightLoss, moveCost, placedCount + 1,
+                    freeCells - me.spanX * me.spanY,
+                    occupancy | getCellBits(me.cellX, me.cellY, me.spanX, me.spanY));
+            markCells(occupied, me, false);
+        }
+
+        /**
+         * Returns a lower bound of the weight lost by the items starting at index: the weight
+         * which does not fit in the free cells when filling them with the items of highest
+         * weight per cell first, allowing to split items.
+         */
+        private float getLossLowerBound(int index, int freeCells) {
+            float kept = 0;
+            for (int j : mByDensity[index]) {
+                if (freeCells <= 0) {
+                    break;
+                }
+                float weight = itemsToPlace.get(j).weight;
+                if (mMinArea[j] <= freeCells) {
+                    kept += weight;
+                    freeCells -= mMinArea[j];
+                } else {
+                    kept += weight * freeCells / mMinArea[j];
+                    freeCells = 0;
+                }
+            }
+            return Math.max(0, mRemainingWeight[index] - kept);
+        }
+
+        /**
+         * Returns true if the same occupancy was already reached at this index for a lower or
+         * equal cost, and records the current cost otherwise.
+         */
+        private boolean wasVisited(int index, float weightLoss, float moveCost, long occupancy) {
+            if (mVisited == null) {
+                return false;
+            }
+            HashMap<Long, float[]> visited = mVisited[index];
+            if (visited == null) {
+                visited = new HashMap<>();
+                mVisited[index] = visited;
+            }
+            float[] cost = visited.get(occupancy);
+            if (cost != null) {
+                if (isBetterOrEqual(cost[0], cost[1], weightLoss, moveCost)) {
+                    return true;
+                }
+                cost[0] = weightLoss;
+                cost[1] = moveCost;
+            } else if (mVisitedCount < MAX_VISITED_STATES) {
+                visited.put(occupancy, new float[] {weightLoss, moveCost});
+                mVisitedCount++;
+            }
+            return false;
+        }
+
+        /**
+         * Returns true if the cost (weightLoss1, moveCost1) is lower or equal to
+         * (weightLoss2, moveCost2).
+         */
+        private boolean isBetterOrEqual(float weightLoss1, float moveCost1,
+                float weightLoss2, float moveCost2) {
+            if (weightLoss2 > weightLoss1 + WEIGHT_EPSILON) {
+                return true;
+            }
+            return weightLoss2 >= weightLoss1 - WEIGHT_EPSILON && moveCost2 >= moveCost1;
+        }
+
+        private long getCellBits(int x, int y, int w, int h) {
+            if (mVisited == null) {
+                return 0;
+            }
+            long bits = 0;
+            for (int i = x; i < x + w; i++) {
+                for (int j = y; j < y + h; j++) {
+                    bits |= 1L << (i * mTrgY + j);
                 }
             }
+            return bits;
         }
     }
 
     /**
-     * Loads entries for a particular screen id.
+     * Loads the entries of all the workspace screens in a single query, keyed by screen id.
      */
-    public ArrayList<DbEntry> loadEntries(long screen) {
+    private LongArrayMap<ArrayList<DbEntry>> loadAllEntries() {
        Cursor c =  mContext.getContentResolver().query(LauncherSettings.Favorites.CONTENT_URI,
                 new String[] {
                     Favorites._ID,                  // 0
@@ -554,9 +830,11 @@ public class MigrateFromRestoreTask {
                     Favorites.SPANX,                // 4
                     Favorites.SPANY,                // 5
                     Favorites.INTENT,               // 6
-                    Favorites.APPWIDGET_PROVIDER},  // 7
+                    Favorites.APPWIDGET_PROVIDER,   // 7
+                    Favorites.CONTAINER,            // 8
+                    Favorites.SCREEN},              // 9
                 Favorites.CONTAINER + " = " + Favorites.CONTAINER_DESKTOP
-                    + " AND " + Favorites.SCREEN + " = " + screen, null, null, null);
+                    + " OR " + Favorites.CONTAINER + " > 0", null, null, null);
 
        final int indexId = c.getColumnIndexOrThrow(Favorites._ID);
        final int indexItemType = c.getColumnIndexOrThrow(Favorites.ITEM_TYPE);
@@ -566,9 +844,38 @@ public class MigrateFromRestoreTask {
        final int indexSpanY = c.getColumnIndexOrThrow(Favorites.SPANY);
        final int indexIntent = c.getColumnIndexOrThrow(Favorites.INTENT);
        final int indexAppWidgetProvider = c.getColumnIndexOrThrow(Favorites.APPWIDGET_PROVIDER);
+       final int indexContainer = c.getColumnIndexOrThrow(Favorites.CONTAINER);
+       final int indexScreen = c.getColumnIndexOrThrow(Favorites.SCREEN);
 
-       ArrayList<DbEntry> entries = new ArrayList<>();
+       // First pass over the folder contents: the number of valid items in each folder, and the
+       // invalid ones.
+       LongArrayMap<Integer> folderCounts = new LongArrayMap<>();
+       LongArrayMap<ArrayList<Long>> invalidFolderItems = new LongArrayMap<>();
        while (c.moveToNext()) {
+           long container = c.getLong(indexContainer);
+           if (container == Favorites.CONTAINER_DESKTOP) {
+               continue;
+           }
+           try {
+               verifyIntent(c.getString(indexIntent));
+               Integer count = folderCounts.get(container);
+               folderCounts.put(container, count == null ? 1 : count + 1);
+           } catch (Exception e) {
+               ArrayList<Long> invalid = invalidFolderItems.get(container);
+               if (invalid == null) {
+                   invalid = new ArrayList<>();
+                   invalidFolderItems.put(container, invalid);
+               }
+               invalid.add(c.getLong(indexId));
+           }
+       }
+
+       LongArrayMap<ArrayList<DbEntry>> entries = new LongArrayMap<>();
+       c.moveToPosition(-1);
+       while (c.moveToNext()) {
+           if (c.getLong(indexContainer) != Favorites.CONTAINER_DESKTOP) {
+               continue;
+           }
            DbEntry entry = new DbEntry();
            entry.id = c.getLong(indexId);
            entry.itemType = c.getInt(indexItemType);
@@ -576,7 +883,7 @@ public class MigrateFromRestoreTask {
            entry.cellY = c.getInt(indexCellY);
            entry.spanX = c.getInt(indexSpanX);
            entry.spanY = c.getInt(indexSpanY);
-           entry.screenId = screen;
+           entry.screenId = c.getLong(indexScreen);
 
            try {
                // calculate weight
@@ -614,8 +921,12 @@ public class MigrateFromRestoreTask {
                        break;
                    }
                    case Favorites.ITEM_TYPE_FOLDER: {
-                       int total = getFolderItemsCount(entry.id);
-                       if (total == 0) {
+                       ArrayList<Long> invalid = invalidFolderItems.get(entry.id);
+                       if (invalid != null) {
+                           mEntryToRemove.addAll(invalid);
+                       }
+                       Integer total = folderCounts.get(entry.id);
+                       if (total == null) {
                            throw new Exception("Folder is empty");
                        }
                        entry.weight = WT_FOLDER_FACTOR * total;
@@ -632,32 +943,17 @@ public class MigrateFromRestoreTask {
                continue;
            }
 
-           entries.add(entry);
+           ArrayList<DbEntry> screenEntries = entries.get(entry.screenId);
+           if (screenEntries == null) {
+               screenEntries = new ArrayList<>();
+               entries.put(entry.screenId, screenEntries);
+           }
+           screenEntries.add(entry);
        }
+       c.close();
        return entries;
     }
 
-    /**
-     * @return the number of valid items in the folder.
-     */
-    private int getFolderItemsCount(long folderId) {
-        Cursor c =  mContext.getContentResolver().query(LauncherSettings.Favorites.CONTENT_URI,
-                new String[] {Favorites._ID, Favorites.INTENT},
-                Favorites.CONTAINER + " = " + folderId, null, null, null);
-
-        int total = 0;
-        while (c.moveToNext()) {
-            try {
-                verifyIntent(c.getString(1));
-                total++;
-            } catch (Exception e) {
-                mEntryToRemove.add(c.getLong(0));
-            }
-        }
-
-        return total;
-    }
-
     /**
      * Verifies if the intent should be restored.
      */
@@ -680,6 +976,22 @@ public class MigrateFromRestoreTask {
         }
     }
 
+    /**
+     * The best row and column to remove from a screen, and the resulting items.
+     */
+    private static class ScreenSolution {
+        int removedCol = Integer.MAX_VALUE;
+        int removedRow = Integer.MAX_VALUE;
+        float removeWt = Float.MAX_VALUE;
+        float moveWt = Float.MAX_VALUE;
+        ArrayList<DbEntry> finalItems;
+
+        // Statistics of the placement searches, logged once per screen
+        int searchSteps;
+        int exhaustedSearches;
+        long searchMillis;
+    }
+
     private static class DbEntry extends ItemInfo implements Comparable<DbEntry> {
 
         public float weight;
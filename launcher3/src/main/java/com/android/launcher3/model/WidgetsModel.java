@@ -92,8 +92,8 @@ public class WidgetsModel {
         return mRawList;
     }
 
-    public void setWidgetsAndShortcuts(ArrayList<Object> rawWidgetsShortcuts) {
-        Utilities.assertWorkerThread();
+    public synchronized void setWidgetsAndShortcuts(ArrayList<Object> rawWidgetsShortcuts) {
+        Utilities.assertWidgetsThread();
         mRawList = rawWidgetsShortcuts;
         if (DEBUG) {
             Log.d(TAG, "addWidgetsAndShortcuts, widgetsShortcuts#=" + rawWidgetsShortcuts.size());
@@ -184,7 +184,7 @@ public class WidgetsModel {
      * Usage case: view binding without being modified from package updates.
      */
     @Override
-    public WidgetsModel clone(){
+    public synchronized WidgetsModel clone(){
         return new WidgetsModel(this);
     }
 }
\ No newline at end of file
@@ -26,6 +26,8 @@ import com.android.launcher3.LauncherSettings;
 import com.android.launcher3.ShortcutInfo;
 import com.android.launcher3.Utilities;
 
+import java.util.Arrays;
+
 /**
  * Utility class to load icon from a cursor.
  */
@@ -67,4 +69,11 @@ public class CursorIconInfo {
         }
         return icon;
     }
+
+    /**
+     * Returns the hash of the icon blob of the current row, see {@link ShortcutInfo#iconBlobHash}.
+     */
+    public int getIconBlobHash(Cursor c) {
+        return Arrays.hashCode(c.getBlob(iconIndex));
+    }
 }
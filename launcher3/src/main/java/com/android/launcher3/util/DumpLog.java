@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import java.io.PrintWriter;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * Fixed size circular log of debug events. An event is stored as its time, tag, message
+ * template and arguments, and only formatted when the log is dumped, so adding an event does
+ * not allocate beyond boxing its arguments, and the log does not grow over time. Once full,
+ * the oldest events are overwritten.
+ *
+ * Arguments must not be modified after they are logged.
+ */
+public class DumpLog {
+
+    private final long[] mTimes;
+    private final int[] mTagIds;
+    private final String[] mTemplates;
+    private final int[] mArgCounts;
+    private final Object[] mArgs0;
+    private final Object[] mArgs1;
+    private final Throwable[] mErrors;
+
+    private final ArrayList<String> mTags = new ArrayList<>();
+    private final HashMap<String, Integer> mTagIdsByName = new HashMap<>();
+
+    // Index of the next event to write, and number of events written in total. Guarded by this.
+    private int mNext;
+    private long mCount;
+
+    public DumpLog(int capacity) {
+        mTimes = new long[capacity];
+        mTagIds = new int[capacity];
+        mTemplates = new String[capacity];
+        mArgCounts = new int[capacity];
+        mArgs0 = new Object[capacity];
+        mArgs1 = new Object[capacity];
+        mErrors = new Throwable[capacity];
+    }
+
+    public void add(String tag, String msg, Throwable error) {
+        add(tag, msg, 0, null, null, error);
+    }
+
+    public void add(String tag, String template, Object arg) {
+        add(tag, template, 1, arg, null, null);
+    }
+
+    public void add(String tag, String template, Object arg0, Object arg1) {
+        add(tag, template, 2, arg0, arg1, null);
+    }
+
+    private synchronized void add(String tag, String template, int argCount,
+            Object arg0, Object arg1, Throwable error) {
+        int i = mNext;
+        mTimes[i] = System.currentTimeMillis();
+        mTagIds[i] = getTagId(tag);
+        mTemplates[i] = template;
+        mArgCounts[i] = argCount;
+        mArgs0[i] = arg0;
+        mArgs1[i] = arg1;
+        mErrors[i] = error;
+        mNext = (i + 1) % mTimes.length;
+        mCount++;
+    }
+
+    private int getTagId(String tag) {
+        Integer id = mTagIdsByName.get(tag);
+        if (id == null) {
+            id = mTags.size();
+            mTags.add(tag);
+            mTagIdsByName.put(tag, id);
+        }
+        return id;
+    }
+
+    /**
+     * Prints the events from the oldest one, one per line.
+     */
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        int capacity = mTimes.length;
+        int size = (int) Math.min(mCount, capacity);
+        if (mCount > size) {
+            writer.println(prefix + "(" + (mCount - size) + " older events overwritten)");
+        }
+
+        DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT,
+                DateFormat.SHORT);
+        Date date = new Date();
+        for (int n = 0; n < size; n++) {
+            int i = (mNext - size + n + capacity) % capacity;
+            date.setTime(mTimes[i]);
+            String msg = mArgCounts[i] == 0 ? mTemplates[i]
+                    : format(mTemplates[i], mArgs0[i], mArgs1[i]);
+            writer.println(prefix + dateFormat.format(date) + ": " + mTags.get(mTagIds[i])
+                    + ", " + msg + (mErrors[i] == null ? "" : (", Exception: " + mErrors[i])));
+        }
+    }
+
+    /**
+     * Replaces the "%s" placeholders of the template by the arguments, in order. Unlike
+     * {@link String#format}, this does not parse the template or allocate a formatter, as it
+     * also builds the messages logged to logcat on the loader thread.
+     */
+    public static String format(String template, Object arg0, Object arg1) {
+        StringBuilder sb = new StringBuilder(template.length() + 32);
+        int start = 0;
+        for (int arg = 0; arg < 2; arg++) {
+            int index = template.indexOf("%s", start);
+            if (index < 0) {
+                break;
+            }
+            sb.append(template, start, index).append(arg == 0 ? arg0 : arg1);
+            start = index + 2;
+        }
+        return sb.append(template, start, template.length()).toString();
+    }
+}
@@ -3,122 +3,105 @@ package com.android.launcher3.util;
 
 import android.os.Environment;
 
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Created by majianjiang on 16/1/1.
+ *
+ * Logging calls only record the message and the call site in a lock-free ring buffer. A
+ * background thread resolves the file and line of the call site, formats the messages and
+ * writes them to logcat, and to a rotating file if enabled, in batches. Messages logged while
+ * the buffer is full are dropped and counted.
  */
 public class Log {
     private final static String TAG = "llk";
     private final static boolean sOpenLog = true;
     private final static boolean sOpenLogToFile = false;
-    private static FileWriter mFileWriter = null;
+
+    // Must be a power of two
+    private static final int BUFFER_SIZE = 1024;
+    private static final long FLUSH_INTERVAL_NANOS = 200 * 1000 * 1000;
+    private static final String LOG_FILE_NAME = "launcher3-log.txt";
+    private static final long MAX_LOG_FILE_SIZE = 1024 * 1024;
+
+    // Index of the logging method's caller in the stack trace of the call site
+    private static final int CALLER_FRAME = 2;
+
+    private static final RingBuffer sBuffer = new RingBuffer(BUFFER_SIZE);
+    private static final Flusher sFlusher = new Flusher();
+
+    static {
+        sFlusher.start();
+    }
 
     public static void d(String logKey, String msg) {
         if (sOpenLog) {
-            StackTraceElement ste = new Throwable().getStackTrace()[1];
-            StringBuilder sb = new StringBuilder();
-            sb.append("[").append(logKey).append("]").append(build(msg, ste));
-            String log = sb.toString();
-            android.util.Log.d(TAG, log);
-            if (sOpenLogToFile) {
-                writeToFile(log);
-            }
+            log(android.util.Log.DEBUG, logKey, msg, null);
         }
     }
 
     public static void d(String msg) {
         if (sOpenLog) {
-            StackTraceElement ste = new Throwable().getStackTrace()[1];
-            String log = build(msg, ste);
-            android.util.Log.d(TAG, log);
+            log(android.util.Log.DEBUG, null, msg, null);
         }
     }
 
     public static void i(String logKey, String msg) {
         if (sOpenLog) {
-            StackTraceElement ste = new Throwable().getStackTrace()[1];
-            String log = build(msg, ste);
-            android.util.Log.i(TAG, "[" + logKey + "]" + log);
+            log(android.util.Log.INFO, logKey, msg, null);
         }
     }
 
     public static void v(String logKey, String msg) {
         if (sOpenLog) {
-            StackTraceElement ste = new Throwable().getStackTrace()[1];
-            String log = build(msg, ste);
-            android.util.Log.v(TAG, "[" + logKey + "]" + log);
+            log(android.util.Log.VERBOSE, logKey, msg, null);
         }
     }
 
     public static void w(String logKey, String msg) {
         if (sOpenLog) {
-            StackTraceElement ste = new Throwable().getStackTrace()[1];
-            String log = build(logKey, msg, ste);
-            android.util.Log.w(TAG, log);
-            if (sOpenLogToFile) {
-                writeToFile(log);
-            }
+            log(android.util.Log.WARN, logKey, msg, null);
         }
     }
 
     public static void e(String logKey, String msg) {
         if (sOpenLog) {
-            StackTraceElement ste = new Throwable().getStackTrace()[1];
-            String log = build(logKey, msg, ste);
-            android.util.Log.e(TAG, log);
-            if (sOpenLogToFile) {
-                writeToFile(log);
-            }
+            log(android.util.Log.ERROR, logKey, msg, null);
         }
     }
 
     public static void e(String logKey, String msg, Throwable e) {
         if (sOpenLog) {
-            StackTraceElement ste = new Throwable().getStackTrace()[1];
-            String log = build(logKey, msg, ste);
-            android.util.Log.e(TAG, log, e);
-            if (sOpenLogToFile) {
-                writeToFile(build(logKey, msg, ste, e));
-            }
+            log(android.util.Log.ERROR, logKey, msg, e);
         }
     }
 
-    private static void writeToFile(String strLog) {
-        if (!sOpenLogToFile) {
-            return;
-        }
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.getDefault());
-        String date = dateFormat.format(new java.util.Date());
-        if (mFileWriter == null) {
-            String logFilePath = Environment.getExternalStorageDirectory().toString() + "/SettingsLog-" + date + ".txt";
-            try {
-                mFileWriter = new FileWriter(logFilePath, true);
-            } catch (IOException e) {
-                android.util.Log.e(TAG, "create file writer fail", e);
-            }
-        }
-
-        try {
-            mFileWriter.write(date);
-            mFileWriter.write(":");
-            mFileWriter.write(strLog);
-            mFileWriter.write("\r\n");
-            mFileWriter.flush();
-        } catch (IOException e) {
-            android.util.Log.e(TAG, "write file fail", e);
+    /**
+     * Must be called directly from the public logging methods, see {@link #CALLER_FRAME}.
+     */
+    private static void log(int priority, String logKey, String msg, Throwable error) {
+        // The stack trace is only captured here, it is resolved on the flusher thread
+        Entry entry = new Entry(priority, logKey, msg, new Throwable(), error);
+        long position = sBuffer.offer(entry);
+        if (priority >= android.util.Log.WARN || position < 0
+                || (position & (BUFFER_SIZE / 2 - 1)) == 0) {
+            // Write important messages right away, and drain the buffer before it fills up
+            sFlusher.wake();
         }
     }
 
     /**
-     * 制作打log位置的文件名与文件行号详细信息
-     *
-     * @param log
-     * @param ste
-     * @return
+     * Makes the file name and line number of the logging call site
      */
     private static String build(String log, StackTraceElement ste) {
         StringBuilder buf = new StringBuilder();
@@ -155,5 +138,221 @@ public class Log {
         sb.append("[").append(logKey).append("]").append(ste.toString()).append(":").append(msg).append("\r\n").append("e:").append(e.getMessage());
         return sb.toString();
     }
-}
 
+    private static class Entry {
+        final long mTime = System.currentTimeMillis();
+        final int mPriority;
+        final String mKey;
+        final String mMsg;
+        final Throwable mCallSite;
+        final Throwable mError;
+
+        Entry(int priority, String key, String msg, Throwable callSite, Throwable error) {
+            mPriority = priority;
+            mKey = key;
+            mMsg = msg;
+            mCallSite = callSite;
+            mError = error;
+        }
+    }
+
+    /**
+     * Bounded multi-producer, single consumer queue. Each slot has a sequence number telling
+     * whether it is free for the producer at a position or holds an entry for the consumer.
+     */
+    private static class RingBuffer {
+        private final Entry[] mEntries;
+        private final AtomicLongArray mSequences;
+        private final int mMask;
+        private final AtomicLong mTail = new AtomicLong();
+        private final AtomicInteger mDropped = new AtomicInteger();
+
+        // Only accessed by the consumer
+        private long mHead;
+
+        RingBuffer(int size) {
+            mEntries = new Entry[size];
+            mSequences = new AtomicLongArray(size);
+            mMask = size - 1;
+            for (int i = 0; i < size; i++) {
+                mSequences.set(i, i);
+            }
+        }
+
+        /**
+         * @return the position of the entry, or -1 if the buffer is full.
+         */
+        long offer(Entry entry) {
+            long position = mTail.get();
+            while (true) {
+                int index = (int) position & mMask;
+                long diff = mSequences.get(index) - position;
+                if (diff == 0) {
+                    if (mTail.compareAndSet(position, position + 1)) {
+                        mEntries[index] = entry;
+                        // Publishes the entry to the consumer
+                        mSequences.set(index, position + 1);
+                        return position;
+                    }
+                    position = mTail.get();
+                } else if (diff < 0) {
+                    mDropped.incrementAndGet();
+                    return -1;
+                } else {
+                    // Another producer took this position
+                    position = mTail.get();
+                }
+            }
+        }
+
+        Entry poll() {
+            int index = (int) mHead & mMask;
+            if (mSequences.get(index) != mHead + 1) {
+                return null;
+            }
+            Entry entry = mEntries[index];
+            mEntries[index] = null;
+            // Frees the slot for the producer one lap ahead
+            mSequences.set(index, mHead + mMask + 1);
+            mHead++;
+            return entry;
+        }
+
+        int takeDroppedCount() {
+            return mDropped.getAndSet(0);
+        }
+    }
+
+    /**
+     * Drains the ring buffer periodically, or when woken up by a producer.
+     */
+    private static class Flusher extends Thread {
+        private final SimpleDateFormat mDateFormat =
+                new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss.SSS", Locale.US);
+        private final Date mDate = new Date();
+
+        private File mLogFile;
+        private BufferedWriter mFileWriter;
+        private long mFileSize;
+
+        Flusher() {
+            super("launcher-log");
+            setDaemon(true);
+            setPriority(Thread.MIN_PRIORITY);
+        }
+
+        void wake() {
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                LockSupport.parkNanos(this, FLUSH_INTERVAL_NANOS);
+                drain();
+            }
+        }
+
+        private void drain() {
+            boolean written = false;
+            Entry entry;
+            while ((entry = sBuffer.poll()) != null) {
+                write(entry);
+                written = true;
+            }
+            int dropped = sBuffer.takeDroppedCount();
+            if (dropped > 0) {
+                String log = "Dropped " + dropped + " log messages";
+                android.util.Log.w(TAG, log);
+                writeToFile(System.currentTimeMillis(), log);
+                written = true;
+            }
+            if (written && mFileWriter != null) {
+                try {
+                    mFileWriter.flush();
+                } catch (IOException e) {
+                    android.util.Log.e(TAG, "write file fail", e);
+                    closeFile();
+                }
+            }
+        }
+
+        private void write(Entry entry) {
+            StackTraceElement[] trace = entry.mCallSite.getStackTrace();
+            StackTraceElement ste = trace.length > CALLER_FRAME
+                    ? trace[CALLER_FRAME] : new StackTraceElement("?", "?", null, -1);
+
+            String log = entry.mKey == null
+                    ? build(entry.mMsg, ste) : build(entry.mKey, entry.mMsg, ste);
+            if (entry.mError != null) {
+                android.util.Log.println(entry.mPriority, TAG,
+                        log + '\n' + android.util.Log.getStackTraceString(entry.mError));
+                writeToFile(entry.mTime, build(entry.mKey, entry.mMsg, ste, entry.mError));
+            } else {
+                android.util.Log.println(entry.mPriority, TAG, log);
+                writeToFile(entry.mTime, log);
+            }
+        }
+
+        private void writeToFile(long time, String strLog) {
+            if (!sOpenLogToFile || !openFile()) {
+                return;
+            }
+            mDate.setTime(time);
+            String date = mDateFormat.format(mDate);
+            try {
+                mFileWriter.write(date);
+                mFileWriter.write(":");
+                mFileWriter.write(strLog);
+                mFileWriter.write("\r\n");
+                mFileSize += date.length() + strLog.length() + 3;
+                if (mFileSize > MAX_LOG_FILE_SIZE) {
+                    rotateFile();
+                }
+            } catch (IOException e) {
+                android.util.Log.e(TAG, "write file fail", e);
+                closeFile();
+            }
+        }
+
+        private boolean openFile() {
+            if (mFileWriter != null) {
+                return true;
+            }
+            if (mLogFile == null) {
+                mLogFile = new File(Environment.getExternalStorageDirectory(), LOG_FILE_NAME);
+            }
+            try {
+                mFileWriter = new BufferedWriter(new FileWriter(mLogFile, true));
+                mFileSize = mLogFile.length();
+                return true;
+            } catch (IOException e) {
+                android.util.Log.e(TAG, "create file writer fail", e);
+                return false;
+            }
+        }
+
+        /**
+         * Keeps the current file as the single backup, and starts a new one.
+         */
+        private void rotateFile() {
+            closeFile();
+            File backup = new File(mLogFile.getPath() + ".1");
+            backup.delete();
+            if (!mLogFile.renameTo(backup)) {
+                mLogFile.delete();
+            }
+        }
+
+        private void closeFile() {
+            if (mFileWriter != null) {
+                try {
+                    mFileWriter.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+                mFileWriter = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+/**
+ * Latency stats of a task queue. Tasks are wrapped by {@link #wrap} when they are enqueued, and
+ * record per task type how long they waited before starting and how long they ran, as well as
+ * the depth of the queue. The stats can be queried at runtime or logged by {@link #dumpState}.
+ */
+public class QueueStats {
+
+    public static final int TYPE_OTHER = 0;
+    public static final int TYPE_BIND = 1;
+    public static final int TYPE_DB_WRITE = 2;
+    public static final int TYPE_PACKAGE_UPDATE = 3;
+    public static final int TYPE_LOADER = 4;
+
+    private static final String[] TYPE_NAMES = {
+            "other", "bind", "dbWrite", "packageUpdate", "loader"
+    };
+    private static final int TYPE_COUNT = TYPE_NAMES.length;
+
+    /** Upper bounds of the run time histogram buckets, the last bucket has no bound. */
+    private static final long[] BUCKET_LIMITS_MILLIS = {1, 4, 16, 64, 256};
+    public static final int BUCKET_COUNT = BUCKET_LIMITS_MILLIS.length + 1;
+
+    @Thunk static final int STATE_QUEUED = 0;
+    @Thunk static final int STATE_STARTED = 1;
+    @Thunk static final int STATE_CANCELLED = 2;
+
+    private final String mName;
+
+    // All guarded by this
+    private final int[] mCounts = new int[TYPE_COUNT];
+    private final int[] mCancelledCounts = new int[TYPE_COUNT];
+    private final long[] mTotalWaitMillis = new long[TYPE_COUNT];
+    private final long[] mMaxWaitMillis = new long[TYPE_COUNT];
+    private final long[] mMaxRunMillis = new long[TYPE_COUNT];
+    private final int[][] mRunHistograms = new int[TYPE_COUNT][BUCKET_COUNT];
+    private int mDepth;
+    private int mMaxDepth;
+
+    public QueueStats(String name) {
+        mName = name;
+    }
+
+    /**
+     * Returns a runnable to enqueue in place of the task. If it is dropped from the queue
+     * without running, {@link Task#cancel} must be called so that the queue depth stays right.
+     * The task can itself be a task of another queue, which is then cancelled along with it.
+     */
+    public Task wrap(Runnable r, int type) {
+        synchronized (this) {
+            mDepth++;
+            if (mDepth > mMaxDepth) {
+                mMaxDepth = mDepth;
+            }
+        }
+        return new Task(r, type);
+    }
+
+    /**
+     * @return false if the task was already started or cancelled, in which case it is not
+     *      accounted for again.
+     */
+    @Thunk synchronized boolean onStarted(Task task, long waitMillis) {
+        if (task.mState != STATE_QUEUED) {
+            return false;
+        }
+        task.mState = STATE_STARTED;
+        mDepth--;
+        int type = task.mType;
+        mCounts[type]++;
+        mTotalWaitMillis[type] += waitMillis;
+        if (waitMillis > mMaxWaitMillis[type]) {
+            mMaxWaitMillis[type] = waitMillis;
+        }
+        return true;
+    }
+
+    @Thunk synchronized void onFinished(Task task, long runMillis) {
+        int type = task.mType;
+        if (runMillis > mMaxRunMillis[type]) {
+            mMaxRunMillis[type] = runMillis;
+        }
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS_MILLIS.length && runMillis >= BUCKET_LIMITS_MILLIS[bucket]) {
+            bucket++;
+        }
+        mRunHistograms[type][bucket]++;
+    }
+
+    @Thunk synchronized void onCancelled(Task task) {
+        if (task.mState == STATE_QUEUED) {
+            task.mState = STATE_CANCELLED;
+            mDepth--;
+            mCancelledCounts[task.mType]++;
+        }
+    }
+
+    public synchronized int getDepth() {
+        return mDepth;
+    }
+
+    public synchronized int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    public synchronized int getCount(int type) {
+        return mCounts[type];
+    }
+
+    public synchronized long getAverageWaitMillis(int type) {
+        return mCounts[type] == 0 ? 0 : mTotalWaitMillis[type] / mCounts[type];
+    }
+
+    public synchronized long getMaxWaitMillis(int type) {
+        return mMaxWaitMillis[type];
+    }
+
+    public synchronized long getMaxRunMillis(int type) {
+        return mMaxRunMillis[type];
+    }
+
+    /**
+     * @return the number of tasks of the type per run time bucket, the buckets being
+     *      [0, 1), [1, 4), [4, 16), [16, 64), [64, 256) and 256+ milliseconds.
+     */
+    public synchronized int[] getRunHistogram(int type) {
+        return mRunHistograms[type].clone();
+    }
+
+    public synchronized void dumpState(String tag) {
+        Log.d(tag, mName + ": depth=" + mDepth + " maxDepth=" + mMaxDepth);
+        for (int type = 0; type < TYPE_COUNT; type++) {
+            if (mCounts[type] == 0 && mCancelledCounts[type] == 0) {
+                continue;
+            }
+            StringBuilder histogram = new StringBuilder();
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                histogram.append(bucket == 0 ? "" : ",").append(mRunHistograms[type][bucket]);
+            }
+            Log.d(tag, mName + "  " + TYPE_NAMES[type] + ": tasks=" + mCounts[type]
+                    + " cancelled=" + mCancelledCounts[type]
+                    + " avgWait=" + getAverageWaitMillis(type) + "ms"
+                    + " maxWait=" + mMaxWaitMillis[type] + "ms"
+                    + " maxRun=" + mMaxRunMillis[type] + "ms"
+                    + " run[<1,<4,<16,<64,<256,256+ms]=" + histogram);
+        }
+    }
+
+    /**
+     * A task enqueued on the measured queue.
+     */
+    public class Task implements Runnable {
+        private final Runnable mRunnable;
+        @Thunk final int mType;
+        private final long mEnqueueNanos = System.nanoTime();
+        // Guarded by the stats
+        @Thunk int mState = STATE_QUEUED;
+
+        @Thunk Task(Runnable r, int type) {
+            mRunnable = r;
+            mType = type;
+        }
+
+        public int getType() {
+            return mType;
+        }
+
+        @Override
+        public void run() {
+            long startNanos = System.nanoTime();
+            boolean measured = onStarted(this, (startNanos - mEnqueueNanos) / 1000000);
+            try {
+                mRunnable.run();
+            } finally {
+                if (measured) {
+                    onFinished(this, (System.nanoTime() - startNanos) / 1000000);
+                }
+            }
+        }
+
+        public void cancel() {
+            onCancelled(this);
+            if (mRunnable instanceof Task) {
+                // Moved from another queue without running, it is dropped from both
+                ((Task) mRunnable).cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A named serial queue backed by its own {@link HandlerThread}. Tasks run one at a time in the
+ * order they were posted. Tasks posted through {@link #post} are measured by the queue's
+ * {@link QueueStats}, which are reported by {@link #dumpState}.
+ */
+public class WorkerQueue {
+
+    private final String mName;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final QueueStats mStats;
+    // Thread holding the queue blocked, guarded by this
+    private Thread mBlockingThread;
+
+    public WorkerQueue(String name) {
+        this(name, Process.THREAD_PRIORITY_DEFAULT);
+    }
+
+    public WorkerQueue(String name, int priority) {
+        mName = name;
+        mThread = new HandlerThread(name, priority);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mStats = new QueueStats(name);
+    }
+
+    public HandlerThread getThread() {
+        return mThread;
+    }
+
+    public Looper getLooper() {
+        return mThread.getLooper();
+    }
+
+    /**
+     * Returns the handler of this queue. Runnables posted directly on the handler are not
+     * accounted for in the queue stats.
+     */
+    public Handler getHandler() {
+        return mHandler;
+    }
+
+    public boolean isCurrentThread() {
+        return mThread.getThreadId() == Process.myTid();
+    }
+
+    public QueueStats getStats() {
+        return mStats;
+    }
+
+    public void post(Runnable r) {
+        post(r, QueueStats.TYPE_OTHER);
+    }
+
+    /**
+     * @param type the type of the task in the queue stats, one of the QueueStats.TYPE_* values.
+     */
+    public void post(Runnable r, int type) {
+        mHandler.post(mStats.wrap(r, type));
+    }
+
+    public void execute(Runnable r) {
+        execute(r, QueueStats.TYPE_OTHER);
+    }
+
+    /**
+     * Runs the specified runnable immediately if called from this queue's thread, otherwise it
+     * is posted at the end of the queue.
+     */
+    public void execute(Runnable r, int type) {
+        if (isCurrentThread()) {
+            r.run();
+        } else {
+            post(r, type);
+        }
+    }
+
+    /**
+     * Waits until all the tasks posted so far have run, and holds back any further task until
+     * {@link Barrier#release} is called. Must not be called from this queue's thread. When
+     * called again by the thread already holding the queue blocked, returns at once a barrier
+     * which leaves the queue blocked when released.
+     */
+    public Barrier block() {
+        if (isCurrentThread()) {
+            throw new IllegalStateException("Cannot block " + mName + " from its own thread");
+        }
+        synchronized (this) {
+            if (mBlockingThread == Thread.currentThread()) {
+                return new Barrier(null);
+            }
+        }
+        final Barrier barrier = new Barrier(this);
+        mHandler.post(barrier);
+        try {
+            barrier.mReached.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            mBlockingThread = Thread.currentThread();
+        }
+        return barrier;
+    }
+
+    @Thunk synchronized void onBarrierReleased() {
+        mBlockingThread = null;
+    }
+
+    public void dumpState(String tag) {
+        mStats.dumpState(tag);
+    }
+
+    /**
+     * Parks the queue thread until released. See {@link #block}.
+     */
+    public static class Barrier implements Runnable {
+        @Thunk final CountDownLatch mReached = new CountDownLatch(1);
+        private final CountDownLatch mReleased = new CountDownLatch(1);
+        // Null for a nested barrier, which is never posted
+        private final WorkerQueue mQueue;
+
+        @Thunk Barrier(WorkerQueue queue) {
+            mQueue = queue;
+        }
+
+        @Override
+        public void run() {
+            mReached.countDown();
+            try {
+                mReleased.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void release() {
+            if (mQueue != null && mReleased.getCount() > 0) {
+                mQueue.onBarrierReleased();
+            }
+            mReleased.countDown();
+        }
+    }
+}
@@ -17,8 +17,12 @@
 package com.android.photos;
 
 import android.annotation.TargetApi;
+import android.content.ContentResolver;
 import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
 import android.content.res.Resources;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapRegionDecoder;
@@ -28,7 +32,9 @@ import android.graphics.Rect;
 import android.net.Uri;
 import android.opengl.GLUtils;
 import android.os.Build;
+import android.provider.OpenableColumns;
 import com.android.launcher3.util.Log;
+import com.android.launcher3.util.Thunk;
 
 import com.android.gallery3d.common.BitmapUtils;
 import com.android.gallery3d.common.Utils;
@@ -38,9 +44,12 @@ import com.android.gallery3d.glrenderer.BitmapTexture;
 import com.android.photos.views.TiledImageRenderer;
 
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 interface SimpleBitmapRegionDecoder {
     int getWidth();
@@ -88,6 +97,9 @@ class SimpleBitmapRegionDecoderWrapper implements SimpleBitmapRegionDecoder {
     public Bitmap decodeRegion(Rect wantRegion, BitmapFactory.Options options) {
         return mDecoder.decodeRegion(wantRegion, options);
     }
+    public void recycle() {
+        mDecoder.recycle();
+    }
 }
 
 class DumbBitmapRegionDecoder implements SimpleBitmapRegionDecoder {
@@ -153,6 +165,9 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
     private static final int MAX_PREVIEW_SIZE = GL_SIZE_LIMIT / 2;
 
     public static abstract class BitmapSource {
+        // Only the orientation is needed from the EXIF header
+        protected static final int[] EXIF_TAGS = { ExifInterface.TAG_ORIENTATION };
+
         private SimpleBitmapRegionDecoder mDecoder;
         private Bitmap mPreview;
         private int mRotation;
@@ -185,8 +200,11 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
                 opts.inMutable = true;
 
                 if (bitmapProvider != null) {
-                    int expectedPixles = (width / opts.inSampleSize) * (height / opts.inSampleSize);
-                    Bitmap reusableBitmap = bitmapProvider.forPixelCount(expectedPixles);
+                    // Decoders round the sampled size up
+                    int sampleSize = opts.inSampleSize;
+                    Bitmap reusableBitmap = bitmapProvider.forSize(
+                            (width + sampleSize - 1) / sampleSize,
+                            (height + sampleSize - 1) / sampleSize, sampleSize);
                     if (reusableBitmap != null) {
                         // Try loading with reusable bitmap
                         opts.inBitmap = reusableBitmap;
@@ -194,9 +212,12 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
                             mPreview = loadPreviewBitmap(opts);
                         } catch (IllegalArgumentException e) {
                             Log.d(TAG, "Unable to reusage bitmap" + ", exception: " + e);
-                            opts.inBitmap = null;
                             mPreview = null;
                         }
+                        if (mPreview == null) {
+                            bitmapProvider.onReuseFailed(reusableBitmap);
+                        }
+                        opts.inBitmap = null;
                     }
                 }
                 if (mPreview == null) {
@@ -232,12 +253,30 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
             return mRotation;
         }
 
+        /**
+         * Returns a string identifying the image content, used to cache decoded tiles on disk,
+         * or null if the tiles of this source should not be cached.
+         */
+        public String getCacheKey() {
+            return null;
+        }
+
         public abstract boolean readExif(ExifInterface ei);
         public abstract SimpleBitmapRegionDecoder loadBitmapRegionDecoder();
         public abstract Bitmap loadPreviewBitmap(BitmapFactory.Options options);
 
         public interface InBitmapProvider {
-            Bitmap forPixelCount(int count);
+            /**
+             * Returns a mutable bitmap which a preview of the given size, decoded with the
+             * given sample size, can be decoded into, or null.
+             */
+            Bitmap forSize(int width, int height, int sampleSize);
+
+            /**
+             * Called when the preview could not be decoded into the bitmap returned by
+             * {@link #forSize}.
+             */
+            void onReuseFailed(Bitmap bitmap);
         }
     }
 
@@ -247,6 +286,11 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
             mPath = path;
         }
         @Override
+        public String getCacheKey() {
+            File file = new File(mPath);
+            return mPath + ":" + file.length() + ":" + file.lastModified();
+        }
+        @Override
         public SimpleBitmapRegionDecoder loadBitmapRegionDecoder() {
             SimpleBitmapRegionDecoder d;
             d = SimpleBitmapRegionDecoderWrapper.newInstance(mPath, true);
@@ -262,7 +306,7 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
         @Override
         public boolean readExif(ExifInterface ei) {
             try {
-                ei.readExif(mPath);
+                ei.readExif(mPath, EXIF_TAGS);
                 return true;
             } catch (NullPointerException e) {
                 Log.w("BitmapRegionTileSource", "reading exif failed" + ", exception: " + e);
@@ -275,12 +319,50 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
     }
 
     public static class UriBitmapSource extends BitmapSource {
+        // DocumentsContract.Document.COLUMN_LAST_MODIFIED, which is not available before KK
+        private static final String COLUMN_LAST_MODIFIED = "last_modified";
+
         private Context mContext;
         private Uri mUri;
         public UriBitmapSource(Context context, Uri uri) {
             mContext = context;
             mUri = uri;
         }
+        @Override
+        public String getCacheKey() {
+            if (ContentResolver.SCHEME_FILE.equals(mUri.getScheme())) {
+                File file = new File(mUri.getPath());
+                return mUri + ":" + file.length() + ":" + file.lastModified();
+            }
+            // The content behind the uri can change, only cache it if it can be versioned
+            String[] versionColumns = {OpenableColumns.SIZE, COLUMN_LAST_MODIFIED};
+            Cursor c = null;
+            try {
+                c = mContext.getContentResolver().query(mUri, null, null, null, null);
+                if (c == null || !c.moveToFirst()) {
+                    return null;
+                }
+                StringBuilder key = new StringBuilder(mUri.toString());
+                boolean versioned = false;
+                for (String column : versionColumns) {
+                    int index = c.getColumnIndex(column);
+                    if (index >= 0 && !c.isNull(index)) {
+                        key.append(':').append(c.getLong(index));
+                        versioned = true;
+                    } else {
+                        key.append(":-");
+                    }
+                }
+                return versioned ? key.toString() : null;
+            } catch (RuntimeException e) {
+                Log.w("BitmapRegionTileSource", "Failed to query URI " + mUri + ": " + e);
+                return null;
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
+            }
+        }
         private InputStream regenerateInputStream() throws FileNotFoundException {
             InputStream is = mContext.getContentResolver().openInputStream(mUri);
             return new BufferedInputStream(is);
@@ -320,7 +402,7 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
             InputStream is = null;
             try {
                 is = regenerateInputStream();
-                ei.readExif(is);
+                ei.readExif(is, EXIF_TAGS);
                 Utils.closeSilently(is);
                 return true;
             } catch (FileNotFoundException e) {
@@ -339,12 +421,28 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
     }
 
     public static class ResourceBitmapSource extends BitmapSource {
+        private Context mContext;
         private Resources mRes;
         private int mResId;
-        public ResourceBitmapSource(Resources res, int resId) {
+        public ResourceBitmapSource(Context context, Resources res, int resId) {
+            mContext = context;
             mRes = res;
             mResId = resId;
         }
+        @Override
+        public String getCacheKey() {
+            try {
+                // The resource can change when its package is updated
+                PackageInfo info = mContext.getPackageManager().getPackageInfo(
+                        mRes.getResourcePackageName(mResId), 0);
+                return mRes.getResourceName(mResId) + ":" + info.versionCode + ":"
+                        + info.lastUpdateTime;
+            } catch (Resources.NotFoundException e) {
+                return null;
+            } catch (PackageManager.NameNotFoundException e) {
+                return null;
+            }
+        }
         private InputStream regenerateInputStream() {
             InputStream is = mRes.openRawResource(mResId);
             return new BufferedInputStream(is);
@@ -370,7 +468,7 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
         public boolean readExif(ExifInterface ei) {
             try {
                 InputStream is = regenerateInputStream();
-                ei.readExif(is);
+                ei.readExif(is, EXIF_TAGS);
                 Utils.closeSilently(is);
                 return true;
             } catch (IOException e) {
@@ -387,21 +485,44 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
     private BasicTexture mPreview;
     private final int mRotation;
 
-    // For use only by getTile
-    private Rect mWantRegion = new Rect();
-    private BitmapFactory.Options mOptions;
+    private final BitmapSource mSource;
+    private final byte[] mTempStorage;
+
+    // Decoded tiles are cached on disk, when the source can be identified
+    private final TileDiskCache mTileCache;
+    private final String mTileCacheKey;
+    private final AtomicBoolean mSharedStateClaimed = new AtomicBoolean();
+    // Decoders opened for the other decoding threads, recycled by release(). Guarded by itself.
+    private final ArrayList<SimpleBitmapRegionDecoderWrapper> mThreadDecoders = new ArrayList<>();
+    // Read by the decoding threads while holding their decoder
+    private volatile boolean mReleased;
+
+    // Tiles can be decoded by several threads at once. Each thread gets its own options, temp
+    // storage and, if possible, its own decoder, as BitmapRegionDecoder serializes decodes.
+    private final ThreadLocal<DecodeState> mDecodeState = new ThreadLocal<DecodeState>() {
+        @Override
+        protected DecodeState initialValue() {
+            return newDecodeState();
+        }
+    };
+
+    private static class DecodeState {
+        final Rect wantRegion = new Rect();
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        SimpleBitmapRegionDecoder decoder;
+    }
 
     public BitmapRegionTileSource(Context context, BitmapSource source, byte[] tempStorage) {
         mTileSize = TiledImageRenderer.suggestedTileSize(context);
         mRotation = source.getRotation();
+        mSource = source;
+        mTempStorage = tempStorage;
         mDecoder = source.getBitmapRegionDecoder();
+        String cacheKey = null;
         if (mDecoder != null) {
             mWidth = mDecoder.getWidth();
             mHeight = mDecoder.getHeight();
-            mOptions = new BitmapFactory.Options();
-            mOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
-            mOptions.inPreferQualityOverSpeed = true;
-            mOptions.inTempStorage = tempStorage;
+            cacheKey = source.getCacheKey();
 
             Bitmap preview = source.getPreviewBitmap();
             if (preview != null &&
@@ -415,6 +536,63 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
                         preview.getWidth(), preview.getHeight()));
             }
         }
+        if (cacheKey != null) {
+            mTileCache = TileDiskCache.getInstance(context);
+            mTileCacheKey = TileDiskCache.hashKey(cacheKey + ":" + mWidth + "x" + mHeight + ":"
+                    + mTileSize);
+        } else {
+            mTileCache = null;
+            mTileCacheKey = null;
+        }
+    }
+
+    @Thunk DecodeState newDecodeState() {
+        DecodeState state = new DecodeState();
+        state.options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        state.options.inPreferQualityOverSpeed = true;
+        if (mSharedStateClaimed.compareAndSet(false, true)) {
+            // The first decoding thread uses the decoder and storage we were given
+            state.options.inTempStorage = mTempStorage;
+            state.decoder = mDecoder;
+        } else {
+            state.options.inTempStorage = new byte[mTempStorage != null
+                    ? mTempStorage.length : 16 * 1024];
+            // Opening another decoder for the fallback decoder would decode the whole image again
+            if (mDecoder instanceof SimpleBitmapRegionDecoderWrapper) {
+                SimpleBitmapRegionDecoder decoder = mSource.loadBitmapRegionDecoder();
+                if (decoder instanceof SimpleBitmapRegionDecoderWrapper) {
+                    synchronized (mThreadDecoders) {
+                        if (mReleased) {
+                            ((SimpleBitmapRegionDecoderWrapper) decoder).recycle();
+                        } else {
+                            mThreadDecoders.add((SimpleBitmapRegionDecoderWrapper) decoder);
+                            state.decoder = decoder;
+                        }
+                    }
+                }
+            }
+            if (state.decoder == null) {
+                state.decoder = mDecoder;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Recycles the decoders opened for the decoding threads. Tiles requested afterwards from
+     * these threads are not decoded.
+     */
+    public void release() {
+        synchronized (mThreadDecoders) {
+            mReleased = true;
+            for (SimpleBitmapRegionDecoderWrapper decoder : mThreadDecoders) {
+                // Waits for a decode in progress on the decoder
+                synchronized (decoder) {
+                    decoder.recycle();
+                }
+            }
+            mThreadDecoders.clear();
+        }
     }
 
     public Bitmap getBitmap() {
@@ -448,27 +626,47 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
 
     @Override
     public Bitmap getTile(int level, int x, int y, Bitmap bitmap) {
+        final boolean cacheable = mTileCache != null
+                && TileDiskCache.shouldCacheLevel(mWidth, mHeight, getTileSize(), level);
+        if (cacheable) {
+            Bitmap cached = mTileCache.get(mTileCacheKey, level, x, y, bitmap);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         int tileSize = getTileSize();
         int t = tileSize << level;
-        mWantRegion.set(x, y, x + t, y + t);
+        DecodeState state = mDecodeState.get();
+        state.wantRegion.set(x, y, x + t, y + t);
 
         if (bitmap == null) {
             bitmap = Bitmap.createBitmap(tileSize, tileSize, Bitmap.Config.ARGB_8888);
         }
 
-        mOptions.inSampleSize = (1 << level);
-        mOptions.inBitmap = bitmap;
+        BitmapFactory.Options options = state.options;
+        options.inSampleSize = (1 << level);
+        options.inBitmap = bitmap;
 
         try {
-            bitmap = mDecoder.decodeRegion(mWantRegion, mOptions);
+            // Only contended when the decoder is shared between threads
+            synchronized (state.decoder) {
+                if (state.decoder != mDecoder && mReleased) {
+                    bitmap = null;
+                } else {
+                    bitmap = state.decoder.decodeRegion(state.wantRegion, options);
+                }
+            }
         } finally {
-            if (mOptions.inBitmap != bitmap && mOptions.inBitmap != null) {
-                mOptions.inBitmap = null;
+            if (options.inBitmap != bitmap && options.inBitmap != null) {
+                options.inBitmap = null;
             }
         }
 
         if (bitmap == null) {
             Log.w("BitmapRegionTileSource", "fail in decoding region");
+        } else if (cacheable) {
+            mTileCache.put(mTileCacheKey, level, x, y, bitmap);
         }
         return bitmap;
     }
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.photos;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Process;
+
+import com.android.gallery3d.common.Utils;
+import com.android.launcher3.util.Log;
+import com.android.launcher3.util.Thunk;
+import com.android.launcher3.util.WorkerQueue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Disk cache of decoded wallpaper tiles, so that reopening or panning a recently used wallpaper
+ * reads the tiles back instead of decoding regions of the compressed image again.
+ *
+ * Each tile is stored in its own file as its size followed by its raw ARGB_8888 pixels, and the
+ * file is memory mapped to copy the pixels in and out of the tile bitmap. Tiles are written on
+ * a background thread, off the decoder threads. The least recently used tiles are deleted once
+ * the cache grows past {@link #MAX_SIZE}, and only the levels of an image which take a fraction
+ * of it are cached, see {@link #shouldCacheLevel}.
+ *
+ * Safe to use from several tile decoder threads.
+ */
+public class TileDiskCache {
+    private static final String TAG = "TileDiskCache";
+
+    private static final String DIR_NAME = "wallpaper_tiles";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long MAX_SIZE = 64 * 1024 * 1024;
+    private static final int HEADER_SIZE = 8;
+    // Largest share of the cache one level of an image can take, so that a few images fit
+    private static final long MAX_LEVEL_SIZE = MAX_SIZE / 4;
+    // Tiles copied and waiting to be written, further tiles are not cached until they are
+    private static final int MAX_PENDING_WRITES = 8;
+
+    private static TileDiskCache sInstance;
+
+    private final File mDir;
+
+    // Tile file name to file size, least recently used first. Guarded by this.
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSize;
+    private boolean mLoaded;
+    // Names of the tiles waiting to be written. Guarded by this.
+    private final HashSet<String> mPendingWrites = new HashSet<>();
+    private WorkerQueue mWriteQueue;
+
+    public static synchronized TileDiskCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TileDiskCache(new File(context.getCacheDir(), DIR_NAME));
+        }
+        return sInstance;
+    }
+
+    private TileDiskCache(File dir) {
+        mDir = dir;
+    }
+
+    /**
+     * Returns a key for the given image description which is safe to use in file names.
+     */
+    public static String hashKey(String key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] digest = md.digest(key.getBytes());
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    /**
+     * Returns whether the tiles of a level are worth caching: the full resolution level of a
+     * large image would evict itself, while the coarser levels are the ones shown when the
+     * image is opened again.
+     */
+    public static boolean shouldCacheLevel(int imageWidth, int imageHeight, int tileSize,
+            int level) {
+        long levelTileSize = (long) tileSize << level;
+        long columns = (imageWidth + levelTileSize - 1) / levelTileSize;
+        long rows = (imageHeight + levelTileSize - 1) / levelTileSize;
+        return columns * rows * tileSize * tileSize * 4 <= MAX_LEVEL_SIZE;
+    }
+
+    /**
+     * Reads a tile from the cache into {@code reuse} if it has the right size, or into a new
+     * bitmap otherwise.
+     *
+     * @return the tile, or null if it is not in the cache.
+     */
+    public Bitmap get(String sourceKey, int level, int x, int y, Bitmap reuse) {
+        String name = getFileName(sourceKey, level, x, y);
+        synchronized (this) {
+            loadLocked();
+            if (mEntries.get(name) == null) {
+                return null;
+            }
+        }
+
+        File file = new File(mDir, name);
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            ByteBuffer buf = channel.map(MapMode.READ_ONLY, 0, length);
+            int width = buf.getInt();
+            int height = buf.getInt();
+            if (width <= 0 || height <= 0 || length != HEADER_SIZE + width * height * 4L) {
+                throw new IOException("Invalid tile file " + name);
+            }
+
+            Bitmap bitmap = reuse;
+            if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height
+                    || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            }
+            bitmap.copyPixelsFromBuffer(buf);
+            file.setLastModified(System.currentTimeMillis());
+            return bitmap;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read tile " + name + ", exception: " + e);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to read tile " + name + ", exception: " + e);
+        } finally {
+            Utils.closeSilently(raf);
+        }
+        remove(name);
+        return null;
+    }
+
+    /**
+     * Queues a copy of a decoded tile to be written to the cache, evicting the least recently
+     * used tiles if needed. The tile can be reused as soon as this returns.
+     */
+    public void put(String sourceKey, int level, int x, int y, Bitmap tile) {
+        if (tile.getConfig() != Bitmap.Config.ARGB_8888
+                || tile.getRowBytes() != tile.getWidth() * 4) {
+            return;
+        }
+        final String name = getFileName(sourceKey, level, x, y);
+        synchronized (this) {
+            loadLocked();
+            if (mEntries.containsKey(name) || mPendingWrites.contains(name)
+                    || mPendingWrites.size() >= MAX_PENDING_WRITES) {
+                return;
+            }
+            mPendingWrites.add(name);
+            if (mWriteQueue == null) {
+                mWriteQueue = new WorkerQueue("wallpaper-tile-cache",
+                        Process.THREAD_PRIORITY_BACKGROUND);
+            }
+        }
+
+        final Bitmap copy = tile.copy(Bitmap.Config.ARGB_8888, false);
+        if (copy == null) {
+            synchronized (this) {
+                mPendingWrites.remove(name);
+            }
+            return;
+        }
+        mWriteQueue.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(name, copy);
+                } finally {
+                    copy.recycle();
+                    synchronized (TileDiskCache.this) {
+                        mPendingWrites.remove(name);
+                    }
+                }
+            }
+        });
+    }
+
+    @Thunk void write(String name, Bitmap tile) {
+        long length = HEADER_SIZE + tile.getWidth() * tile.getHeight() * 4L;
+        File temp = new File(mDir, name + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+        RandomAccessFile raf = null;
+        boolean written = false;
+        try {
+            raf = new RandomAccessFile(temp, "rw");
+            ByteBuffer buf = raf.getChannel().map(MapMode.READ_WRITE, 0, length);
+            buf.putInt(tile.getWidth());
+            buf.putInt(tile.getHeight());
+            tile.copyPixelsToBuffer(buf);
+            written = true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write tile " + name + ", exception: " + e);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to write tile " + name + ", exception: " + e);
+        } finally {
+            Utils.closeSilently(raf);
+        }
+        if (!written || !temp.renameTo(new File(mDir, name))) {
+            temp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            Long old = mEntries.put(name, length);
+            mSize += length - (old != null ? old : 0);
+            trimLocked();
+        }
+    }
+
+    private synchronized void remove(String name) {
+        Long length = mEntries.remove(name);
+        if (length != null) {
+            mSize -= length;
+        }
+        new File(mDir, name).delete();
+    }
+
+    private void trimLocked() {
+        Iterator<Map.Entry<String, Long>> it = mEntries.entrySet().iterator();
+        while (mSize > MAX_SIZE && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            new File(mDir, entry.getKey()).delete();
+            mSize -= entry.getValue();
+            it.remove();
+        }
+    }
+
+    /**
+     * Builds the index from the files left by previous runs, oldest first.
+     */
+    private void loadLocked() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.w(TAG, "Failed to create " + mDir);
+            return;
+        }
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            long length = file.length();
+            mEntries.put(file.getName(), length);
+            mSize += length;
+        }
+        trimLocked();
+    }
+
+    private static String getFileName(String sourceKey, int level, int x, int y) {
+        return sourceKey + "_" + level + "_" + x + "_" + y;
+    }
+}
@@ -43,6 +43,15 @@ public class TiledImageRenderer {
     private static final String TAG = "TiledImageRenderer";
     private static final int UPLOAD_LIMIT = 1;
 
+    // How far ahead the motion of the viewport is extrapolated to prefetch tiles, and how many
+    // tiles can be prefetched per layout, which keeps the extra tiles within the tile pool.
+    private static final float PREFETCH_LOOKAHEAD_SECONDS = 0.3f;
+    private static final int MAX_PREFETCH_TILES = 8;
+
+    // Number of threads decoding tiles in parallel, leaving cores for the UI and GL threads
+    public static final int DEFAULT_DECODER_COUNT =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
     /*
      *  This is the tile state in the CPU side.
      *  Life of a Tile:
@@ -83,7 +92,7 @@ public class TiledImageRenderer {
     // half size of the previous one). If the value is in [0, mLevelCount), we
     // use the bitmap in mScaledBitmaps[mLevel] for display, otherwise the value
     // is mLevelCount
-    @Thunk int mLevel = 0;
+    @Thunk volatile int mLevel = 0;
 
     private int mOffsetX;
     private int mOffsetY;
@@ -113,11 +122,19 @@ public class TiledImageRenderer {
 
     private boolean mLayoutTiles;
 
+    // Velocity of the center in image pixels per second, and zoom direction
+    private float mVelocityX;
+    private float mVelocityY;
+    private int mScaleTrend;
+    // Tiles of this level in mPrefetchRange are kept active, -1 if there is none
+    private int mPrefetchLevel = -1;
+    private final Rect mPrefetchRange = new Rect();
+
     // Temp variables to avoid memory allocation
     private final Rect mTileRange = new Rect();
     private final Rect mActiveRange[] = {new Rect(), new Rect()};
 
-    private TileDecoder mTileDecoder;
+    private final TileDecoder[] mTileDecoders;
     private boolean mBackgroundTileUploaded;
 
     private int mViewWidth, mViewHeight;
@@ -154,7 +171,8 @@ public class TiledImageRenderer {
          * the original image (down-scaled by a factor of 2^level), but (x, y)
          * still refers to the coordinate on the original image.
          *
-         * The method would be called by the decoder thread.
+         * The method is called by the decoder threads, possibly by several of
+         * them at the same time.
          */
         public Bitmap getTile(int level, int x, int y, Bitmap reuse);
     }
@@ -172,9 +190,16 @@ public class TiledImageRenderer {
     }
 
     public TiledImageRenderer(View parent) {
+        this(parent, DEFAULT_DECODER_COUNT);
+    }
+
+    public TiledImageRenderer(View parent, int decoderCount) {
         mParent = parent;
-        mTileDecoder = new TileDecoder();
-        mTileDecoder.start();
+        mTileDecoders = new TileDecoder[Math.max(1, decoderCount)];
+        for (int i = 0; i < mTileDecoders.length; i++) {
+            mTileDecoders[i] = new TileDecoder(i);
+            mTileDecoders[i].start();
+        }
     }
 
     public int getViewWidth() {
@@ -249,6 +274,24 @@ public class TiledImageRenderer {
         mLayoutTiles = true;
     }
 
+    /**
+     * Sets the current motion of the viewport, used to decode the tiles it is moving towards
+     * before they become visible.
+     *
+     * @param velocityX velocity of the center in image pixels per second
+     * @param velocityY velocity of the center in image pixels per second
+     * @param scaleTrend 1 if zooming in, -1 if zooming out, 0 otherwise
+     */
+    public void setMotion(float velocityX, float velocityY, int scaleTrend) {
+        if (mVelocityX == velocityX && mVelocityY == velocityY && mScaleTrend == scaleTrend) {
+            return;
+        }
+        mVelocityX = velocityX;
+        mVelocityY = velocityY;
+        mScaleTrend = scaleTrend;
+        mLayoutTiles = true;
+    }
+
     // Prepare the tiles we want to use for display.
     //
     // 1. Decide the tile level we want to use for display.
@@ -278,7 +321,15 @@ public class TiledImageRenderer {
             getRange(range, mCenterX, mCenterY, mLevel, mScale, mRotation);
             mOffsetX = Math.round(mViewWidth / 2f + (range.left - mCenterX) * mScale);
             mOffsetY = Math.round(mViewHeight / 2f + (range.top - mCenterY) * mScale);
-            fromLevel = mScale * (1 << mLevel) > 0.75f ? mLevel - 1 : mLevel;
+            if (mScaleTrend > 0) {
+                // Zooming in, keep the next finer level
+                fromLevel = mLevel - 1;
+            } else if (mScaleTrend < 0) {
+                // Zooming out, keep the next coarser level
+                fromLevel = mLevel;
+            } else {
+                fromLevel = mScale * (1 << mLevel) > 0.75f ? mLevel - 1 : mLevel;
+            }
         } else {
             // Activate the tiles of the smallest two levels.
             fromLevel = mLevel - 2;
@@ -299,6 +350,18 @@ public class TiledImageRenderer {
             return;
         }
 
+        // The range the viewport is moving towards
+        mPrefetchLevel = -1;
+        if (mLevel != mLevelCount && (mVelocityX != 0 || mVelocityY != 0)) {
+            float maxX = mViewWidth / mScale;
+            float maxY = mViewHeight / mScale;
+            float dx = Math.max(-maxX, Math.min(maxX, mVelocityX * PREFETCH_LOOKAHEAD_SECONDS));
+            float dy = Math.max(-maxY, Math.min(maxY, mVelocityY * PREFETCH_LOOKAHEAD_SECONDS));
+            getRange(mPrefetchRange, Math.round(mCenterX + dx), Math.round(mCenterY + dy),
+                    mLevel, mRotation);
+            mPrefetchLevel = mLevel;
+        }
+
         synchronized (mQueueLock) {
             mDecodeQueue.clean();
             mUploadQueue.clean();
@@ -310,12 +373,17 @@ public class TiledImageRenderer {
             for (int i = 0; i < n; i++) {
                 Tile tile = mActiveTiles.valueAt(i);
                 int level = tile.mTileLevel;
-                if (level < fromLevel || level >= endLevel
-                        || !range[level - fromLevel].contains(tile.mX, tile.mY)) {
+                boolean prefetched = level == mPrefetchLevel
+                        && mPrefetchRange.contains(tile.mX, tile.mY);
+                if (!prefetched && (level < fromLevel || level >= endLevel
+                        || !range[level - fromLevel].contains(tile.mX, tile.mY))) {
                     mActiveTiles.removeAt(i);
                     i--;
                     n--;
                     recycleTile(tile);
+                } else if (tile.mTileState == STATE_IN_QUEUE) {
+                    // The decode queue was cleaned above
+                    tile.mTileState = STATE_ACTIVATED;
                 }
             }
         }
@@ -329,9 +397,48 @@ public class TiledImageRenderer {
                 }
             }
         }
+        if (mPrefetchLevel >= fromLevel && mPrefetchLevel < endLevel) {
+            prefetchTiles(range[mPrefetchLevel - fromLevel]);
+        }
         invalidate();
     }
 
+    // Activates and queues the tiles of the prefetch range outside the active range, starting
+    // with the ones closest to the viewport in the direction of the motion. At most
+    // MAX_PREFETCH_TILES new tiles are activated per layout.
+    private void prefetchTiles(Rect activeRange) {
+        int size = mTileSize << mPrefetchLevel;
+        Rect r = mPrefetchRange;
+        if (r.isEmpty()) {
+            return;
+        }
+        int firstX = mVelocityX >= 0 ? r.left : size * ((r.right - 1) / size);
+        int firstY = mVelocityY >= 0 ? r.top : size * ((r.bottom - 1) / size);
+        int stepX = mVelocityX >= 0 ? size : -size;
+        int stepY = mVelocityY >= 0 ? size : -size;
+
+        int count = 0;
+        for (int y = firstY; y >= r.top && y < r.bottom; y += stepY) {
+            for (int x = firstX; x >= r.left && x < r.right; x += stepX) {
+                if (activeRange.contains(x, y)) {
+                    continue;
+                }
+                Tile tile = getTile(x, y, mPrefetchLevel);
+                if (tile == null) {
+                    if (count >= MAX_PREFETCH_TILES) {
+                        continue;
+                    }
+                    count++;
+                    activateTile(x, y, mPrefetchLevel);
+                    tile = getTile(x, y, mPrefetchLevel);
+                }
+                if (!tile.isContentValid()) {
+                    queueForDecode(tile);
+                }
+            }
+        }
+    }
+
     private void invalidateTiles() {
         synchronized (mQueueLock) {
             mDecodeQueue.clean();
@@ -389,7 +496,12 @@ public class TiledImageRenderer {
     public void freeTextures() {
         mLayoutTiles = true;
 
-        mTileDecoder.finishAndWait();
+        for (TileDecoder decoder : mTileDecoders) {
+            decoder.interrupt();
+        }
+        for (TileDecoder decoder : mTileDecoders) {
+            decoder.finishAndWait();
+        }
         synchronized (mQueueLock) {
             mUploadQueue.clean();
             mDecodeQueue.clean();
@@ -782,6 +894,26 @@ public class TiledImageRenderer {
             return false;
         }
 
+        /**
+         * Pops the most recently queued tile of the given level, or the head of the
+         * queue if there is none. Tiles of the displayed level are queued while they
+         * are drawn, so this decodes what is on screen before the other active tiles.
+         */
+        public Tile popForLevel(int level) {
+            Tile prev = null;
+            for (Tile tile = mHead; tile != null; prev = tile, tile = tile.mNext) {
+                if (tile.mTileLevel == level) {
+                    if (prev == null) {
+                        mHead = tile.mNext;
+                    } else {
+                        prev.mNext = tile.mNext;
+                    }
+                    return tile;
+                }
+            }
+            return pop();
+        }
+
         public void clean() {
             mHead = null;
         }
@@ -789,6 +921,10 @@ public class TiledImageRenderer {
 
     @Thunk class TileDecoder extends Thread {
 
+        public TileDecoder(int index) {
+            super("TileDecoder-" + index);
+        }
+
         public void finishAndWait() {
             interrupt();
             try {
@@ -801,7 +937,7 @@ public class TiledImageRenderer {
         private Tile waitForTile() throws InterruptedException {
             synchronized (mQueueLock) {
                 while (true) {
-                    Tile tile = mDecodeQueue.pop();
+                    Tile tile = mDecodeQueue.popForLevel(mLevel);
                     if (tile != null) {
                         return tile;
                     }
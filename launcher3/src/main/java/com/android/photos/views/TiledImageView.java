@@ -53,6 +53,10 @@ public class TiledImageView extends FrameLayout {
         public float scale;
         public int centerX, centerY;
         public int rotation;
+        // Motion of the center in image pixels per second, and the direction of the
+        // current zoom (1 zooming in, -1 zooming out), used to prefetch tiles
+        public float velocityX, velocityY;
+        public int scaleTrend;
         public TileSource source;
         Runnable isReadyCallback;
 
@@ -230,6 +234,8 @@ public class TiledImageView extends FrameLayout {
                 mRenderer.image.setModel(mRenderer.source, mRenderer.rotation);
                 mRenderer.image.setPosition(mRenderer.centerX, mRenderer.centerY,
                         mRenderer.scale);
+                mRenderer.image.setMotion(mRenderer.velocityX, mRenderer.velocityY,
+                        mRenderer.scaleTrend);
             }
             boolean complete = mRenderer.image.draw(mCanvas);
             if (complete && readyCallback != null) {